@@ -0,0 +1,99 @@
+package com.sam.voice;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single-producer, single-consumer byte ring between the capture thread and the
+ * recognizer thread.
+ *
+ * The writer only advances {@code tail} and the reader only advances {@code head}; each
+ * publishes its position with a volatile store the other side reads. A side with nothing to
+ * do parks and the other unparks it after publishing, so neither holds a lock the other
+ * could wait on. {@link #offer} never waits, for a live source that must not fall behind;
+ * {@link #put} waits for room, for a source that must not lose audio.
+ */
+final class AudioRing {
+    private final byte[] buf;
+    private final int mask;
+    private volatile long head, tail;
+    private volatile Thread parkedReader, parkedWriter;
+    private volatile boolean closed;
+
+    /** @param capacity bytes, a power of two */
+    AudioRing(int capacity) {
+        if (Integer.bitCount(capacity) != 1) throw new IllegalArgumentException("capacity must be a power of two");
+        buf = new byte[capacity];
+        mask = capacity - 1;
+    }
+
+    int capacity() {
+        return buf.length;
+    }
+
+    /** Copies all of {@code len} bytes in and returns true, or returns false if they do not fit. */
+    boolean offer(byte[] src, int off, int len) {
+        if (closed || len > buf.length - (tail - head)) return false;
+        write(src, off, len);
+        return true;
+    }
+
+    /** Copies all of {@code len} bytes in, waiting for the reader to make room; false once closed. */
+    boolean put(byte[] src, int off, int len) throws InterruptedException {
+        if (len > buf.length) throw new IllegalArgumentException("chunk larger than the ring");
+        while (!closed && len > buf.length - (tail - head)) {
+            parkedWriter = Thread.currentThread();
+            if (!closed && len > buf.length - (tail - head)) LockSupport.park(this);
+            parkedWriter = null;
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+        if (closed) return false;
+        write(src, off, len);
+        return true;
+    }
+
+    private void write(byte[] src, int off, int len) {
+        long t = tail;
+        int at = (int) t & mask;
+        int first = Math.min(len, buf.length - at);
+        System.arraycopy(src, off, buf, at, first);
+        System.arraycopy(src, off + first, buf, 0, len - first);
+        tail = t + len;
+        Thread r = parkedReader;
+        if (r != null) LockSupport.unpark(r);
+    }
+
+    /**
+     * Copies up to {@code len} bytes out, waiting until there are some; returns -1 once closed
+     * and drained.
+     */
+    int read(byte[] dst, int off, int len) throws InterruptedException {
+        long h = head;
+        while (tail == h) {
+            if (closed) {
+                if (tail == h) return -1;
+                break;
+            }
+            parkedReader = Thread.currentThread();
+            if (tail == h && !closed) LockSupport.park(this);
+            parkedReader = null;
+            if (Thread.interrupted()) throw new InterruptedException();
+        }
+        int n = (int) Math.min(len, tail - h);
+        int at = (int) h & mask;
+        int first = Math.min(n, buf.length - at);
+        System.arraycopy(buf, at, dst, off, first);
+        System.arraycopy(buf, 0, dst, off + first, n - first);
+        head = h + n;
+        Thread w = parkedWriter;
+        if (w != null) LockSupport.unpark(w);
+        return n;
+    }
+
+    /** Ends the stream: the reader drains what is buffered, a waiting writer gives up. */
+    void close() {
+        closed = true;
+        Thread r = parkedReader, w = parkedWriter;
+        if (r != null) LockSupport.unpark(r);
+        if (w != null) LockSupport.unpark(w);
+    }
+}
@@ -0,0 +1,210 @@
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * Sparse TF-IDF retrieval over the chatbot questions.
+ *
+ * Postings, IDF and document norms are held in primitive buffers: heap arrays for an index
+ * built from the TSV ({@link TfIdfIndex}) or views over a memory-mapped file
+ * ({@link MappedChatIndex}). A query only walks the postings of its own terms and accumulates
+ * dot products for the documents it touches, so cost is proportional to the postings visited
+ * rather than docs x vocab. Scores are bit-for-bit the same as the dense cosine over the full
+ * vocabulary: terms are visited in vocabulary order, which is the order the dense dot product
+ * summed them in.
+ *
+ * Instances are immutable (buffers are only read with absolute gets), so an index can be shared
+ * and queried by any number of threads without locking. Per-query scratch space is
+ * thread-confined.
+ */
+public abstract class ChatIndex implements Tokenizer.TermLookup {
+    public static class Hit {
+        public final int doc;
+        public final double score;
+        public final String answer;
+
+        Hit(int doc, double score, String answer) {
+            this.doc = doc; this.score = score; this.answer = answer;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d (%.4f) %s", doc, score, answer);
+        }
+    }
+
+    final int size;
+    final DoubleBuffer idf;
+    // postings in CSR form: docs/tfs of term t live in [postStart[t], postStart[t+1])
+    final IntBuffer postStart;
+    final IntBuffer postDocs;
+    final IntBuffer postTf;
+    final DoubleBuffer norms;
+    // forward lists in CSR form: (term, tf) pairs of doc d, ascending by term, in [docStart[d], docStart[d+1])
+    final IntBuffer docStart;
+    final IntBuffer docTerms;
+    final IntBuffer docTfs;
+
+    // scoring scratch, one per thread and grown to the largest index it has scored
+    static final class Scratch {
+        double[] acc = new double[0];
+        int[] touched = new int[0];
+        double[] scores = new double[0];
+        int[] qTerms = new int[16];
+        double[] qWeights = new double[16];
+
+        Scratch ensure(int n) {
+            if (acc.length < n) { acc = new double[n]; touched = new int[n]; scores = new double[n]; }
+            return this;
+        }
+
+        void ensureQuery(int m) {
+            if (qTerms.length < m) { qTerms = new int[m]; qWeights = new double[m]; }
+        }
+    }
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    static Scratch scratch(int n) {
+        return SCRATCH.get().ensure(n);
+    }
+
+    ChatIndex(int size, DoubleBuffer idf, IntBuffer postStart, IntBuffer postDocs, IntBuffer postTf,
+              DoubleBuffer norms, IntBuffer docStart, IntBuffer docTerms, IntBuffer docTfs) {
+        this.size = size;
+        this.idf = idf;
+        this.postStart = postStart;
+        this.postDocs = postDocs;
+        this.postTf = postTf;
+        this.norms = norms;
+        this.docStart = docStart;
+        this.docTerms = docTerms;
+        this.docTfs = docTfs;
+    }
+
+    /** Vocabulary id of the term in buf[off, off+len), or -1 if no question contains it. */
+    public abstract int termId(char[] buf, int off, int len);
+
+    public int termId(String term) {
+        return termId(term.toCharArray(), 0, term.length());
+    }
+
+    @Override
+    public int id(char[] buf, int off, int len) {
+        return termId(buf, off, len);
+    }
+
+    /** The term with the given vocabulary id. */
+    public abstract String term(int id);
+
+    public abstract String question(int doc);
+
+    public abstract String answer(int doc);
+
+    public int size() {
+        return size;
+    }
+
+    public int vocabSize() {
+        return idf.capacity();
+    }
+
+    /** Number of questions containing the term. */
+    public int df(int term) {
+        return postStart.get(term + 1) - postStart.get(term);
+    }
+
+    // sorts term ids and collapses them into (term, tf) pairs in ascending term order
+    static void countTerms(int[] ids, int len, int[][] outTerms, int[][] outTfs, int slot) {
+        Arrays.sort(ids, 0, len);
+        int distinct = 0;
+        for (int i = 0; i < len; i++) if (i == 0 || ids[i] != ids[i - 1]) distinct++;
+        int[] terms = new int[distinct], tfs = new int[distinct];
+        int j = -1;
+        for (int i = 0; i < len; i++) {
+            if (i == 0 || ids[i] != ids[i - 1]) terms[++j] = ids[i];
+            tfs[j]++;
+        }
+        outTerms[slot] = terms;
+        outTfs[slot] = tfs;
+    }
+
+    /**
+     * Returns up to k documents with a positive cosine score against the query,
+     * best first; equal scores are ordered by document position in the corpus.
+     */
+    public List<Hit> search(String input, int k) {
+        if (k <= 0) return Collections.emptyList();
+        Tokenizer tk = Tokenizer.get();
+        int len = tk.tokenize(input, this);
+        int[] ids = tk.ids();
+        Arrays.sort(ids, 0, len);
+
+        // collapse sorted ids into distinct (term, tf * idf) pairs in ascending term order
+        Scratch scratch = scratch(size);
+        scratch.ensureQuery(len);
+        int[] terms = scratch.qTerms;
+        double[] qw = scratch.qWeights;
+        int nq = 0;
+        double qsq = 0;
+        for (int i = 0; i < len; ) {
+            int t = ids[i], j = i + 1;
+            while (j < len && ids[j] == t) j++;
+            double w = (j - i) * idf.get(t);
+            terms[nq] = t;
+            qw[nq++] = w;
+            qsq += w * w;
+            i = j;
+        }
+        double qnorm = Math.sqrt(qsq);
+        if (qnorm == 0) return Collections.emptyList();
+
+        double[] acc = scratch.acc, scores = scratch.scores;
+        int[] touched = scratch.touched;
+        int nTouched = 0;
+        for (int i = 0; i < nq; i++) {
+            int t = terms[i];
+            double wt = idf.get(t);
+            for (int p = postStart.get(t), end = postStart.get(t + 1); p < end; p++) {
+                int d = postDocs.get(p);
+                if (acc[d] == 0) touched[nTouched++] = d;
+                acc[d] += qw[i] * (postTf.get(p) * wt);
+            }
+        }
+        for (int i = 0; i < nTouched; i++) {
+            int d = touched[i];
+            double denom = qnorm * norms.get(d);
+            scores[i] = denom == 0 ? 0.0 : acc[d] / denom;
+            acc[d] = 0;
+        }
+        return topK(touched, scores, nTouched, k, this::answer);
+    }
+
+    /** Picks the k best of the scored docs, best first, ties by ascending doc id. */
+    static List<Hit> topK(int[] docs, double[] scores, int count, int k, IntFunction<String> answers) {
+        // min-heap on (score asc, doc desc) keeps the k best
+        PriorityQueue<Hit> heap = new PriorityQueue<>(Math.min(k, count) + 1, (a, b) -> {
+            int c = Double.compare(a.score, b.score);
+            return c != 0 ? c : Integer.compare(b.doc, a.doc);
+        });
+        for (int i = 0; i < count; i++) {
+            int d = docs[i];
+            double s = scores[i];
+            if (heap.size() < k) {
+                heap.add(new Hit(d, s, null));
+            } else {
+                Hit worst = heap.peek();
+                if (s > worst.score || (s == worst.score && d < worst.doc)) {
+                    heap.poll();
+                    heap.add(new Hit(d, s, null));
+                }
+            }
+        }
+        Hit[] out = new Hit[heap.size()];
+        for (int i = out.length - 1; i >= 0; i--) {
+            Hit h = heap.poll();
+            out[i] = new Hit(h.doc, h.score, answers.apply(h.doc));
+        }
+        return Arrays.asList(out);
+    }
+}
@@ -0,0 +1,294 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk binary format for a {@link ChatIndex}, opened through a memory-mapped FileChannel.
+ *
+ * Layout (little-endian, every section 8-byte aligned):
+ * <pre>
+ *   header (256 bytes)
+ *     int magic "CHIX", int version, int docs, int vocab, int postings, int hashSlots,
+ *     long crc32 of everything after the header, long[15] section offsets
+ *   double[vocab]      idf
+ *   double[docs]       norms
+ *   int[vocab+1]       postStart
+ *   int[postings]      postDocs
+ *   int[postings]      postTf
+ *   int[docs+1]        docStart     forward lists: (term, tf) per doc, ascending by term
+ *   int[postings]      docTerms
+ *   int[postings]      docTfs
+ *   int[vocab+1]       termOff      offsets into termBytes
+ *   int[hashSlots]     termHash     open-addressing table, termId+1 per slot, 0 = empty
+ *   byte[]             termBytes    terms are [a-z0-9] so one byte per char
+ *   int[docs+1]        questionOff
+ *   byte[]             questionBytes  UTF-8
+ *   int[docs+1]        answerOff
+ *   byte[]             answerBytes    UTF-8
+ * </pre>
+ * A single mapping caps the file at 2 GB.
+ *
+ * Usage: java ChatIndexFile build &lt;corpus.tsv&gt; &lt;out.idx&gt;
+ *        java ChatIndexFile verify &lt;index.idx&gt; [corpus.tsv]
+ */
+public class ChatIndexFile {
+    static final int MAGIC = 0x58494843; // "CHIX" read little-endian
+    static final int VERSION = 2;
+    private static final int HEADER = 256;
+    private static final int SECTIONS = 15;
+
+    /** Typed views over a mapped file, handed to {@link MappedChatIndex}. */
+    static final class Sections {
+        int size;
+        DoubleBuffer idf, norms;
+        IntBuffer postStart, postDocs, postTf, docStart, docTerms, docTfs, termOff, termHash, questionOff, answerOff;
+        ByteBuffer termBytes, questionBytes, answerBytes;
+    }
+
+    public static MappedChatIndex open(String path) throws IOException {
+        ByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) throw new IOException("index larger than 2 GB: " + path);
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (buf.capacity() < HEADER || buf.getInt(0) != MAGIC) throw new IOException("not a chatbot index: " + path);
+        if (buf.getInt(4) != VERSION) {
+            throw new IOException("unsupported index version " + buf.getInt(4) + ", rebuild with ChatIndexFile build: " + path);
+        }
+        int docs = buf.getInt(8), vocab = buf.getInt(12), postings = buf.getInt(16), slots = buf.getInt(20);
+        long[] off = new long[SECTIONS + 1];
+        for (int i = 0; i < SECTIONS; i++) off[i] = buf.getLong(32 + 8 * i);
+        off[SECTIONS] = buf.capacity();
+        for (int i = 0; i < SECTIONS; i++) {
+            if (off[i] < HEADER || off[i] > off[i + 1]) throw new IOException("corrupt section table: " + path);
+        }
+
+        Sections s = new Sections();
+        s.size = docs;
+        s.idf = slice(buf, off[0], vocab * 8L).asDoubleBuffer();
+        s.norms = slice(buf, off[1], docs * 8L).asDoubleBuffer();
+        s.postStart = slice(buf, off[2], (vocab + 1) * 4L).asIntBuffer();
+        s.postDocs = slice(buf, off[3], postings * 4L).asIntBuffer();
+        s.postTf = slice(buf, off[4], postings * 4L).asIntBuffer();
+        s.docStart = slice(buf, off[5], (docs + 1) * 4L).asIntBuffer();
+        s.docTerms = slice(buf, off[6], postings * 4L).asIntBuffer();
+        s.docTfs = slice(buf, off[7], postings * 4L).asIntBuffer();
+        s.termOff = slice(buf, off[8], (vocab + 1) * 4L).asIntBuffer();
+        s.termHash = slice(buf, off[9], slots * 4L).asIntBuffer();
+        s.termBytes = slice(buf, off[10], off[11] - off[10]);
+        s.questionOff = slice(buf, off[11], (docs + 1) * 4L).asIntBuffer();
+        s.questionBytes = slice(buf, off[12], off[13] - off[12]);
+        s.answerOff = slice(buf, off[13], (docs + 1) * 4L).asIntBuffer();
+        s.answerBytes = slice(buf, off[14], off[15] - off[14]);
+        return new MappedChatIndex(s);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, long off, long len) throws IOException {
+        if (off + len > buf.capacity()) throw new IOException("truncated index file");
+        return buf.slice((int) off, (int) len).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public static void write(ChatIndex index, String path) throws IOException {
+        int docs = index.size(), vocab = index.vocabSize(), postings = index.postStart.get(vocab);
+        int slots = Integer.highestOneBit(Math.max(2, vocab * 2 - 1)) << 1;
+        long[] off = new long[SECTIONS];
+        Path tmp = Paths.get(path + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            Out out = new Out(ch, HEADER);
+
+            off[0] = out.align();
+            for (int t = 0; t < vocab; t++) out.putDouble(index.idf.get(t));
+            off[1] = out.align();
+            for (int d = 0; d < docs; d++) out.putDouble(index.norms.get(d));
+            off[2] = out.align();
+            for (int t = 0; t <= vocab; t++) out.putInt(index.postStart.get(t));
+            off[3] = out.align();
+            for (int p = 0; p < postings; p++) out.putInt(index.postDocs.get(p));
+            off[4] = out.align();
+            for (int p = 0; p < postings; p++) out.putInt(index.postTf.get(p));
+            off[5] = out.align();
+            for (int d = 0; d <= docs; d++) out.putInt(index.docStart.get(d));
+            off[6] = out.align();
+            for (int p = 0; p < postings; p++) out.putInt(index.docTerms.get(p));
+            off[7] = out.align();
+            for (int p = 0; p < postings; p++) out.putInt(index.docTfs.get(p));
+
+            byte[][] terms = new byte[vocab][];
+            int[] table = new int[slots];
+            for (int t = 0; t < vocab; t++) {
+                String term = index.term(t);
+                terms[t] = term.getBytes(StandardCharsets.ISO_8859_1);
+                int slot = TermDictionary.spread(term.hashCode()) & (slots - 1);
+                while (table[slot] != 0) slot = (slot + 1) & (slots - 1);
+                table[slot] = t + 1;
+            }
+            off[8] = out.align();
+            out.putOffsets(terms);
+            off[9] = out.align();
+            for (int e : table) out.putInt(e);
+            off[10] = out.align();
+            for (byte[] b : terms) out.put(b);
+
+            byte[][] strings = new byte[docs][];
+            for (int d = 0; d < docs; d++) strings[d] = index.question(d).getBytes(StandardCharsets.UTF_8);
+            off[11] = out.align();
+            out.putOffsets(strings);
+            off[12] = out.align();
+            for (byte[] b : strings) out.put(b);
+            for (int d = 0; d < docs; d++) strings[d] = index.answer(d).getBytes(StandardCharsets.UTF_8);
+            off[13] = out.align();
+            out.putOffsets(strings);
+            off[14] = out.align();
+            for (byte[] b : strings) out.put(b);
+            out.flush();
+            if (ch.size() > Integer.MAX_VALUE) throw new IOException("index larger than 2 GB");
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putInt(docs).putInt(vocab).putInt(postings).putInt(slots);
+            header.putLong(crc(ch));
+            for (long o : off) header.putLong(o);
+            header.flip();
+            ch.write(header, 0);
+            ch.force(true);
+        }
+        Files.move(tmp, Paths.get(path), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static long crc(FileChannel ch) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer chunk = ByteBuffer.allocateDirect(1 << 16);
+        for (long pos = HEADER; ; ) {
+            chunk.clear();
+            int n = ch.read(chunk, pos);
+            if (n <= 0) break;
+            chunk.flip();
+            crc.update(chunk);
+            pos += n;
+        }
+        return crc.getValue();
+    }
+
+    // buffered little-endian writer that tracks the absolute file position
+    private static final class Out {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private long pos;
+
+        Out(FileChannel ch, long pos) { this.ch = ch; this.pos = pos; }
+
+        private void room(int n) throws IOException {
+            if (buf.remaining() < n) flush();
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) pos += ch.write(buf, pos);
+            buf.clear();
+        }
+
+        long position() { return pos + buf.position(); }
+
+        long align() throws IOException {
+            while ((position() & 7) != 0) { room(1); buf.put((byte) 0); }
+            return position();
+        }
+
+        void putInt(int v) throws IOException { room(4); buf.putInt(v); }
+
+        void putDouble(double v) throws IOException { room(8); buf.putDouble(v); }
+
+        void put(byte[] b) throws IOException {
+            for (int i = 0; i < b.length; ) {
+                room(1);
+                int n = Math.min(buf.remaining(), b.length - i);
+                buf.put(b, i, n);
+                i += n;
+            }
+        }
+
+        void putOffsets(byte[][] blobs) throws IOException {
+            long o = 0;
+            putInt(0);
+            for (byte[] b : blobs) {
+                o += b.length;
+                if (o > Integer.MAX_VALUE) throw new IOException("string section larger than 2 GB");
+                putInt((int) o);
+            }
+        }
+    }
+
+    /** Structural checks plus, when the TSV is given, an element-wise comparison with a fresh build. */
+    static List<String> verify(String indexPath, String corpusPath) throws IOException {
+        List<String> errors = new ArrayList<>();
+        try (FileChannel ch = FileChannel.open(Paths.get(indexPath), StandardOpenOption.READ)) {
+            ByteBuffer h = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+            ch.read(h, 0);
+            if (h.getLong(24) != crc(ch)) errors.add("checksum mismatch");
+        }
+        MappedChatIndex idx = open(indexPath);
+        int docs = idx.size(), vocab = idx.vocabSize();
+        for (int t = 0; t < vocab; t++) {
+            if (idx.postStart.get(t) > idx.postStart.get(t + 1)) { errors.add("postings not monotone at term " + t); break; }
+            if (idx.termId(idx.term(t)) != t) { errors.add("term table does not resolve term " + t); break; }
+        }
+        for (int p = 0, end = idx.postStart.get(vocab); p < end; p++) {
+            int d = idx.postDocs.get(p), t = idx.docTerms.get(p);
+            if (d < 0 || d >= docs || idx.postTf.get(p) <= 0) { errors.add("bad posting at " + p); break; }
+            if (t < 0 || t >= vocab || idx.docTfs.get(p) <= 0) { errors.add("bad forward entry at " + p); break; }
+        }
+        if (idx.docStart.get(docs) != idx.postStart.get(vocab)) errors.add("forward and inverted lists differ in length");
+        if (corpusPath != null) {
+            TfIdfIndex ref = Chatbot.buildIndex(corpusPath);
+            if (ref.size() != docs || ref.vocabSize() != vocab) {
+                errors.add("size differs from " + corpusPath + ": " + docs + "/" + vocab + " vs " + ref.size() + "/" + ref.vocabSize());
+                return errors;
+            }
+            for (int t = 0; t < vocab && errors.size() < 10; t++) {
+                if (!ref.term(t).equals(idx.term(t)) || ref.idf.get(t) != idx.idf.get(t)
+                        || ref.postStart.get(t + 1) != idx.postStart.get(t + 1)) errors.add("term " + t + " differs");
+            }
+            for (int p = 0; p < ref.postStart.get(vocab) && errors.size() < 10; p++) {
+                if (ref.postDocs.get(p) != idx.postDocs.get(p) || ref.postTf.get(p) != idx.postTf.get(p)
+                        || ref.docTerms.get(p) != idx.docTerms.get(p) || ref.docTfs.get(p) != idx.docTfs.get(p)) {
+                    errors.add("posting " + p + " differs");
+                }
+            }
+            for (int d = 0; d < docs && errors.size() < 10; d++) {
+                if (ref.norms.get(d) != idx.norms.get(d) || ref.docStart.get(d + 1) != idx.docStart.get(d + 1)
+                        || !ref.question(d).equals(idx.question(d))
+                        || !ref.answer(d).equals(idx.answer(d))) errors.add("doc " + d + " differs");
+            }
+        }
+        return errors;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 3 && args[0].equals("build")) {
+            long t0 = System.nanoTime();
+            TfIdfIndex index = Chatbot.buildIndex(args[1]);
+            long t1 = System.nanoTime();
+            write(index, args[2]);
+            long t2 = System.nanoTime();
+            System.out.printf("Indexed %d entries, %d terms in %.1f ms; wrote %s (%d bytes) in %.1f ms%n",
+                    index.size(), index.vocabSize(), (t1 - t0) / 1e6, args[2], Files.size(Paths.get(args[2])), (t2 - t1) / 1e6);
+        } else if (args.length >= 2 && args[0].equals("verify")) {
+            long t0 = System.nanoTime();
+            List<String> errors = verify(args[1], args.length > 2 ? args[2] : null);
+            if (errors.isEmpty()) {
+                System.out.printf("OK: %s verified in %.1f ms%n", args[1], (System.nanoTime() - t0) / 1e6);
+            } else {
+                for (String e : errors) System.err.println("ERROR: " + e);
+                System.exit(1);
+            }
+        } else {
+            System.err.println("Usage: java ChatIndexFile build <corpus.tsv> <out.idx>");
+            System.err.println("       java ChatIndexFile verify <index.idx> [corpus.tsv]");
+            System.exit(2);
+        }
+    }
+}
@@ -1,15 +1,213 @@
+import com.sam.metrics.Counter;
+import com.sam.metrics.Metrics;
+import com.sam.metrics.Stage;
+import com.sam.metrics.Trace;
+
 import java.io.*;
 import java.util.*;
-import org.apache.commons.math3.linear.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * TF-IDF retrieval chatbot.
+ *
+ * The loaded model is an immutable {@link LiveIndex} snapshot published through a volatile
+ * field: queries read the current snapshot once and never lock, so any number of threads can
+ * call {@link #respond} concurrently while {@link #loadCorpus}, {@link #addEntry} or
+ * {@link #removeEntry} swap in a new one. In-flight queries finish against the snapshot they
+ * started with. The base of the snapshot is either built in heap from the TSV or mapped from a
+ * prebuilt index file.
+ */
 public class Chatbot {
-    private List<String> corpus = new ArrayList<>(); // corpus of responses
-    private List<String> docs = new ArrayList<>(); // corpus text (questions/faq)
-    private Map<String, Integer> vocab = new HashMap<>();
-    private List<RealVector> tfidfVectors = new ArrayList<>();
-    private int vocabSize = 0;
+    private volatile LiveIndex index = LiveIndex.of(TfIdfIndex.build(List.of(), List.of()));
+    // writer-side lookup from lowercased question to live doc ids; rebuilt lazily, guarded by this
+    private Map<String, List<Integer>> byQuestion;
+
+    static final double MIN_SCORE = 0.05;
+    static final String FALLBACK = "Sorry, I don't know the answer to that yet.";
+    // queries per fork-join leaf in respondBatch
+    private static final int BATCH_LEAF = 32;
+    private static final long LSH_SEED = 0x5eedL;
+    private static final Stage RESPOND = Metrics.stage("chatbot.respond", "Chatbot.respond calls, cache hits included");
+    private static final Stage SEARCH = Metrics.stage("chatbot.search", "index searches for answers not cached");
+    private static final Stage BATCH = Metrics.stage("chatbot.respond_batch", "Chatbot.respondBatch calls");
+    private static final Counter FALLBACKS = Metrics.counter("chatbot.fallbacks", "searches answered with the fallback");
+
+    // approximate mode: LSH tables and the settings they were built with; null = exact scoring
+    private static final class Approx {
+        final LshIndex lsh;
+        final int tables, bits, probes, maxCandidates;
+
+        Approx(LshIndex lsh, int tables, int bits, int probes, int maxCandidates) {
+            this.lsh = lsh; this.tables = tables; this.bits = bits; this.probes = probes;
+            this.maxCandidates = maxCandidates;
+        }
+    }
+    private volatile Approx approx;
+    private final AtomicBoolean approxRebuilding = new AtomicBoolean();
+    // answers for normalized queries; null = no cache
+    private volatile ResponseCache cache;
+
+    public synchronized void loadCorpus(String path) throws Exception {
+        LiveIndex current = index;
+        List<String> docs = new ArrayList<>(); // corpus text (questions/faq)
+        List<String> corpus = new ArrayList<>(); // corpus of responses
+        for (int d = 0; d < current.size(); d++) {
+            if (!current.isLive(d)) continue;
+            docs.add(current.question(d));
+            corpus.add(current.answer(d));
+        }
+        readCorpus(path, docs, corpus);
+        // IDF, postings and norms are computed once here rather than per query
+        publish(LiveIndex.of(TfIdfIndex.build(docs, corpus)));
+    }
 
-    public void loadCorpus(String path) throws Exception {
+    /** Serves queries from a prebuilt index file (see {@link ChatIndexFile}) without reading the TSV. */
+    public synchronized void openIndex(String indexPath) throws IOException {
+        publish(LiveIndex.of(ChatIndexFile.open(indexPath)));
+    }
+
+    /** Writes the current corpus, including incremental changes, as an index file. */
+    public synchronized void saveIndex(String indexPath) throws IOException {
+        LiveIndex compacted = index.compact();
+        ChatIndexFile.write(compacted.base(), indexPath);
+        publish(compacted);
+    }
+
+    /**
+     * Opens the index file when one exists and is not older than the corpus, otherwise
+     * builds from the TSV.
+     */
+    public static Chatbot load(String corpusPath, String indexPath) throws Exception {
+        Chatbot bot = new Chatbot();
+        File idx = new File(indexPath), tsv = new File(corpusPath);
+        if (idx.isFile() && (!tsv.exists() || idx.lastModified() >= tsv.lastModified())) {
+            bot.openIndex(indexPath);
+        } else {
+            if (idx.isFile()) System.err.println("[Chatbot] " + indexPath + " is older than " + corpusPath + ", rebuilding from TSV");
+            bot.loadCorpus(corpusPath);
+        }
+        return bot;
+    }
+
+    /** Adds one Q/A pair; cost is proportional to the change, not the corpus. */
+    public void addEntry(String question, String answer) {
+        applyChanges(Collections.singletonList(new String[]{question.toLowerCase(), answer}), List.of());
+    }
+
+    /** Removes every entry with this question; returns how many were removed. */
+    public synchronized int removeEntry(String question) {
+        List<Integer> docs = questionIndex().get(question.toLowerCase());
+        if (docs == null) return 0;
+        int n = docs.size();
+        applyChanges(List.of(), Collections.singletonList(new String[]{question.toLowerCase(), null}));
+        return n;
+    }
+
+    /**
+     * Applies appended and removed (lowercased question, answer) pairs as one new snapshot.
+     * A removal with a null answer matches every entry with that question; otherwise each
+     * removal drops one matching entry.
+     */
+    synchronized void applyChanges(List<String[]> adds, List<String[]> removes) {
+        Map<String, List<Integer>> lookup = questionIndex();
+        LiveIndex current = index;
+        Set<Integer> removed = new LinkedHashSet<>();
+        for (String[] r : removes) {
+            List<Integer> docs = lookup.get(r[0]);
+            if (docs == null) continue;
+            for (int d : docs) {
+                if (removed.contains(d) || r[1] != null && !r[1].equals(current.answer(d))) continue;
+                removed.add(d);
+                if (r[1] != null) break;
+            }
+        }
+        if (adds.isEmpty() && removed.isEmpty()) return;
+        LiveIndex next = current.apply(adds, removed.stream().mapToInt(Integer::intValue).toArray());
+        publish(next);
+        // the lookup only follows a change that went in, so a failed one is found again on retry
+        if (next.base() != current.base()) return; // compacted: publish dropped the renumbered lookup
+        for (int d : removed) {
+            List<Integer> docs = lookup.get(current.question(d));
+            docs.remove(Integer.valueOf(d));
+            if (docs.isEmpty()) lookup.remove(current.question(d));
+        }
+        for (int j = 0; j < adds.size(); j++) {
+            lookup.computeIfAbsent(adds.get(j)[0], q -> new ArrayList<>()).add(current.size() + j);
+        }
+    }
+
+    // guarded by this
+    private Map<String, List<Integer>> questionIndex() {
+        if (byQuestion == null) {
+            LiveIndex current = index;
+            byQuestion = new HashMap<>();
+            for (int d = 0; d < current.size(); d++) {
+                if (current.isLive(d)) byQuestion.computeIfAbsent(current.question(d), q -> new ArrayList<>()).add(d);
+            }
+        }
+        return byQuestion;
+    }
+
+    // guarded by this
+    private void publish(LiveIndex next) {
+        if (next.base() != index.base()) byQuestion = null;
+        index = next;
+        invalidateCache();
+    }
+
+    // after publishing whatever changes answers, so readers that see the new epoch see the new state
+    private void invalidateCache() {
+        ResponseCache c = cache;
+        if (c != null) c.invalidate();
+    }
+
+    /**
+     * Puts a bounded cache in front of {@link #respond} and {@link #respondBatch}, keyed on the
+     * normalized query, and invalidated whenever the corpus or scoring mode changes.
+     */
+    public synchronized void enableCache(int maxEntries, long ttlMillis) {
+        cache = new ResponseCache(maxEntries, ttlMillis);
+    }
+
+    public synchronized void disableCache() {
+        cache = null;
+    }
+
+    /** Hit/miss/eviction counters of the response cache, or null when it is disabled. */
+    public ResponseCache.Stats cacheStats() {
+        ResponseCache c = cache;
+        return c == null ? null : c.stats();
+    }
+
+    /**
+     * Cache key for a query: its tokens, as tokenize produces them, sorted. Scoring only sees the
+     * multiset of terms, so queries differing in case, punctuation, spacing or word order share
+     * an answer and a key.
+     */
+    static String cacheKey(String input) {
+        List<String> toks = Tokenizer.tokens(input);
+        Collections.sort(toks);
+        return String.join(" ", toks);
+    }
+
+    /**
+     * Watches the corpus TSV and applies edits to it incrementally: lines that disappeared are
+     * removed and new lines are added. Close the returned handle to stop watching.
+     */
+    public Closeable watch(String corpusPath) throws IOException {
+        return new CorpusWatcher(this, corpusPath);
+    }
+
+    static TfIdfIndex buildIndex(String corpusPath) throws IOException {
+        List<String> docs = new ArrayList<>(), corpus = new ArrayList<>();
+        readCorpus(corpusPath, docs, corpus);
+        return TfIdfIndex.build(docs, corpus);
+    }
+
+    static void readCorpus(String path, List<String> docs, List<String> corpus) throws IOException {
         // simple format: each line is "question \t answer"
         BufferedReader br = new BufferedReader(new FileReader(path));
         String line;
@@ -21,90 +219,148 @@ public class Chatbot {
             }
         }
         br.close();
-        buildVocab();
-        computeTFIDF();
     }
 
-    private List<String> tokenize(String s) {
-        return Arrays.asList(s.replaceAll("[^a-z0-9 ]", " ").split("\\s+"));
+    /** Best answer for the input, or the fallback when nothing scores at least {@link #MIN_SCORE}. */
+    public String respond(String input) {
+        Trace trace = Trace.begin("chatbot.respond");
+        long t0 = RESPOND.start();
+        try {
+            ResponseCache c = cache;
+            if (c == null) return respond(index, input);
+            long epoch = c.epoch();
+            return respond(c, epoch, index, input);
+        } finally {
+            RESPOND.stop(t0);
+            Trace.end(trace);
+        }
     }
 
-    private void buildVocab() {
-        Set<String> words = new LinkedHashSet<>();
-        for (String d : docs) {
-            words.addAll(tokenize(d));
+    private String respond(ResponseCache c, long epoch, LiveIndex snapshot, String input) {
+        if (c == null) return respond(snapshot, input);
+        String key = cacheKey(input);
+        String ans = c.get(key);
+        if (ans == null) {
+            ans = respond(snapshot, input);
+            c.put(key, ans, epoch);
         }
-        int idx = 0;
-        for (String w : words) {
-            if (!w.isBlank()) {
-                vocab.put(w, idx++);
-            }
+        return ans;
+    }
+
+    private String respond(LiveIndex snapshot, String input) {
+        long t0 = SEARCH.start();
+        List<ChatIndex.Hit> hits = search(snapshot, input, 1);
+        SEARCH.stop(t0);
+        if (hits.isEmpty() || hits.get(0).score < MIN_SCORE) {
+            FALLBACKS.inc();
+            return FALLBACK;
         }
-        vocabSize = vocab.size();
+        return hits.get(0).answer;
     }
 
-    private RealVector toTfVector(String doc) {
-        double[] vec = new double[vocabSize];
-        List<String> toks = tokenize(doc);
-        for (String t : toks) {
-            if (vocab.containsKey(t)) vec[vocab.get(t)] += 1.0;
+    /**
+     * Answers a batch of queries against one snapshot, split across the common fork-join pool.
+     * The result has one answer per input, in input order.
+     */
+    public List<String> respondBatch(List<String> inputs) {
+        long t0 = BATCH.start();
+        String[] out = new String[inputs.size()];
+        ResponseCache c = cache;
+        long epoch = c == null ? 0 : c.epoch();
+        LiveIndex snapshot = index;
+        if (out.length <= BATCH_LEAF) {
+            for (int i = 0; i < out.length; i++) out[i] = respond(c, epoch, snapshot, inputs.get(i));
+        } else {
+            ForkJoinPool.commonPool().invoke(new BatchTask(this, c, epoch, snapshot, inputs, out, 0, out.length));
         }
-        return new ArrayRealVector(vec);
+        BATCH.stop(t0);
+        return Arrays.asList(out);
     }
 
-    private void computeTFIDF() {
-        int n = docs.size();
-        double[] df = new double[vocabSize];
-        List<RealVector> tfs = new ArrayList<>();
-        for (String d : docs) {
-            RealVector v = toTfVector(d);
-            tfs.add(v);
-            for (int i = 0; i < vocabSize; i++) if (v.getEntry(i) > 0) df[i] += 1.0;
-        }
-        for (RealVector tf : tfs) {
-            double[] arr = new double[vocabSize];
-            for (int i = 0; i < vocabSize; i++) {
-                double tfval = tf.getEntry(i);
-                double idf = Math.log((n + 1.0) / (df[i] + 1.0)) + 1.0;
-                arr[i] = tfval * idf;
+    @SuppressWarnings("serial")
+    private static final class BatchTask extends RecursiveAction {
+        private final Chatbot bot;
+        private final ResponseCache cache;
+        private final long epoch;
+        private final LiveIndex snapshot;
+        private final List<String> inputs;
+        private final String[] out;
+        private final int from, to;
+
+        BatchTask(Chatbot bot, ResponseCache cache, long epoch, LiveIndex snapshot, List<String> inputs,
+                  String[] out, int from, int to) {
+            this.bot = bot; this.cache = cache; this.epoch = epoch; this.snapshot = snapshot;
+            this.inputs = inputs; this.out = out; this.from = from; this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_LEAF) {
+                for (int i = from; i < to; i++) out[i] = bot.respond(cache, epoch, snapshot, inputs.get(i));
+                return;
             }
-            tfidfVectors.add(new ArrayRealVector(arr));
+            int mid = (from + to) >>> 1;
+            invokeAll(new BatchTask(bot, cache, epoch, snapshot, inputs, out, from, mid),
+                      new BatchTask(bot, cache, epoch, snapshot, inputs, out, mid, to));
         }
     }
 
-    private double cosine(RealVector a, RealVector b) {
-        double denom = a.getNorm() * b.getNorm();
-        if (denom == 0) return 0.0;
-        return a.dotProduct(b) / denom;
+    /** Up to k answers scoring at least {@link #MIN_SCORE}, best first. */
+    public List<ChatIndex.Hit> respondTopK(String input, int k) {
+        List<ChatIndex.Hit> hits = search(index, input, k);
+        int keep = 0;
+        while (keep < hits.size() && hits.get(keep).score >= MIN_SCORE) keep++;
+        return hits.subList(0, keep);
     }
 
-    public String respond(String input) {
-        RealVector qv = toTfVector(input.toLowerCase());
-        // convert qv to tf-idf using same idf as training docs
-        double[] arr = new double[vocabSize];
-        int n = docs.size();
-        double[] df = new double[vocabSize];
-        for (String d : docs) {
-            RealVector v = toTfVector(d);
-            for (int i = 0; i < vocabSize; i++) if (v.getEntry(i) > 0) df[i] += 1.0;
-        }
-        for (int i = 0; i < vocabSize; i++) {
-            double idf = Math.log((n + 1.0) / (df[i] + 1.0)) + 1.0;
-            arr[i] = qv.getEntry(i) * idf;
-        }
-        RealVector qtfidf = new ArrayRealVector(arr);
-        double bestScore = -1; int bestIdx = -1;
-        for (int i = 0; i < tfidfVectors.size(); i++) {
-            double s = cosine(qtfidf, tfidfVectors.get(i));
-            if (s > bestScore) { bestScore = s; bestIdx = i; }
+    /**
+     * Switches to approximate scoring: candidates come from random-hyperplane LSH tables (see
+     * {@link LshIndex}) and only those are re-ranked with the exact cosine. Builds the tables
+     * for the current corpus before returning; after corpus changes they are rebuilt in the
+     * background, with exact scoring used meanwhile if doc ids were renumbered.
+     */
+    public synchronized void setApproximate(int tables, int bits, int probes, int maxCandidates) {
+        approx = new Approx(LshIndex.build(index, tables, bits, LSH_SEED), tables, bits, probes, maxCandidates);
+        invalidateCache();
+    }
+
+    /** Back to exact scoring over the inverted index (the default). */
+    public synchronized void setExact() {
+        approx = null;
+        invalidateCache();
+    }
+
+    private List<ChatIndex.Hit> search(LiveIndex snapshot, String input, int k) {
+        Approx a = approx;
+        if (a != null) {
+            LiveIndex built = a.lsh.snapshot();
+            if (built != index) rebuildApprox(a);
+            // doc ids are only stable while the base is unchanged
+            if (built.base() == snapshot.base()) return a.lsh.search(snapshot, input, k, a.probes, a.maxCandidates);
         }
-        if (bestIdx == -1 || bestScore < 0.05) return "Sorry, I don't know the answer to that yet.";
-        return corpus.get(bestIdx);
+        return snapshot.search(input, k);
+    }
+
+    private void rebuildApprox(Approx stale) {
+        if (!approxRebuilding.compareAndSet(false, true)) return;
+        CompletableFuture.runAsync(() -> {
+            try {
+                LshIndex fresh = LshIndex.build(index, stale.tables, stale.bits, LSH_SEED);
+                synchronized (this) {
+                    if (approx == stale) {
+                        approx = new Approx(fresh, stale.tables, stale.bits, stale.probes, stale.maxCandidates);
+                        invalidateCache();
+                    }
+                }
+            } finally {
+                approxRebuilding.set(false);
+            }
+        });
     }
 
     public static void main(String[] args) throws Exception {
-        Chatbot bot = new Chatbot();
-        bot.loadCorpus("qa_corpus.txt"); // each line: "question\tanswer"
+        // each line: "question\tanswer"; build qa_corpus.idx with ChatIndexFile for fast startup
+        Chatbot bot = load("qa_corpus.txt", "qa_corpus.idx");
         BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
         System.out.println("Chatbot ready. Type 'exit' to quit.");
         while (true) {
@@ -0,0 +1,109 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load-test harness for Chatbot: measures respond() throughput at 1, 2, 4 ... N client
+ * threads sharing one loaded instance, then respondBatch() throughput, and prints the
+ * scaling curve.
+ *
+ * Usage: java ChatbotLoadTest [corpus.tsv|synthetic:<entries>] [secondsPerStep] [maxThreads]
+ */
+public class ChatbotLoadTest {
+    public static void main(String[] args) throws Exception {
+        String source = args.length > 0 ? args[0] : "synthetic:200000";
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        String path = source;
+        if (source.startsWith("synthetic:")) {
+            File f = File.createTempFile("qa_corpus", ".txt");
+            f.deleteOnExit();
+            writeSyntheticCorpus(f, Integer.parseInt(source.substring("synthetic:".length())), 1);
+            path = f.getPath();
+        }
+        long t0 = System.nanoTime();
+        Chatbot bot = new Chatbot();
+        bot.loadCorpus(path);
+        System.out.printf("Loaded %s in %.1f ms%n", source, (System.nanoTime() - t0) / 1e6);
+
+        List<String> queries = syntheticQueries(4096, 2);
+        // warm up JIT on every path we measure
+        for (int i = 0; i < 20000; i++) bot.respond(queries.get(i % queries.size()));
+        bot.respondBatch(queries);
+
+        System.out.println("threads  queries/s  speedup");
+        double base = 0;
+        for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1) {
+            double qps = runClients(bot, queries, threads, seconds);
+            if (threads == 1) base = qps;
+            System.out.printf("%7d  %9.0f  %6.2fx%n", threads, qps, qps / base);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        long answered = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() < deadline) answered += bot.respondBatch(queries).size();
+        double batchQps = answered / ((System.nanoTime() - start) / 1e9);
+        System.out.printf("respondBatch(%d) on %d-way fork-join: %.0f queries/s (%.2fx single thread)%n",
+                queries.size(), ForkJoinPool.commonPool().getParallelism(), batchQps, batchQps / base);
+    }
+
+    private static double runClients(Chatbot bot, List<String> queries, int threads, int seconds) throws Exception {
+        LongAdder done = new LongAdder();
+        CountDownLatch startGate = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long[] window = new long[2];
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int offset = t * 997;
+            futures.add(pool.submit(() -> {
+                startGate.await();
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+                int i = offset;
+                while (System.nanoTime() < deadline) {
+                    bot.respond(queries.get(i++ % queries.size()));
+                    done.increment();
+                }
+                return null;
+            }));
+        }
+        window[0] = System.nanoTime();
+        startGate.countDown();
+        for (Future<?> f : futures) f.get();
+        window[1] = System.nanoTime();
+        pool.shutdown();
+        return done.sum() / ((window[1] - window[0]) / 1e9);
+    }
+
+    // zipf-ish vocabulary so a few terms are common and most are rare, like a real FAQ
+    private static String word(Random rnd) {
+        int rank = (int) Math.min(50000, Math.exp(rnd.nextDouble() * Math.log(50000)));
+        return "w" + rank;
+    }
+
+    static void writeSyntheticCorpus(File f, int entries, long seed) throws IOException {
+        Random rnd = new Random(seed);
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(f)))) {
+            for (int i = 0; i < entries; i++) {
+                int len = 4 + rnd.nextInt(8);
+                StringBuilder q = new StringBuilder();
+                for (int j = 0; j < len; j++) q.append(j == 0 ? "" : " ").append(word(rnd));
+                pw.println(q + "?\tanswer " + i);
+            }
+        }
+    }
+
+    static List<String> syntheticQueries(int count, long seed) {
+        Random rnd = new Random(seed);
+        List<String> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int len = 2 + rnd.nextInt(6);
+            StringBuilder q = new StringBuilder();
+            for (int j = 0; j < len; j++) q.append(j == 0 ? "" : " ").append(word(rnd));
+            out.add(q.toString());
+        }
+        return out;
+    }
+}
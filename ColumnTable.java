@@ -0,0 +1,429 @@
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instances;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A CSV file held column by column in primitive blocks, for data sets too large to copy as
+ * Weka Instances three times over.
+ *
+ * The file is parsed in fixed-size character chunks without building a String per field.
+ * Numeric columns are stored as doubles (NaN for missing), categorical columns as codes into
+ * a per-column dictionary (-1 for missing). Types and dictionaries follow Weka's CSVLoader: a
+ * column is numeric when every present value parses as a number, categories are numbered in
+ * order of first appearance, and an empty field or "?" is missing. A column only found to be
+ * categorical after numbers were stored is re-read in a second pass.
+ *
+ * The means and modes ReplaceMissingValues would substitute are gathered during the same
+ * pass, and {@link #value} applies them on read. Views select and order rows through an index
+ * array over the shared columns; the class column (the last) is never imputed.
+ */
+public final class ColumnTable {
+    static final int BLOCK = 1 << 16;
+    private static final int CHUNK = 1 << 16;
+    private static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i - 1] * 10;
+    }
+
+    private static final class Column {
+        final String name;
+        boolean nominal, rescan;
+        double[][] numbers = new double[0][];
+        int[][] codes = new int[0][];
+        TermDictionary dict;
+        long[] counts;          // per code, for the mode
+        double sum;             // of present values in file order, for the mean
+        long missing;
+        double fill;
+
+        Column(String name) {
+            this.name = name;
+        }
+
+        // switches to codes; rows before {@code row} were all missing
+        void toNominal(int row) {
+            nominal = true;
+            numbers = new double[0][];
+            codes = new int[0][];
+            for (int r = 0; r < row; r += BLOCK) {
+                int[] block = new int[BLOCK];
+                Arrays.fill(block, -1);
+                codes = grow(codes, block);
+            }
+            dict = new TermDictionary();
+            counts = new long[8];
+        }
+    }
+
+    private final String relation;
+    private final Column[] columns;
+    private int rows;
+
+    private ColumnTable(String relation, String[] names) {
+        this.relation = relation;
+        columns = new Column[names.length];
+        for (int j = 0; j < names.length; j++) columns[j] = new Column(names[j]);
+    }
+
+    /** Reads a CSV file with a header row; the last column is the class. */
+    public static ColumnTable read(Path csv) throws IOException {
+        String name = csv.getFileName().toString();
+        String relation = name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name;
+        ColumnTable t;
+        try (Reader in = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            t = new Parser(in).read(relation, null);
+        }
+        boolean rescan = false;
+        for (Column c : t.columns) rescan |= c.rescan;
+        if (rescan) {
+            try (Reader in = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+                new Parser(in).read(relation, t);
+            }
+        }
+        t.finish();
+        return t;
+    }
+
+    // chunked CSV parsing straight from the character buffer
+    private static final class Parser {
+        final Reader in;
+        char[] buf = new char[CHUNK];
+        int start, end, lineNo;
+        int[] from = new int[16], to = new int[16];
+        int fields;
+
+        Parser(Reader in) {
+            this.in = in;
+        }
+
+        // pass 1 builds the table; pass 2 (rescan != null) fills only the columns marked for it
+        ColumnTable read(String relation, ColumnTable rescan) throws IOException {
+            if (!nextLine()) throw new IOException("empty file");
+            String[] names = new String[fields];
+            for (int j = 0; j < fields; j++) names[j] = new String(buf, from[j], to[j] - from[j]);
+            ColumnTable t = rescan != null ? rescan : new ColumnTable(relation, names);
+            int row = 0;
+            while (nextLine()) {
+                if (fields == 1 && from[0] == to[0]) continue; // blank line
+                if (fields != t.columns.length)
+                    throw new IOException("line " + lineNo + ": expected " + t.columns.length + " fields, got " + fields);
+                if (rescan == null) t.add(this, row);
+                else t.addRescanned(this, row);
+                row++;
+            }
+            if (rescan == null) t.rows = row;
+            return t;
+        }
+
+        // next record into from/to, unquoted; false at end of input
+        boolean nextLine() throws IOException {
+            int nl;
+            while ((nl = indexOf('\n')) < 0) {
+                if (!fill()) {
+                    if (start == end) return false;
+                    nl = end;
+                    break;
+                }
+            }
+            int lineEnd = nl > start && buf[nl - 1] == '\r' ? nl - 1 : nl;
+            split(start, lineEnd);
+            start = Math.min(nl + 1, end);
+            lineNo++;
+            return true;
+        }
+
+        private int indexOf(char c) {
+            for (int i = start; i < end; i++) if (buf[i] == c) return i;
+            return -1;
+        }
+
+        // keeps the partial line, grows the buffer only for a line longer than it
+        private boolean fill() throws IOException {
+            if (start > 0) {
+                System.arraycopy(buf, start, buf, 0, end - start);
+                end -= start;
+                start = 0;
+            }
+            if (end == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            int n = in.read(buf, end, buf.length - end);
+            if (n <= 0) return false;
+            end += n;
+            return true;
+        }
+
+        private void split(int s, int e) {
+            fields = 0;
+            int i = s;
+            while (true) {
+                char quote = i < e && (buf[i] == '"' || buf[i] == '\'') ? buf[i] : 0;
+                int j = quote != 0 ? i + 1 : i;
+                if (quote != 0) {
+                    while (j < e && buf[j] != quote) j++;
+                }
+                while (j < e && buf[j] != ',') j++;
+                int a = i, b = j;
+                if (quote != 0 && b - a >= 2 && buf[b - 1] == quote) { a++; b--; }
+                if (fields == from.length) {
+                    from = Arrays.copyOf(from, fields * 2);
+                    to = Arrays.copyOf(to, fields * 2);
+                }
+                from[fields] = a;
+                to[fields] = b;
+                fields++;
+                if (j >= e) break;
+                i = j + 1;
+            }
+        }
+
+        boolean missing(int j) {
+            int len = to[j] - from[j];
+            return len == 0 || len == 1 && buf[from[j]] == '?';
+        }
+
+        /** The field as a number, or NaN if it is not one. */
+        double number(int j) {
+            int i = from[j], e = to[j];
+            boolean negative = buf[i] == '-';
+            if (negative || buf[i] == '+') i++;
+            long m = 0;
+            int digits = 0, significant = 0, frac = -1;
+            for (; i < e; i++) {
+                char c = buf[i];
+                if (c >= '0' && c <= '9') {
+                    m = m * 10 + (c - '0');
+                    digits++;
+                    if (m != 0) significant++;
+                    if (frac >= 0) frac++;
+                } else if (c == '.' && frac < 0) {
+                    frac = 0;
+                } else {
+                    break;
+                }
+            }
+            // up to 15 significant digits over an exact power of ten: one correctly rounded
+            // division, so the same double Double.parseDouble gives
+            if (i == e && digits > 0 && significant <= 15 && frac <= 22) {
+                double v = frac > 0 ? m / POW10[frac] : m;
+                return negative ? -v : v;
+            }
+            try {
+                return Double.parseDouble(new String(buf, from[j], to[j] - from[j]));
+            } catch (NumberFormatException ex) {
+                return Double.NaN;
+            }
+        }
+    }
+
+    private void add(Parser p, int row) {
+        int b = row / BLOCK, i = row % BLOCK;
+        for (int j = 0; j < columns.length; j++) {
+            Column c = columns[j];
+            if (c.rescan) continue;
+            boolean missing = p.missing(j);
+            if (!c.nominal) {
+                double v = missing ? Double.NaN : p.number(j);
+                if (!missing && Double.isNaN(v)) {
+                    // first non-number: categorical after all
+                    if (row - c.missing > 0) {
+                        c.rescan = true;
+                        c.numbers = new double[0][];
+                        continue;
+                    }
+                    c.toNominal(row);
+                } else {
+                    if (b == c.numbers.length) c.numbers = grow(c.numbers, new double[BLOCK]);
+                    c.numbers[b][i] = v;
+                    if (missing) c.missing++;
+                    else c.sum += v;
+                    continue;
+                }
+            }
+            addCode(c, p, j, row, missing);
+        }
+    }
+
+    private void addRescanned(Parser p, int row) {
+        for (int j = 0; j < columns.length; j++) {
+            Column c = columns[j];
+            if (!c.rescan) continue;
+            if (!c.nominal) {
+                c.toNominal(0);
+                c.missing = 0;
+            }
+            addCode(c, p, j, row, p.missing(j));
+        }
+    }
+
+    private static void addCode(Column c, Parser p, int j, int row, boolean missing) {
+        int b = row / BLOCK, i = row % BLOCK;
+        if (b == c.codes.length) c.codes = grow(c.codes, new int[BLOCK]);
+        int code = -1;
+        if (missing) {
+            c.missing++;
+        } else {
+            code = c.dict.intern(p.buf, p.from[j], p.to[j] - p.from[j]);
+            if (code == c.counts.length) c.counts = Arrays.copyOf(c.counts, code * 2);
+            c.counts[code]++;
+        }
+        c.codes[b][i] = code;
+    }
+
+    private static <T> T[] grow(T[] blocks, T block) {
+        T[] out = Arrays.copyOf(blocks, blocks.length + 1);
+        out[blocks.length] = block;
+        return out;
+    }
+
+    // means and modes as ReplaceMissingValues computes them; trims the last blocks
+    private void finish() {
+        for (Column c : columns) {
+            c.rescan = false;
+            if (c.nominal) {
+                int best = 0;
+                for (int k = 1; k < c.dict.size(); k++) if (c.counts[k] > c.counts[best]) best = k;
+                c.fill = c.dict.size() == 0 ? Double.NaN : best;
+            } else {
+                long present = rows - c.missing;
+                c.fill = present > 0 ? c.sum / present : 0;
+            }
+            int last = rows % BLOCK;
+            if (last > 0) {
+                int b = rows / BLOCK;
+                if (c.nominal) c.codes[b] = Arrays.copyOf(c.codes[b], last);
+                else c.numbers[b] = Arrays.copyOf(c.numbers[b], last);
+            }
+        }
+        columns[columns.length - 1].fill = Double.NaN;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int columns() {
+        return columns.length;
+    }
+
+    public String name(int j) {
+        return columns[j].name;
+    }
+
+    public boolean nominal(int j) {
+        return columns[j].nominal;
+    }
+
+    /** Imputed value: the number, or the category's index; missing takes the mean or mode. */
+    public double value(int row, int j) {
+        Column c = columns[j];
+        if (c.nominal) {
+            int code = c.codes[row / BLOCK][row % BLOCK];
+            return code < 0 ? c.fill : code;
+        }
+        double v = c.numbers[row / BLOCK][row % BLOCK];
+        return Double.isNaN(v) ? c.fill : v;
+    }
+
+    /** What a missing value becomes, per column; NaN for the class. */
+    public double[] fill() {
+        double[] out = new double[columns.length];
+        for (int j = 0; j < out.length; j++) out[j] = columns[j].fill;
+        return out;
+    }
+
+    /** Weka header of the imputed data, class last. */
+    public Instances header() {
+        ArrayList<Attribute> attrs = new ArrayList<>();
+        for (Column c : columns) {
+            if (!c.nominal) {
+                attrs.add(new Attribute(c.name));
+                continue;
+            }
+            List<String> values = new ArrayList<>(c.dict.size());
+            for (int k = 0; k < c.dict.size(); k++) values.add(c.dict.term(k));
+            attrs.add(new Attribute(c.name, values));
+        }
+        Instances h = new Instances(relation, attrs, 0);
+        h.setClassIndex(columns.length - 1);
+        return h;
+    }
+
+    /** Bytes held by the column blocks and dictionaries. */
+    public long bytes() {
+        long n = 0;
+        for (Column c : columns) {
+            for (double[] b : c.numbers) n += 16 + 8L * b.length;
+            for (int[] b : c.codes) n += 16 + 4L * b.length;
+            if (c.dict != null) for (int k = 0; k < c.dict.size(); k++) n += 2L * c.dict.term(k).length() + 24;
+        }
+        return n;
+    }
+
+    /** Rows {@code from..to} of a shared row order. */
+    public final class View {
+        private final int[] order;
+        private final int from, to;
+
+        View(int[] order, int from, int to) {
+            this.order = order;
+            this.from = from;
+            this.to = to;
+        }
+
+        public int size() {
+            return to - from;
+        }
+
+        /** Table row of the i-th row of the view. */
+        public int row(int i) {
+            return order[from + i];
+        }
+
+        /** Imputed values of the i-th row, class included, into {@code out}. */
+        public double[] values(int i, double[] out) {
+            int row = order[from + i];
+            for (int j = 0; j < columns.length; j++) out[j] = value(row, j);
+            return out;
+        }
+
+        /** The view as Weka Instances, for training; the one copy of these rows. */
+        public Instances toInstances() {
+            Instances data = new Instances(header(), size());
+            for (int i = 0; i < size(); i++) data.add(new DenseInstance(1.0, values(i, new double[columns.length])));
+            return data;
+        }
+    }
+
+    public View all() {
+        int[] order = new int[rows];
+        for (int i = 0; i < rows; i++) order[i] = i;
+        return new View(order, 0, rows);
+    }
+
+    /**
+     * Train and test views: rows shuffled as Instances.randomize(new Random(seed)) shuffles
+     * them, the first {@code round(rows * trainFraction)} for training.
+     */
+    public View[] split(double trainFraction, long seed) {
+        int[] order = all().order;
+        Random random = new Random(seed);
+        for (int j = rows - 1; j > 0; j--) {
+            int k = random.nextInt(j + 1);
+            int tmp = order[j];
+            order[j] = order[k];
+            order[k] = tmp;
+        }
+        int train = (int) Math.round(rows * trainFraction);
+        return new View[] {new View(order, 0, train), new View(order, train, rows)};
+    }
+}
@@ -0,0 +1,281 @@
+import weka.classifiers.Classifier;
+import weka.classifiers.trees.RandomForest;
+import weka.classifiers.trees.RandomTree;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * A trained Weka RandomForest flattened into primitive arrays, scored without allocating.
+ *
+ * Nodes of all trees live in parallel arrays, one tree after another in breadth-first order,
+ * with the children of a node stored next to each other. A numeric split sends a value below
+ * its threshold to the first child and anything else to the second; a nominal split indexes
+ * its children by the value. A leaf points at its class distribution, normalized at compile
+ * time exactly as RandomTree normalizes it per call, and an empty leaf takes the distribution
+ * of its nearest non-empty ancestor as RandomTree falls back to. Trees are summed in order and
+ * the total normalized as Bagging does, so the result equals
+ * {@code rf.distributionForInstance} bit for bit.
+ *
+ * Values are in the preprocessed attribute space the forest was trained on and must be
+ * complete; the class value is ignored. Immutable and thread-safe.
+ */
+public final class CompiledForest {
+    private static final int MAGIC = 0x4C524631; // "LRF1"
+
+    final int numClasses;
+    final int numAttributes;
+    final boolean[] nominal;    // per attribute
+    final int[] roots;          // first node of each tree
+    final int[] feature;        // split attribute, or -1 at a leaf
+    final double[] threshold;   // numeric split point
+    final int[] child;          // first child; at a leaf, offset of its distribution in leafDist
+    final double[] leafDist;
+
+    private CompiledForest(int numClasses, int numAttributes, boolean[] nominal, int[] roots, int[] feature,
+                           double[] threshold, int[] child, double[] leafDist) {
+        this.numClasses = numClasses;
+        this.numAttributes = numAttributes;
+        this.nominal = nominal;
+        this.roots = roots;
+        this.feature = feature;
+        this.threshold = threshold;
+        this.child = child;
+        this.leafDist = leafDist;
+    }
+
+    public int trees() {
+        return roots.length;
+    }
+
+    public int nodes() {
+        return feature.length;
+    }
+
+    public int numClasses() {
+        return numClasses;
+    }
+
+    /**
+     * Class distribution of one record into {@code out}, which is returned.
+     *
+     * @param values one value per attribute, in the forest's attribute order
+     */
+    public double[] distribution(double[] values, double[] out) {
+        Arrays.fill(out, 0, numClasses, 0.0);
+        for (int root : roots) {
+            int off = child[leaf(root, values)];
+            for (int c = 0; c < numClasses; c++) out[c] += leafDist[off + c];
+        }
+        normalize(out, 0);
+        return out;
+    }
+
+    /**
+     * Class distributions of {@code rows[0..n)} into {@code out}, numClasses per row. Walks one
+     * tree at a time over the whole batch, so a tree's nodes stay in cache while it is used.
+     */
+    public void distributions(double[][] rows, int n, double[] out) {
+        Arrays.fill(out, 0, n * numClasses, 0.0);
+        for (int root : roots) {
+            for (int r = 0; r < n; r++) {
+                int off = child[leaf(root, rows[r])];
+                int o = r * numClasses;
+                for (int c = 0; c < numClasses; c++) out[o + c] += leafDist[off + c];
+            }
+        }
+        for (int r = 0; r < n; r++) normalize(out, r * numClasses);
+    }
+
+    private int leaf(int node, double[] values) {
+        for (int f; (f = feature[node]) >= 0; ) {
+            double v = values[f];
+            if (Double.isNaN(v)) throw new IllegalArgumentException("missing value for attribute " + f);
+            node = child[node] + (nominal[f] ? (int) v : v < threshold[node] ? 0 : 1);
+        }
+        return node;
+    }
+
+    // as Bagging: leave a (near) zero total alone, else divide by it
+    private void normalize(double[] d, int from) {
+        double sum = 0;
+        for (int c = 0; c < numClasses; c++) sum += d[from + c];
+        if (Utils.eq(sum, 0)) return;
+        for (int c = 0; c < numClasses; c++) d[from + c] /= sum;
+    }
+
+    /** Flattens a trained forest; {@code header} is the format it was trained on. */
+    public static CompiledForest compile(RandomForest rf, Instances header) throws Exception {
+        if (!header.classAttribute().isNominal()) throw new IllegalArgumentException("class must be nominal");
+        Object bagger = field(rf, RandomForest.class, "m_bagger");
+        Classifier[] members = (Classifier[]) field(bagger, weka.classifiers.IteratedSingleClassifierEnhancer.class,
+                "m_Classifiers");
+        int numClasses = header.numClasses();
+        int numAttributes = header.numAttributes();
+        boolean[] nominal = new boolean[numAttributes];
+        for (int a = 0; a < numAttributes; a++) nominal[a] = header.attribute(a).isNominal();
+
+        Builder b = new Builder(numClasses);
+        int[] roots = new int[members.length];
+        Instance blank = new DenseInstance(numAttributes);
+        blank.setDataset(header);
+        for (int t = 0; t < members.length; t++) {
+            RandomTree tree = (RandomTree) members[t];
+            roots[t] = b.size;
+            Classifier zeroR = (Classifier) field(tree, RandomTree.class, "m_zeroR");
+            if (zeroR != null) {
+                // built without usable attributes: a constant prediction
+                b.leaf(b.add(), zeroR.distributionForInstance(blank));
+            } else {
+                boolean allowEmpty = (Boolean) field(tree, RandomTree.class, "m_AllowUnclassifiedInstances");
+                b.tree(field(tree, RandomTree.class, "m_Tree"), allowEmpty);
+            }
+        }
+        return new CompiledForest(numClasses, numAttributes, nominal, roots, Arrays.copyOf(b.feature, b.size),
+                Arrays.copyOf(b.threshold, b.size), Arrays.copyOf(b.child, b.size),
+                Arrays.copyOf(b.leafDist, b.leafSize));
+    }
+
+    private static final class Builder {
+        static final Class<?> TREE;
+        static {
+            try {
+                TREE = Class.forName("weka.classifiers.trees.RandomTree$Tree");
+            } catch (ClassNotFoundException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+
+        final int numClasses;
+        int[] feature = new int[1024], child = new int[1024];
+        double[] threshold = new double[1024];
+        double[] leafDist = new double[1024];
+        int size, leafSize;
+
+        Builder(int numClasses) {
+            this.numClasses = numClasses;
+        }
+
+        int add() {
+            if (size == feature.length) {
+                feature = Arrays.copyOf(feature, size * 2);
+                child = Arrays.copyOf(child, size * 2);
+                threshold = Arrays.copyOf(threshold, size * 2);
+            }
+            feature[size] = -1;
+            return size++;
+        }
+
+        void leaf(int node, double[] dist) {
+            if (leafSize + numClasses > leafDist.length)
+                leafDist = Arrays.copyOf(leafDist, Math.max(leafDist.length * 2, leafSize + numClasses));
+            System.arraycopy(dist, 0, leafDist, leafSize, numClasses);
+            child[node] = leafSize;
+            leafSize += numClasses;
+        }
+
+        // breadth first; each queued node carries the distribution an empty leaf below it falls back to
+        void tree(Object root, boolean allowEmpty) throws Exception {
+            ArrayDeque<Object[]> queue = new ArrayDeque<>();
+            queue.add(new Object[] {root, add(), null});
+            while (!queue.isEmpty()) {
+                Object[] q = queue.poll();
+                Object node = q[0];
+                int id = (Integer) q[1];
+                double[] own = (double[]) field(node, TREE, "m_ClassDistribution");
+                double[] fallback = own != null ? normalized(own) : (double[]) q[2];
+                int attribute = (Integer) field(node, TREE, "m_Attribute");
+                if (attribute < 0) {
+                    double[] dist = own != null ? fallback : allowEmpty ? new double[numClasses] : q[2] != null
+                            ? (double[]) q[2] : null;
+                    if (dist == null) throw new IllegalStateException("empty tree");
+                    leaf(id, dist);
+                    continue;
+                }
+                Object[] successors = (Object[]) field(node, TREE, "m_Successors");
+                feature[id] = attribute;
+                threshold[id] = (Double) field(node, TREE, "m_SplitPoint");
+                child[id] = size;
+                for (int i = 0; i < successors.length; i++) add();
+                for (int i = 0; i < successors.length; i++)
+                    queue.add(new Object[] {successors[i], child[id] + i, fallback});
+            }
+        }
+
+        private static double[] normalized(double[] classDistribution) {
+            double[] d = classDistribution.clone();
+            Utils.normalize(d);
+            return d;
+        }
+    }
+
+    private static Object field(Object target, Class<?> owner, String name) throws ReflectiveOperationException {
+        Field f = owner.getDeclaredField(name);
+        f.setAccessible(true);
+        return f.get(target);
+    }
+
+    /** Writes the compact binary form; the file is replaced atomically. */
+    public void save(Path file) throws IOException {
+        int bytes = 4 * 4 + numAttributes + 4 * roots.length + 4 + 4 * 2 * feature.length + 8 * threshold.length
+                + 4 + 8 * leafDist.length;
+        ByteBuffer buf = ByteBuffer.allocate(bytes);
+        buf.putInt(MAGIC).putInt(numClasses).putInt(numAttributes).putInt(roots.length);
+        for (boolean n : nominal) buf.put((byte) (n ? 1 : 0));
+        buf.asIntBuffer().put(roots);
+        buf.position(buf.position() + 4 * roots.length);
+        buf.putInt(feature.length);
+        buf.asIntBuffer().put(feature).put(child);
+        buf.position(buf.position() + 8 * feature.length);
+        buf.asDoubleBuffer().put(threshold);
+        buf.position(buf.position() + 8 * threshold.length);
+        buf.putInt(leafDist.length);
+        buf.asDoubleBuffer().put(leafDist);
+        buf.position(buf.position() + 8 * leafDist.length);
+        buf.flip();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) ch.write(buf);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static CompiledForest load(Path file) throws IOException {
+        ByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf = ByteBuffer.allocate((int) ch.size());
+            while (buf.hasRemaining() && ch.read(buf) >= 0) { }
+        }
+        buf.flip();
+        if (buf.getInt() != MAGIC) throw new IOException(file + ": not a compiled forest");
+        int numClasses = buf.getInt(), numAttributes = buf.getInt(), trees = buf.getInt();
+        boolean[] nominal = new boolean[numAttributes];
+        for (int a = 0; a < numAttributes; a++) nominal[a] = buf.get() != 0;
+        int[] roots = new int[trees];
+        buf.asIntBuffer().get(roots);
+        buf.position(buf.position() + 4 * trees);
+        int nodes = buf.getInt();
+        int[] feature = new int[nodes], child = new int[nodes];
+        buf.asIntBuffer().get(feature).get(child);
+        buf.position(buf.position() + 8 * nodes);
+        double[] threshold = new double[nodes];
+        buf.asDoubleBuffer().get(threshold);
+        buf.position(buf.position() + 8 * nodes);
+        double[] leafDist = new double[buf.getInt()];
+        buf.asDoubleBuffer().get(leafDist);
+        return new CompiledForest(numClasses, numAttributes, nominal, roots, feature, threshold, child, leafDist);
+    }
+}
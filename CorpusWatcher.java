@@ -0,0 +1,93 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Hot reload for {@link Chatbot}: watches the corpus TSV and, when it changes, diffs its lines
+ * against the previous version and applies only the added and removed Q/A pairs.
+ * Re-reading the file is linear in its size, but the index update is proportional to the diff.
+ */
+class CorpusWatcher implements Closeable {
+    // editors often write a file in several steps; wait for it to settle before re-reading
+    private static final long SETTLE_MS = 200;
+
+    private final Chatbot bot;
+    private final Path file;
+    private final WatchService watcher;
+    private final Thread thread;
+    private Map<String, Integer> lines;
+
+    CorpusWatcher(Chatbot bot, String corpusPath) throws IOException {
+        this.bot = bot;
+        this.file = Paths.get(corpusPath).toAbsolutePath();
+        this.lines = readPairs(file);
+        this.watcher = file.getFileSystem().newWatchService();
+        file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::run, "chatbot-corpus-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // multiset of "question\tanswer" keys with the question lowercased, as loadCorpus stores it
+    private static Map<String, Integer> readPairs(Path path) throws IOException {
+        List<String> docs = new ArrayList<>(), corpus = new ArrayList<>();
+        if (Files.exists(path)) Chatbot.readCorpus(path.toString(), docs, corpus);
+        Map<String, Integer> out = new LinkedHashMap<>();
+        for (int i = 0; i < docs.size(); i++) out.merge(docs.get(i) + "\t" + corpus.get(i), 1, Integer::sum);
+        return out;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean touched = false;
+                for (WatchEvent<?> e : key.pollEvents()) {
+                    if (file.getFileName().equals(e.context())) touched = true;
+                }
+                key.reset();
+                if (!touched) continue;
+                Thread.sleep(SETTLE_MS);
+                // swallow events raised while settling; the read below sees their changes
+                WatchKey extra;
+                while ((extra = watcher.poll()) != null) { extra.pollEvents(); extra.reset(); }
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    void reload() {
+        try {
+            Map<String, Integer> now = readPairs(file);
+            List<String[]> adds = new ArrayList<>(), removes = new ArrayList<>();
+            diff(now, lines, adds);
+            diff(lines, now, removes);
+            if (adds.isEmpty() && removes.isEmpty()) return;
+            bot.applyChanges(adds, removes);
+            // only once applied, so a failed change is diffed again on the next event
+            lines = now;
+            System.out.println("[Chatbot] reloaded " + file.getFileName() + ": +" + adds.size() + " -" + removes.size());
+        } catch (IOException e) {
+            System.err.println("[Chatbot] reload failed: " + e.getMessage());
+        } catch (RuntimeException e) {
+            // a bad line must not end the watch thread
+            System.err.println("[Chatbot] reload failed: " + e);
+        }
+    }
+
+    // pairs occurring more often in a than in b, once per extra occurrence
+    private static void diff(Map<String, Integer> a, Map<String, Integer> b, List<String[]> out) {
+        for (Map.Entry<String, Integer> e : a.entrySet()) {
+            int extra = e.getValue() - b.getOrDefault(e.getKey(), 0);
+            for (int i = 0; i < extra; i++) out.add(e.getKey().split("\t", 2));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        watcher.close();
+    }
+}
@@ -0,0 +1,30 @@
+package com.sam.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** A count of events, such as dropped frames; only counts while metrics are on. */
+public final class Counter {
+    final String name, help;
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public void inc() {
+        if (Metrics.enabled) count.increment();
+    }
+
+    public void add(long n) {
+        if (Metrics.enabled) count.add(n);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+}
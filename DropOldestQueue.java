@@ -0,0 +1,103 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Bounded blocking queue that never blocks producers: when full, {@link #put} evicts the oldest
+ * element and hands it to the drop handler (typically returning a buffer to its pool). Used
+ * between real-time stages, where a stale item is worth less than a fresh one and latency
+ * must not build up.
+ *
+ * {@link #close()} marks end of stream; consumers drain what is left and then get null.
+ */
+public final class DropOldestQueue<T> {
+    private final ArrayDeque<T> items;
+    private final int capacity;
+    private final Consumer<? super T> onDrop;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private boolean closed;
+    private long dropped;
+
+    public DropOldestQueue(int capacity, Consumer<? super T> onDrop) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive");
+        this.items = new ArrayDeque<>(capacity);
+        this.capacity = capacity;
+        this.onDrop = onDrop;
+    }
+
+    /** Enqueues item, dropping the oldest if full; after close the item itself is dropped. */
+    public void put(T item) {
+        T evicted;
+        lock.lock();
+        try {
+            if (closed) {
+                evicted = item;
+            } else {
+                evicted = items.size() == capacity ? items.pollFirst() : null;
+                items.addLast(item);
+                notEmpty.signal();
+            }
+            if (evicted != null) dropped++;
+        } finally {
+            lock.unlock();
+        }
+        if (evicted != null) onDrop.accept(evicted);
+    }
+
+    /** Next item, waiting if needed; null once closed and drained. */
+    public T take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (items.isEmpty() && !closed) notEmpty.await();
+            return items.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Like {@link #take} but gives up after the timeout, returning null. */
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (items.isEmpty() && !closed) {
+                if (nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return items.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long dropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,362 @@
+import org.opencv.core.*;
+import org.opencv.face.LBPHFaceRecognizer;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Offline recognition over image directories and video files.
+ *
+ * Inputs are walked in sorted order and cut into work units: runs of up to
+ * {@code imagesPerUnit} images, or segments of {@code segmentFrames} frames of a video, so a
+ * long clip is spread over several workers. Each worker thread has its own detector and
+ * recognizer. Every detected face becomes one CSV or JSONL row (by output extension):
+ * file, frame, x, y, w, h, label, confidence; frame is 0 for still images.
+ *
+ * A unit's rows are appended to the output together with a checkpoint line recording the
+ * output length after them. A rerun with the same inputs truncates the output to the last
+ * checkpointed length and skips finished units, so an interrupted run resumes without
+ * duplicate or partial rows. An existing output without a checkpoint is not touched unless
+ * {@code --overwrite} is given.
+ *
+ * Video segments after the first start with a seek to their first frame through
+ * {@code CAP_PROP_POS_FRAMES}. For codecs whose backend seeks to the nearest keyframe, or
+ * estimates the position from timestamps (variable frame rate, some MPEG and WebM streams),
+ * that seek can land a few frames off, so frame numbers near a segment boundary may be
+ * shifted and a frame there read twice or not at all. Where that matters, a {@code --segment}
+ * at least as long as the clip decodes it sequentially as one unit.
+ *
+ * Usage: java FaceBatch <output.csv|output.jsonl> <input dir or file>... [--threads=N] [--segment=frames] [--overwrite]
+ */
+public class FaceBatch {
+    static { System.loadLibrary(Core.NATIVE_LIBRARY_NAME); }
+
+    private static final Set<String> IMAGES = Set.of("jpg", "jpeg", "png", "bmp", "pgm", "ppm", "tif", "tiff", "webp");
+    private static final Set<String> VIDEOS = Set.of("mp4", "avi", "mov", "mkv", "m4v", "webm", "mpg", "mpeg");
+
+    public static void main(String[] args) throws Exception {
+        List<String> paths = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        int segment = 900;
+        boolean overwrite = false;
+        for (String a : args) {
+            if (a.startsWith("--threads=")) threads = Integer.parseInt(a.substring("--threads=".length()));
+            else if (a.startsWith("--segment=")) segment = Integer.parseInt(a.substring("--segment=".length()));
+            else if (a.equals("--overwrite")) overwrite = true;
+            else paths.add(a);
+        }
+        if (paths.size() < 2) {
+            System.err.println("Usage: java FaceBatch <output.csv|output.jsonl> <input dir or file>... [--threads=N] [--segment=frames] [--overwrite]");
+            System.exit(2);
+        }
+        FaceModelCache.Model model = FaceModelCache.loadOrTrain(Paths.get("faces"), Paths.get("face_model"), threads);
+        List<Path> inputs = new ArrayList<>();
+        for (String p : paths.subList(1, paths.size())) inputs.add(Paths.get(p));
+        FaceBatch batch = new FaceBatch(model::open, model::name, () -> new CascadeClassifier("haarcascade_frontalface_default.xml"),
+                threads, 64, segment);
+        try {
+            batch.run(inputs, Paths.get(paths.get(0)), overwrite);
+        } catch (FileAlreadyExistsException e) {
+            System.err.println("[FaceBatch] " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // a run of images, or frames [start, start + count) of one video
+    private static final class Unit {
+        final String id;
+        final List<Path> images;
+        final Path video;
+        final long start, count;
+
+        Unit(String id, List<Path> images, Path video, long start, long count) {
+            this.id = id; this.images = images; this.video = video; this.start = start; this.count = count;
+        }
+    }
+
+    // per worker thread
+    private static final class Worker {
+        final CascadeClassifier detector;
+        final LBPHFaceRecognizer recognizer;
+        final Mat frame = new Mat(), gray = new Mat(), face = new Mat();
+        final MatOfRect rects = new MatOfRect();
+        final int[] label = new int[1];
+        final double[] conf = new double[1];
+
+        Worker(CascadeClassifier detector, LBPHFaceRecognizer recognizer) {
+            this.detector = detector;
+            this.recognizer = recognizer;
+        }
+    }
+
+    private final IntFunction<String> names;
+    private final int threads, imagesPerUnit, segmentFrames;
+    private final ThreadLocal<Worker> workers;
+    private boolean jsonl;
+    private FileChannel out;
+    private Writer checkpoint;
+    private final AtomicLong frames = new AtomicLong(), faces = new AtomicLong(), failed = new AtomicLong();
+
+    /**
+     * @param recognizers called once per worker thread for its own recognizer
+     * @param detectors   called once per worker thread for its own detector
+     */
+    public FaceBatch(Supplier<LBPHFaceRecognizer> recognizers, IntFunction<String> names,
+                     Supplier<CascadeClassifier> detectors, int threads, int imagesPerUnit, int segmentFrames) {
+        this.names = names;
+        this.threads = threads;
+        this.imagesPerUnit = imagesPerUnit;
+        this.segmentFrames = segmentFrames;
+        this.workers = ThreadLocal.withInitial(() -> new Worker(detectors.get(), recognizers.get()));
+    }
+
+    /** As {@link #run(List, Path, boolean)} without overwriting. */
+    public long run(List<Path> inputs, Path output) throws IOException, InterruptedException {
+        return run(inputs, output, false);
+    }
+
+    /**
+     * Processes every input not already checkpointed for this output; returns the frames of the
+     * units completed in this run.
+     *
+     * @param overwrite whether a non-empty output without a checkpoint may be replaced; if not,
+     *                  such an output is left alone and {@link FileAlreadyExistsException} thrown
+     */
+    public long run(List<Path> inputs, Path output, boolean overwrite) throws IOException, InterruptedException {
+        jsonl = output.getFileName().toString().endsWith(".jsonl");
+        Path checkpointFile = output.resolveSibling(output.getFileName() + ".checkpoint");
+        Set<String> done = resume(output, checkpointFile, overwrite);
+        out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        out.position(out.size());
+        if (out.size() == 0 && !jsonl) write("file,frame,x,y,w,h,label,confidence\n");
+        checkpoint = Files.newBufferedWriter(checkpointFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (!done.isEmpty()) System.out.printf("[FaceBatch] resuming: %d units already done%n", done.size());
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Semaphore inFlight = new Semaphore(threads * 2);
+        long start = System.nanoTime();
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor();
+        progress.scheduleAtFixedRate(() -> System.out.printf("[FaceBatch] %d frames, %d faces, %.1f frames/s%n",
+                frames.get(), faces.get(), frames.get() / ((System.nanoTime() - start) / 1e9)), 10, 10, TimeUnit.SECONDS);
+        try {
+            for (Path in : inputs) {
+                units(in, unit -> {
+                    if (done.contains(unit.id)) return;
+                    inFlight.acquire();
+                    pool.execute(() -> {
+                        try {
+                            process(unit);
+                        } catch (IOException | RuntimeException e) {
+                            failed.incrementAndGet();
+                            System.err.println("[FaceBatch] " + unit.id + ": " + e);
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            progress.shutdownNow();
+            out.close();
+            checkpoint.close();
+        }
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("[FaceBatch] %d frames, %d faces, %d failed units in %.1f s: %.1f images/s on %d threads%n",
+                frames.get(), faces.get(), failed.get(), secs, frames.get() / secs, threads);
+        return frames.get();
+    }
+
+    // finished unit ids; cuts the output back to the last checkpointed length
+    private static Set<String> resume(Path output, Path checkpointFile, boolean overwrite) throws IOException {
+        Set<String> done = new HashSet<>();
+        if (!Files.exists(checkpointFile)) {
+            if (Files.exists(output) && Files.size(output) > 0) {
+                if (!overwrite) {
+                    throw new FileAlreadyExistsException(output.toString(), null,
+                            "exists without a checkpoint; pass --overwrite to replace it");
+                }
+                Files.delete(output);
+            }
+            return done;
+        }
+        long length = 0;
+        byte[] bytes = Files.readAllBytes(checkpointFile);
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') end--;
+        // a final line torn by a crash is cut off, or the next checkpoint line would run on from it
+        if (end < bytes.length) {
+            try (FileChannel ch = FileChannel.open(checkpointFile, StandardOpenOption.WRITE)) {
+                ch.truncate(end);
+            }
+        }
+        for (String line : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n")) {
+            int tab = line.lastIndexOf('\t');
+            if (tab < 0) continue;
+            length = Math.max(length, Long.parseLong(line.substring(tab + 1)));
+            done.add(line.substring(0, tab));
+        }
+        if (Files.exists(output)) {
+            try (FileChannel ch = FileChannel.open(output, StandardOpenOption.WRITE)) {
+                if (ch.size() > length) ch.truncate(length);
+            }
+        }
+        return done;
+    }
+
+    private interface UnitSink {
+        void accept(Unit unit) throws InterruptedException;
+    }
+
+    // walks input in sorted order, emitting image runs and video segments
+    private void units(Path input, UnitSink sink) throws IOException, InterruptedException {
+        List<Path> run = new ArrayList<>();
+        walk(input, file -> {
+            String ext = extension(file);
+            if (IMAGES.contains(ext)) {
+                run.add(file);
+                if (run.size() == imagesPerUnit) flushImages(run, sink);
+            } else if (VIDEOS.contains(ext)) {
+                VideoCapture cap = new VideoCapture(file.toString());
+                long total = cap.isOpened() ? (long) cap.get(Videoio.CAP_PROP_FRAME_COUNT) : 0;
+                cap.release();
+                // an unknown frame count is decoded as one unit
+                if (total <= 0) sink.accept(new Unit(file + "#0", null, file, 0, Long.MAX_VALUE));
+                for (long s = 0; s < total; s += segmentFrames)
+                    sink.accept(new Unit(file + "#" + s, null, file, s, Math.min(segmentFrames, total - s)));
+            }
+        });
+        if (!run.isEmpty()) flushImages(run, sink);
+    }
+
+    private static void flushImages(List<Path> run, UnitSink sink) throws InterruptedException {
+        sink.accept(new Unit(run.get(0) + "+" + run.size(), new ArrayList<>(run), null, 0, run.size()));
+        run.clear();
+    }
+
+    private interface FileSink {
+        void accept(Path file) throws IOException, InterruptedException;
+    }
+
+    private static void walk(Path p, FileSink sink) throws IOException, InterruptedException {
+        if (!Files.isDirectory(p)) {
+            sink.accept(p);
+            return;
+        }
+        List<Path> children;
+        try (Stream<Path> s = Files.list(p)) {
+            children = new ArrayList<>(s.sorted().toList());
+        }
+        for (Path c : children) walk(c, sink);
+    }
+
+    private static String extension(Path file) {
+        String n = file.getFileName().toString();
+        int dot = n.lastIndexOf('.');
+        return dot < 0 ? "" : n.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private void process(Unit unit) throws IOException {
+        Worker w = workers.get();
+        StringBuilder rows = new StringBuilder();
+        long n = 0, found = 0;
+        if (unit.images != null) {
+            for (Path img : unit.images) {
+                Mat m = Imgcodecs.imread(img.toString(), Imgcodecs.IMREAD_GRAYSCALE);
+                if (m.empty()) {
+                    System.err.println("[FaceBatch] cannot read " + img);
+                } else {
+                    m.copyTo(w.gray);
+                    found += recognize(w, img.toString(), 0, rows);
+                    n++;
+                }
+                m.release();
+            }
+        } else {
+            VideoCapture cap = new VideoCapture(unit.video.toString());
+            if (!cap.isOpened()) throw new IOException("cannot open " + unit.video);
+            // not frame-exact for every codec; see the class comment
+            if (unit.start > 0) cap.set(Videoio.CAP_PROP_POS_FRAMES, unit.start);
+            for (long i = 0; i < unit.count && cap.read(w.frame) && !w.frame.empty(); i++) {
+                Imgproc.cvtColor(w.frame, w.gray, Imgproc.COLOR_BGR2GRAY);
+                found += recognize(w, unit.video.toString(), unit.start + i, rows);
+                n++;
+            }
+            cap.release();
+        }
+        commit(unit, rows, n, found);
+    }
+
+    // appends a row per face found in w.gray; returns how many
+    private int recognize(Worker w, String file, long frame, StringBuilder rows) {
+        w.detector.detectMultiScale(w.gray, w.rects);
+        Rect[] found = w.rects.toArray();
+        for (Rect r : found) {
+            Mat roi = w.gray.submat(r);
+            Imgproc.resize(roi, w.face, FaceGallery.FACE_SIZE);
+            roi.release();
+            w.recognizer.predict(w.face, w.label, w.conf);
+            String name = names.apply(w.label[0]);
+            if (jsonl) {
+                rows.append("{\"file\":").append(json(file)).append(",\"frame\":").append(frame)
+                        .append(",\"x\":").append(r.x).append(",\"y\":").append(r.y)
+                        .append(",\"w\":").append(r.width).append(",\"h\":").append(r.height)
+                        .append(",\"label\":").append(json(name))
+                        .append(String.format(Locale.ROOT, ",\"confidence\":%.3f}%n", w.conf[0]));
+            } else {
+                rows.append(csv(file)).append(',').append(frame).append(',').append(r.x).append(',').append(r.y)
+                        .append(',').append(r.width).append(',').append(r.height).append(',').append(csv(name))
+                        .append(String.format(Locale.ROOT, ",%.3f%n", w.conf[0]));
+            }
+        }
+        return found.length;
+    }
+
+    // rows and their checkpoint go out together, so the checkpoint never covers a partial unit;
+    // only then do the unit's frames and faces count, so a failed unit adds nothing to the rate
+    private synchronized void commit(Unit unit, CharSequence rows, long unitFrames, long unitFaces) throws IOException {
+        write(rows);
+        out.force(false);
+        checkpoint.write(unit.id + "\t" + out.position() + "\n");
+        checkpoint.flush();
+        frames.addAndGet(unitFrames);
+        faces.addAndGet(unitFaces);
+    }
+
+    private void write(CharSequence s) throws IOException {
+        ByteBuffer b = StandardCharsets.UTF_8.encode(s.toString());
+        while (b.hasRemaining()) out.write(b);
+    }
+
+    private static String csv(String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) return s;
+        return '"' + s.replace("\"", "\"\"") + '"';
+    }
+
+    private static String json(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,118 @@
+import org.opencv.core.*;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * The training gallery: one subfolder of face images per person.
+ *
+ * People and their images are listed in name order, so label numbering and training order
+ * do not depend on the file system. Images are read and preprocessed (grayscale, 200x200)
+ * on a worker pool, a chunk at a time, with results kept in listing order.
+ */
+public final class FaceGallery {
+    public static final Size FACE_SIZE = new Size(200, 200);
+    private static final int TASK_IMAGES = 16;
+
+    /** One gallery image; size and mtime identify its contents for the model cache. */
+    public static final class Entry {
+        public final String person;
+        public final String file; // relative to the gallery, '/'-separated
+        public final long size, mtime;
+
+        Entry(String person, String file, long size, long mtime) {
+            this.person = person; this.file = file; this.size = size; this.mtime = mtime;
+        }
+
+        String key() {
+            return file + '\t' + size + '\t' + mtime;
+        }
+    }
+
+    private FaceGallery() {}
+
+    /** Person folder names in order. */
+    public static List<String> people(Path dir) throws IOException {
+        List<String> people = new ArrayList<>();
+        try (Stream<Path> s = Files.list(dir)) {
+            s.filter(Files::isDirectory).forEach(p -> people.add(p.getFileName().toString()));
+        }
+        Collections.sort(people);
+        return people;
+    }
+
+    /** Every image of every person, by person then file name. */
+    public static List<Entry> scan(Path dir) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (String person : people(dir)) {
+            List<Path> files = new ArrayList<>();
+            try (Stream<Path> s = Files.list(dir.resolve(person))) {
+                s.filter(Files::isRegularFile).forEach(files::add);
+            }
+            files.sort(Comparator.comparing(p -> p.getFileName().toString()));
+            for (Path f : files) {
+                entries.add(new Entry(person, person + "/" + f.getFileName(), Files.size(f),
+                        Files.getLastModifiedTime(f).toMillis()));
+            }
+        }
+        return entries;
+    }
+
+    /** SHA-256 over the people and every image's name, size and mtime. */
+    public static String fingerprint(List<String> people, List<Entry> entries) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (String p : people) md.update((p + '\n').getBytes(StandardCharsets.UTF_8));
+            for (Entry e : entries) md.update((e.key() + '\n').getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest()) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** Grayscale image resized to {@link #FACE_SIZE}, or null if it cannot be decoded. */
+    public static Mat preprocess(Path file) {
+        Mat img = Imgcodecs.imread(file.toString(), Imgcodecs.IMREAD_GRAYSCALE);
+        if (img.empty()) {
+            img.release();
+            return null;
+        }
+        Imgproc.resize(img, img, FACE_SIZE);
+        return img;
+    }
+
+    /**
+     * Preprocesses entries[from, to) on the pool; slot i of the result holds entry from + i,
+     * null where the image could not be read.
+     */
+    public static Mat[] load(Path dir, List<Entry> entries, int from, int to, ExecutorService pool)
+            throws InterruptedException {
+        Mat[] out = new Mat[to - from];
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int lo = 0; lo < out.length; lo += TASK_IMAGES) {
+            int a = lo, b = Math.min(out.length, lo + TASK_IMAGES);
+            tasks.add(() -> {
+                for (int i = a; i < b; i++) out[i] = preprocess(dir.resolve(entries.get(from + i).file));
+                return null;
+            });
+        }
+        for (Future<Void> f : pool.invokeAll(tasks)) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("preprocessing failed", e.getCause());
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,183 @@
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfInt;
+import org.opencv.face.LBPHFaceRecognizer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Trained LBPH model persisted next to a manifest of the gallery it was trained on.
+ *
+ * The cache directory holds {@code lbph.yml}, written by the recognizer itself, and
+ * {@code gallery.tsv} with the gallery fingerprint, the label of every person and the name,
+ * size and mtime of every image trained on. On startup:
+ * <ul>
+ * <li>same fingerprint: the model is read back and nothing is decoded;</li>
+ * <li>images or people only added: the model is read back and just the new images are
+ *     appended with {@code update}, new people taking the next free labels;</li>
+ * <li>anything changed or removed: full retrain.</li>
+ * </ul>
+ * Training feeds the recognizer chunk by chunk (LBPH train is update on an empty model), so
+ * only one chunk of decoded images is in memory at a time.
+ */
+public final class FaceModelCache {
+    private static final String MODEL = "lbph.yml", MANIFEST = "gallery.tsv";
+    private static final int CHUNK = 2048;
+
+    /** A trained recognizer and the person name of each label. */
+    public static final class Model {
+        public final LBPHFaceRecognizer recognizer;
+        public final List<String> labelNames;
+        private final Path modelFile;
+
+        Model(LBPHFaceRecognizer recognizer, List<String> labelNames, Path modelFile) {
+            this.recognizer = recognizer;
+            this.labelNames = labelNames;
+            this.modelFile = modelFile;
+        }
+
+        /** Another recognizer instance with the same model, for confining one to each thread. */
+        public LBPHFaceRecognizer open() {
+            LBPHFaceRecognizer r = newRecognizer();
+            r.read(modelFile.toString());
+            return r;
+        }
+
+        /** Person name for a predicted label, or "Unknown". */
+        public String name(int label) {
+            return label >= 0 && label < labelNames.size() ? labelNames.get(label) : "Unknown";
+        }
+    }
+
+    // what gallery.tsv records
+    private static final class Manifest {
+        String fingerprint;
+        long modelBytes = -1;
+        final List<String> people = new ArrayList<>(); // index = label
+        final Set<String> images = new HashSet<>();    // Entry.key()
+    }
+
+    private FaceModelCache() {}
+
+    public static LBPHFaceRecognizer newRecognizer() {
+        return LBPHFaceRecognizer.create(1, 8, 8, 8, 200);
+    }
+
+    /** Loads the cached model for the gallery, updating or retraining it first if needed. */
+    public static Model loadOrTrain(Path galleryDir, Path cacheDir, int threads) throws IOException, InterruptedException {
+        long t0 = System.nanoTime();
+        List<String> people = FaceGallery.people(galleryDir);
+        List<FaceGallery.Entry> entries = FaceGallery.scan(galleryDir);
+        String fingerprint = FaceGallery.fingerprint(people, entries);
+        Manifest cached = readManifest(cacheDir);
+
+        if (cached != null && cached.fingerprint.equals(fingerprint)) {
+            LBPHFaceRecognizer r = newRecognizer();
+            r.read(cacheDir.resolve(MODEL).toString());
+            System.out.printf("[FaceModelCache] loaded cached model (%d people, %d images) in %.1f ms%n",
+                    cached.people.size(), entries.size(), (System.nanoTime() - t0) / 1e6);
+            return new Model(r, cached.people, cacheDir.resolve(MODEL));
+        }
+
+        List<String> labels;
+        List<FaceGallery.Entry> toTrain;
+        LBPHFaceRecognizer r = newRecognizer();
+        boolean incremental = cached != null && isSuperset(people, entries, cached);
+        if (incremental) {
+            r.read(cacheDir.resolve(MODEL).toString());
+            labels = new ArrayList<>(cached.people);
+            for (String p : people) if (!labels.contains(p)) labels.add(p);
+            toTrain = new ArrayList<>();
+            for (FaceGallery.Entry e : entries) if (!cached.images.contains(e.key())) toTrain.add(e);
+        } else {
+            labels = people;
+            toTrain = entries;
+        }
+        Map<String, Integer> labelOf = new HashMap<>();
+        for (int i = 0; i < labels.size(); i++) labelOf.put(labels.get(i), i);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        int trained = 0;
+        try {
+            for (int from = 0; from < toTrain.size(); from += CHUNK) {
+                int to = Math.min(toTrain.size(), from + CHUNK);
+                Mat[] mats = FaceGallery.load(galleryDir, toTrain, from, to, pool);
+                List<Mat> images = new ArrayList<>();
+                int[] ids = new int[mats.length];
+                for (int i = 0; i < mats.length; i++) {
+                    if (mats[i] == null) continue;
+                    ids[images.size()] = labelOf.get(toTrain.get(from + i).person);
+                    images.add(mats[i]);
+                }
+                if (images.isEmpty()) continue;
+                MatOfInt labelsMat = new MatOfInt(Arrays.copyOf(ids, images.size()));
+                if (trained == 0 && !incremental) r.train(images, labelsMat);
+                else r.update(images, labelsMat);
+                trained += images.size();
+                labelsMat.release();
+                for (Mat m : images) m.release();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        for (int i = 0; i < labels.size(); i++) r.setLabelInfo(i, labels.get(i));
+        save(r, labels, entries, fingerprint, cacheDir);
+        System.out.printf("[FaceModelCache] %s: trained %d images (%d people) with %d threads in %.1f s%n",
+                incremental ? "incremental update" : "full training", trained, labels.size(), threads,
+                (System.nanoTime() - t0) / 1e9);
+        return new Model(r, labels, cacheDir.resolve(MODEL));
+    }
+
+    // every cached person and image is still there unchanged
+    private static boolean isSuperset(List<String> people, List<FaceGallery.Entry> entries, Manifest cached) {
+        if (!people.containsAll(cached.people)) return false;
+        Set<String> now = new HashSet<>();
+        for (FaceGallery.Entry e : entries) now.add(e.key());
+        return now.containsAll(cached.images);
+    }
+
+    private static Manifest readManifest(Path cacheDir) throws IOException {
+        Path manifest = cacheDir.resolve(MANIFEST), model = cacheDir.resolve(MODEL);
+        if (!Files.isRegularFile(manifest) || !Files.isRegularFile(model)) return null;
+        Manifest m = new Manifest();
+        try (BufferedReader br = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] f = line.split("\t", 2);
+                switch (f[0]) {
+                    case "fingerprint": m.fingerprint = f[1]; break;
+                    case "model-bytes": m.modelBytes = Long.parseLong(f[1]); break;
+                    case "person": m.people.add(f[1]); break;
+                    case "image": m.images.add(f[1]); break;
+                    default: break;
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("[FaceModelCache] ignoring unreadable " + manifest + ": " + e);
+            return null;
+        }
+        // the model is written before the manifest; a mismatch means an interrupted save
+        if (m.fingerprint == null || m.modelBytes != Files.size(model)) return null;
+        return m;
+    }
+
+    private static void save(LBPHFaceRecognizer r, List<String> labels, List<FaceGallery.Entry> entries,
+                             String fingerprint, Path cacheDir) throws IOException {
+        Files.createDirectories(cacheDir);
+        Path model = cacheDir.resolve(MODEL), tmpModel = cacheDir.resolve(MODEL + ".tmp.yml");
+        r.write(tmpModel.toString());
+        Files.move(tmpModel, model, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Path manifest = cacheDir.resolve(MANIFEST), tmp = cacheDir.resolve(MANIFEST + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write("fingerprint\t" + fingerprint + "\n");
+            w.write("model-bytes\t" + Files.size(model) + "\n");
+            for (String p : labels) w.write("person\t" + p + "\n");
+            for (FaceGallery.Entry e : entries) w.write("image\t" + e.key() + "\n");
+        }
+        Files.move(tmp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
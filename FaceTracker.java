@@ -0,0 +1,223 @@
+import org.opencv.core.*;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.util.*;
+
+/**
+ * Follows faces between Haar detections so the cascade and the recognizer do not have to run
+ * on every frame.
+ *
+ * Every frame is downscaled once. The cascade runs on the small frame every
+ * {@code detectEvery} frames, or on the next frame after a track is lost; detections are
+ * matched to existing tracks by overlap, unmatched detections start new tracks and unmatched
+ * tracks end. In between, each track is moved by normalized cross-correlation of its last
+ * appearance within a window around its previous position, and is lost when the best match
+ * falls below {@link #MIN_MATCH}.
+ *
+ * Tracks keep the identity last predicted for them; {@link #claimPrediction} says when it is
+ * due again. Not thread-safe: one tracker per stream, driven by one thread. Identities may be
+ * written back from other threads.
+ */
+public final class FaceTracker {
+    static final double MIN_MATCH = 0.6;
+    private static final double MIN_OVERLAP = 0.3;
+
+    /** A followed face; rect is in full-frame coordinates. */
+    public static final class Track {
+        public final int id;
+        Rect small;            // position on the downscaled frame
+        final Mat template = new Mat();
+        private long predictedAt = Long.MIN_VALUE;
+        private volatile String name;
+        private volatile double confidence;
+
+        Track(int id, Rect small) {
+            this.id = id;
+            this.small = small;
+        }
+
+        /** Last predicted name, or null while the first prediction is pending. */
+        public String name() {
+            return name;
+        }
+
+        public double confidence() {
+            return confidence;
+        }
+
+        public void setIdentity(String name, double confidence) {
+            this.confidence = confidence;
+            this.name = name;
+        }
+    }
+
+    private final CascadeClassifier detector;
+    private final int detectEvery;
+    private final double scale;
+    private final int predictEvery;
+    private final List<Track> tracks = new ArrayList<>();
+    private final Mat small = new Mat(), match = new Mat();
+    private final MatOfRect found = new MatOfRect();
+    private int nextId;
+    private long sinceDetect = Long.MAX_VALUE / 2;
+    private boolean lost;
+    private long detections, trackSteps, predictions;
+
+    /**
+     * @param detectEvery  run the cascade at least every this many frames
+     * @param scale        downscale factor for detection and tracking, e.g. 0.5
+     * @param predictEvery re-run the recognizer on a track after this many frames
+     */
+    public FaceTracker(CascadeClassifier detector, int detectEvery, double scale, int predictEvery) {
+        if (detectEvery < 1 || predictEvery < 1 || scale <= 0 || scale > 1)
+            throw new IllegalArgumentException("detectEvery, predictEvery >= 1 and scale in (0, 1]");
+        this.detector = detector;
+        this.detectEvery = detectEvery;
+        this.scale = scale;
+        this.predictEvery = predictEvery;
+    }
+
+    /** Advances to the next gray frame and returns the live tracks. */
+    public List<Track> update(Mat gray) {
+        if (scale == 1) gray.copyTo(small);
+        else Imgproc.resize(gray, small, new Size(), scale, scale, Imgproc.INTER_AREA);
+        if (lost || ++sinceDetect >= detectEvery) detect();
+        else follow();
+        return tracks;
+    }
+
+    /** Full-frame rectangle of a track. */
+    public Rect rect(Track t) {
+        Rect r = t.small;
+        return new Rect((int) Math.round(r.x / scale), (int) Math.round(r.y / scale),
+                (int) Math.round(r.width / scale), (int) Math.round(r.height / scale));
+    }
+
+    /**
+     * True if the track's identity should be predicted on this frame, in which case the
+     * prediction is counted as taken; the caller then reports it through setIdentity.
+     */
+    public boolean claimPrediction(Track t, long seq) {
+        if (t.predictedAt != Long.MIN_VALUE && seq - t.predictedAt < predictEvery) return false;
+        t.predictedAt = seq;
+        predictions++;
+        return true;
+    }
+
+    /**
+     * Gives back the prediction claimed for {@code seq}, when its frame was dropped before the
+     * recognizer saw it, so the track is predicted again on the next frame. Detect stage only.
+     */
+    public void releasePrediction(Track t, long seq) {
+        if (t.predictedAt != seq) return;
+        t.predictedAt = Long.MIN_VALUE;
+        predictions--;
+    }
+
+    private void detect() {
+        detector.detectMultiScale(small, found);
+        detections++;
+        sinceDetect = 0;
+        lost = false;
+        Rect[] rects = found.toArray();
+        boolean[] used = new boolean[rects.length];
+        Iterator<Track> it = tracks.iterator();
+        while (it.hasNext()) {
+            Track t = it.next();
+            int best = -1;
+            double bestOverlap = MIN_OVERLAP;
+            for (int i = 0; i < rects.length; i++) {
+                double o = used[i] ? 0 : overlap(t.small, rects[i]);
+                if (o >= bestOverlap) { best = i; bestOverlap = o; }
+            }
+            if (best < 0) {
+                t.template.release();
+                it.remove();
+                continue;
+            }
+            used[best] = true;
+            t.small = rects[best];
+            grab(t);
+        }
+        for (int i = 0; i < rects.length; i++) {
+            if (used[i]) continue;
+            Track t = new Track(nextId++, rects[i]);
+            grab(t);
+            tracks.add(t);
+        }
+    }
+
+    private void follow() {
+        Rect bounds = new Rect(0, 0, small.cols(), small.rows());
+        Iterator<Track> it = tracks.iterator();
+        while (it.hasNext()) {
+            Track t = it.next();
+            trackSteps++;
+            Rect r = t.small;
+            Rect window = intersect(new Rect(r.x - r.width / 2, r.y - r.height / 2, r.width * 2, r.height * 2), bounds);
+            if (window.width < t.template.cols() || window.height < t.template.rows()) {
+                drop(t, it);
+                continue;
+            }
+            Mat roi = small.submat(window);
+            Imgproc.matchTemplate(roi, t.template, match, Imgproc.TM_CCOEFF_NORMED);
+            roi.release();
+            Core.MinMaxLocResult m = Core.minMaxLoc(match);
+            if (m.maxVal < MIN_MATCH) {
+                drop(t, it);
+                continue;
+            }
+            t.small = new Rect(window.x + (int) m.maxLoc.x, window.y + (int) m.maxLoc.y, r.width, r.height);
+            grab(t);
+        }
+    }
+
+    private void drop(Track t, Iterator<Track> it) {
+        t.template.release();
+        it.remove();
+        lost = true;
+    }
+
+    // current appearance of the track, for matching in the next frame
+    private void grab(Track t) {
+        Mat roi = small.submat(intersect(t.small, new Rect(0, 0, small.cols(), small.rows())));
+        roi.copyTo(t.template);
+        roi.release();
+    }
+
+    private static Rect intersect(Rect a, Rect b) {
+        int x = Math.max(a.x, b.x), y = Math.max(a.y, b.y);
+        int w = Math.min(a.x + a.width, b.x + b.width) - x, h = Math.min(a.y + a.height, b.y + b.height) - y;
+        return new Rect(x, y, Math.max(0, w), Math.max(0, h));
+    }
+
+    // intersection over union
+    static double overlap(Rect a, Rect b) {
+        Rect i = intersect(a, b);
+        double inter = (double) i.width * i.height;
+        double union = (double) a.width * a.height + (double) b.width * b.height - inter;
+        return union <= 0 ? 0 : inter / union;
+    }
+
+    public long detections() {
+        return detections;
+    }
+
+    public long trackSteps() {
+        return trackSteps;
+    }
+
+    public long predictions() {
+        return predictions;
+    }
+
+    /** Releases the native buffers. */
+    public void release() {
+        for (Track t : tracks) t.template.release();
+        tracks.clear();
+        small.release();
+        match.release();
+        found.release();
+    }
+}
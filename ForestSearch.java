@@ -0,0 +1,190 @@
+import weka.classifiers.Evaluation;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Model selection for LoanPrediction: stratified k-fold cross-validation of RandomForest
+ * configurations, folds of all configurations run in parallel.
+ *
+ * Each fold is one task on a fixed pool. The pool and each forest's execution slots share
+ * the cores: with fewer tasks than cores, forests get several slots each, otherwise one, so
+ * pool size times slots never exceeds the core count. Configurations are queued in order,
+ * fold by fold; once a configuration has two folds done and its mean AUC trails the best
+ * mean seen so far, over at least two folds of any configuration, by more than
+ * {@link #STOP_MARGIN}, its remaining folds are skipped.
+ */
+public final class ForestSearch {
+    static final double STOP_MARGIN = 0.02;
+    private static final int MIN_FOLDS = 2;
+
+    /** One point of the search space; 0 means Weka's default for depth and features. */
+    public static final class Config {
+        public final int trees, maxDepth, features;
+
+        public Config(int trees, int maxDepth, int features) {
+            this.trees = trees;
+            this.maxDepth = maxDepth;
+            this.features = features;
+        }
+
+        public RandomForest newForest(int slots, int seed) {
+            RandomForest rf = new RandomForest();
+            rf.setNumTrees(trees);
+            rf.setMaxDepth(maxDepth);
+            rf.setNumFeatures(features);
+            rf.setNumExecutionSlots(slots);
+            rf.setSeed(seed);
+            return rf;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("trees=%d depth=%s features=%s", trees, maxDepth == 0 ? "any" : maxDepth,
+                    features == 0 ? "auto" : features);
+        }
+    }
+
+    /** Cross-validated AUC and cost of one configuration. */
+    public static final class Result {
+        public final Config config;
+        final double[] foldAuc;
+        int folds;
+        long trainNanos, evalNanos;
+        boolean stopped;
+
+        Result(Config config, int k) {
+            this.config = config;
+            foldAuc = new double[k];
+        }
+
+        public double auc() {
+            double s = 0;
+            for (int i = 0; i < folds; i++) s += foldAuc[i];
+            return folds == 0 ? 0 : s / folds;
+        }
+
+        double std() {
+            double m = auc(), s = 0;
+            for (int i = 0; i < folds; i++) s += (foldAuc[i] - m) * (foldAuc[i] - m);
+            return folds < 2 ? 0 : Math.sqrt(s / (folds - 1));
+        }
+
+        boolean finished(int k) {
+            return stopped || folds == k;
+        }
+    }
+
+    /** Every combination of a few sizes, depths and feature counts. */
+    public static List<Config> grid() {
+        List<Config> out = new ArrayList<>();
+        for (int trees : new int[] {50, 100, 200})
+            for (int depth : new int[] {0, 10, 20})
+                for (int features : new int[] {0, 2, 4})
+                    out.add(new Config(trees, depth, features));
+        return out;
+    }
+
+    /** {@code n} configurations drawn at random from the same ranges as the grid and beyond. */
+    public static List<Config> random(int n, int numAttributes, long seed) {
+        Random rnd = new Random(seed);
+        List<Config> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int trees = 20 + rnd.nextInt(281);
+            int depth = rnd.nextInt(4) == 0 ? 0 : 4 + rnd.nextInt(27);
+            int features = rnd.nextInt(4) == 0 ? 0 : 1 + rnd.nextInt(Math.max(1, numAttributes - 1));
+            out.add(new Config(trees, depth, features));
+        }
+        return out;
+    }
+
+    private final Instances[] train, test;
+    private final int folds, cores, seed;
+
+    /**
+     * @param data  preprocessed data with the class set; it is not modified
+     * @param cores threads the search may keep busy, forests' own slots included
+     */
+    public ForestSearch(Instances data, int folds, int seed, int cores) {
+        this.folds = folds;
+        this.cores = cores;
+        this.seed = seed;
+        Instances shuffled = new Instances(data);
+        shuffled.randomize(new Random(seed));
+        shuffled.stratify(folds);
+        train = new Instances[folds];
+        test = new Instances[folds];
+        for (int i = 0; i < folds; i++) {
+            train[i] = shuffled.trainCV(folds, i, new Random(seed + i));
+            test[i] = shuffled.testCV(folds, i);
+        }
+    }
+
+    /** Cross-validates every configuration and returns them best first. */
+    public List<Result> run(List<Config> configs) throws InterruptedException, ExecutionException {
+        int tasks = configs.size() * folds;
+        int workers = Math.max(1, Math.min(cores, tasks));
+        int slots = Math.max(1, cores / workers);
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Result> results = new ArrayList<>();
+        double[] best = {Double.NEGATIVE_INFINITY};
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (Config c : configs) {
+                Result r = new Result(c, folds);
+                results.add(r);
+                for (int f = 0; f < folds; f++) {
+                    int fold = f;
+                    futures.add(pool.submit(() -> {
+                        synchronized (r) {
+                            if (r.stopped) return null;
+                        }
+                        RandomForest rf = c.newForest(slots, seed);
+                        long t0 = System.nanoTime();
+                        rf.buildClassifier(train[fold]);
+                        long t1 = System.nanoTime();
+                        Evaluation eval = new Evaluation(train[fold]);
+                        eval.evaluateModel(rf, test[fold]);
+                        double auc = eval.areaUnderROC(LoanScorer.POSITIVE);
+                        long t2 = System.nanoTime();
+                        synchronized (r) {
+                            r.trainNanos += t1 - t0;
+                            r.evalNanos += t2 - t1;
+                            if (r.finished(folds)) return null;
+                            r.foldAuc[r.folds++] = auc;
+                            if (r.folds < MIN_FOLDS) return null;
+                            synchronized (best) {
+                                best[0] = Math.max(best[0], r.auc());
+                                if (r.folds < folds && r.auc() + STOP_MARGIN < best[0]) r.stopped = true;
+                            }
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> f : futures) f.get();
+        } finally {
+            pool.shutdownNow();
+        }
+        results.sort((a, b) -> {
+            if (a.stopped != b.stopped) return a.stopped ? 1 : -1;
+            return Double.compare(b.auc(), a.auc());
+        });
+        return results;
+    }
+
+    /** Ranked table of results. */
+    public static String report(List<Result> results, int k) {
+        StringBuilder sb = new StringBuilder(String.format(
+                "rank  %-34s  %6s  %6s  folds  train s  eval s%n", "configuration", "AUC", "std"));
+        int rank = 1;
+        for (Result r : results) {
+            sb.append(String.format("%4d  %-34s  %6.4f  %6.4f  %2d/%-2d  %7.2f  %6.2f%s%n", rank++, r.config,
+                    r.auc(), r.std(), r.folds, k, r.trainNanos / 1e9, r.evalNanos / 1e9,
+                    r.stopped ? "  stopped early" : ""));
+        }
+        return sb.toString();
+    }
+}
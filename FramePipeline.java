@@ -0,0 +1,366 @@
+import com.sam.metrics.Counter;
+import com.sam.metrics.Metrics;
+import com.sam.metrics.Stage;
+import com.sam.metrics.Trace;
+import org.opencv.core.*;
+import org.opencv.face.FaceRecognizer;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.videoio.VideoCapture;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Staged face-recognition pipeline over a camera or video file:
+ * capture -> detect -> recognize (worker pool) -> annotate/output.
+ *
+ * Stages run on their own threads and are connected by small {@link DropOldestQueue}s, so a
+ * slow stage makes the pipeline skip frames instead of falling behind. Frames and their
+ * native buffers (BGR image, gray image, detection rects, face crop) are pooled and reused;
+ * dropped frames go straight back to the pool. Recognition workers finish frames out of
+ * order, and the output stage drops any frame older than one already emitted.
+ *
+ * Each recognition worker owns its recognizer; the detector is confined to the detect stage.
+ */
+public class FramePipeline {
+    /** Receives each annotated frame in order; the Mat is reused once this returns. */
+    public interface Sink {
+        void accept(Mat frame, long seq);
+    }
+
+    // one frame and the buffers that travel with it
+    static final class Frame {
+        long seq;
+        long capturedAt;
+        final Mat bgr = new Mat();
+        final Mat gray = new Mat();
+        final MatOfRect faces = new MatOfRect();
+        Rect[] rects = new Rect[0];
+        String[] names = new String[0];
+        double[] confidence = new double[0];
+        // tracking mode: the track behind each rect and whether it is to be predicted
+        FaceTracker.Track[] tracks;
+        boolean[] predict = new boolean[0];
+        Trace trace;  // sampled frames only
+
+        void ensure(int n) {
+            if (names.length >= n) return;
+            names = new String[n];
+            confidence = new double[n];
+            predict = new boolean[n];
+        }
+    }
+
+    /** Frames, busy time and worst latency of one stage; also recorded as the face.* metrics stage. */
+    static final class StageStats {
+        final String name;
+        final LongAdder frames = new LongAdder(), busyNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final Stage stage;
+
+        StageStats(String name) {
+            this.name = name;
+            stage = Metrics.stage("face." + name.replace('-', '_'), "frame pipeline " + name + " stage, per frame");
+        }
+
+        void record(long startNanos, Trace trace) {
+            long now = System.nanoTime(), t = now - startNanos;
+            frames.increment();
+            busyNanos.add(t);
+            maxNanos.accumulateAndGet(t, Math::max);
+            stage.record(startNanos, now, trace);
+        }
+
+        String report(double seconds) {
+            long n = frames.sum();
+            return String.format("%-10s %7d frames %7.1f fps  avg %6.2f ms  max %7.2f ms",
+                    name, n, n / seconds, n == 0 ? 0.0 : busyNanos.sum() / 1e6 / n, maxNanos.get() / 1e6);
+        }
+    }
+
+    private static final Scalar BOX = new Scalar(0, 255, 0), TEXT = new Scalar(255, 0, 0);
+    private static final Counter DROPPED = Metrics.counter("face.dropped", "frames dropped by a full stage queue");
+    private static final Counter LATE = Metrics.counter("face.late", "frames dropped for finishing out of order");
+    private static final Counter PREDICTIONS = Metrics.counter("face.predictions", "faces run through the recognizer");
+
+    private final VideoCapture source;
+    private final CascadeClassifier detector;
+    private final Supplier<? extends FaceRecognizer> recognizers;
+    private final Function<Integer, String> names;
+    private final int workers;
+    private final Sink sink;
+
+    private final ConcurrentLinkedQueue<Frame> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final DropOldestQueue<Frame> toDetect, toRecognize, toOutput;
+    final StageStats capture = new StageStats("capture"), detect = new StageStats("detect"),
+            recognize = new StageStats("recognize"), output = new StageStats("output"),
+            endToEnd = new StageStats("end-to-end");
+    private final LongAdder late = new LongAdder();
+    private volatile boolean stopped;
+    private long frameIntervalNanos;
+    private FaceTracker tracker;
+    private long startNanos, endNanos;
+
+    /**
+     * @param recognizers called once per worker thread for its own recognizer
+     * @param names       person name for a predicted label
+     * @param capacity    frames each queue holds before dropping the oldest
+     */
+    public FramePipeline(VideoCapture source, CascadeClassifier detector, Supplier<? extends FaceRecognizer> recognizers,
+                         Function<Integer, String> names, int workers, int capacity, Sink sink) {
+        this.source = source;
+        this.detector = detector;
+        this.recognizers = recognizers;
+        this.names = names;
+        this.workers = workers;
+        this.sink = sink;
+        toDetect = new DropOldestQueue<>(capacity, this::drop);
+        toRecognize = new DropOldestQueue<>(capacity, this::dropUnrecognized);
+        toOutput = new DropOldestQueue<>(capacity, this::drop);
+    }
+
+    private Frame acquire() {
+        Frame f = free.poll();
+        if (f == null) {
+            f = new Frame();
+            allocated.incrementAndGet();
+        }
+        return f;
+    }
+
+    private void recycle(Frame f) {
+        Trace.end(f.trace);
+        f.trace = null;
+        free.offer(f);
+    }
+
+    private void drop(Frame f) {
+        DROPPED.inc();
+        recycle(f);
+    }
+
+    // evicted by the detect stage, which owns the tracker: predictions claimed for the frame are
+    // given back, so its tracks do not keep a stale identity until the next one is due
+    private void dropUnrecognized(Frame f) {
+        if (f.tracks != null) {
+            for (int i = 0; i < f.rects.length; i++) {
+                if (f.predict[i]) tracker.releasePrediction(f.tracks[i], f.seq);
+            }
+        }
+        drop(f);
+    }
+
+    /** Reads at most fps frames per second, so a video file plays at camera speed; 0 reads flat out. */
+    public void pace(double fps) {
+        frameIntervalNanos = fps > 0 ? (long) (1e9 / fps) : 0;
+    }
+
+    /**
+     * Detects every few frames and follows faces in between, reusing each track's identity
+     * until it is due for another prediction. The tracker is driven by the detect stage.
+     */
+    public void track(FaceTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    /** Asks the capture stage to stop; {@link #run} returns once in-flight frames drain. */
+    public void stop() {
+        stopped = true;
+    }
+
+    /** Runs until the source ends or {@link #stop} is called. */
+    public void run() throws InterruptedException {
+        startNanos = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        threads.add(new Thread(this::captureLoop, "capture"));
+        threads.add(new Thread(this::detectLoop, "detect"));
+        AtomicInteger running = new AtomicInteger(workers);
+        for (int i = 0; i < workers; i++) {
+            threads.add(new Thread(() -> {
+                try {
+                    recognizeLoop();
+                } finally {
+                    // the output stage ends with the last worker, however that worker ended
+                    if (running.decrementAndGet() == 0) toOutput.close();
+                }
+            }, "recognize-" + i));
+        }
+        threads.add(new Thread(this::outputLoop, "output"));
+        for (Thread t : threads) t.start();
+        try {
+            for (Thread t : threads) t.join();
+        } finally {
+            endNanos = System.nanoTime();
+        }
+    }
+
+    private void captureLoop() {
+        long seq = 0, due = System.nanoTime();
+        try {
+            while (!stopped) {
+                if (frameIntervalNanos > 0) {
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                    due += frameIntervalNanos;
+                }
+                Frame f = acquire();
+                long t0 = System.nanoTime();
+                if (!source.read(f.bgr) || f.bgr.empty()) {
+                    recycle(f);
+                    break;
+                }
+                f.seq = seq++;
+                f.capturedAt = t0;
+                f.trace = Trace.sample("face.frame");
+                capture.record(t0, f.trace);
+                toDetect.put(f);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            toDetect.close();
+        }
+    }
+
+    private void detectLoop() {
+        try {
+            for (Frame f; (f = toDetect.take()) != null; ) {
+                long t0 = System.nanoTime();
+                Imgproc.cvtColor(f.bgr, f.gray, Imgproc.COLOR_BGR2GRAY);
+                if (tracker != null) {
+                    followFaces(f);
+                } else {
+                    detector.detectMultiScale(f.gray, f.faces);
+                    f.rects = f.faces.toArray();
+                    f.tracks = null;
+                }
+                detect.record(t0, f.trace);
+                toRecognize.put(f);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            toRecognize.close();
+        }
+    }
+
+    // tracking mode: rects come from the tracker, identities from its cache unless due
+    private void followFaces(Frame f) {
+        List<FaceTracker.Track> live = tracker.update(f.gray);
+        int n = live.size();
+        f.ensure(n);
+        f.rects = new Rect[n];
+        if (f.tracks == null || f.tracks.length < n) f.tracks = new FaceTracker.Track[n];
+        for (int i = 0; i < n; i++) {
+            FaceTracker.Track t = live.get(i);
+            f.rects[i] = tracker.rect(t);
+            f.tracks[i] = t;
+            f.predict[i] = tracker.claimPrediction(t, f.seq);
+            if (!f.predict[i]) {
+                f.names[i] = t.name() == null ? "?" : t.name();
+                f.confidence[i] = t.confidence();
+            }
+        }
+    }
+
+    private void recognizeLoop() {
+        FaceRecognizer recognizer = recognizers.get();
+        Mat face = new Mat();
+        int[] label = new int[1];
+        double[] conf = new double[1];
+        try {
+            for (Frame f; (f = toRecognize.take()) != null; ) {
+                long t0 = System.nanoTime();
+                int n = f.rects.length;
+                f.ensure(n);
+                for (int i = 0; i < n; i++) {
+                    if (f.tracks != null && !f.predict[i]) continue;
+                    Rect r = clip(f.rects[i], f.gray);
+                    if (r.width <= 0 || r.height <= 0) {
+                        // a track that drifted off the frame
+                        f.names[i] = "?";
+                        f.confidence[i] = 0;
+                        continue;
+                    }
+                    Mat roi = f.gray.submat(r);
+                    Imgproc.resize(roi, face, FaceGallery.FACE_SIZE);
+                    roi.release();
+                    recognizer.predict(face, label, conf);
+                    PREDICTIONS.inc();
+                    f.names[i] = names.apply(label[0]);
+                    f.confidence[i] = conf[0];
+                    if (f.tracks != null) f.tracks[i].setIdentity(f.names[i], conf[0]);
+                }
+                recognize.record(t0, f.trace);
+                toOutput.put(f);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            face.release();
+        }
+    }
+
+    // scaled-up tracker rects can overhang the frame by a pixel; empty (width or height <= 0)
+    // for a rect wholly outside it
+    static Rect clip(Rect r, Mat m) {
+        int x = Math.max(0, r.x), y = Math.max(0, r.y);
+        return new Rect(x, y, Math.min(r.x + r.width, m.cols()) - x, Math.min(r.y + r.height, m.rows()) - y);
+    }
+
+    private void outputLoop() {
+        long lastSeq = -1;
+        try {
+            for (Frame f; (f = toOutput.take()) != null; ) {
+                if (f.seq < lastSeq) {
+                    late.increment();
+                    LATE.inc();
+                    recycle(f);
+                    continue;
+                }
+                lastSeq = f.seq;
+                long t0 = System.nanoTime();
+                for (int i = 0; i < f.rects.length; i++) {
+                    Rect r = f.rects[i];
+                    Imgproc.rectangle(f.bgr, r.tl(), r.br(), BOX, 2);
+                    Imgproc.putText(f.bgr, f.names[i] + String.format(" (%.1f)", f.confidence[i]), r.tl(),
+                            Imgproc.FONT_HERSHEY_SIMPLEX, 1.0, TEXT, 2);
+                }
+                if (sink != null) sink.accept(f.bgr, f.seq);
+                output.record(t0, f.trace);
+                endToEnd.record(f.capturedAt, f.trace);
+                recycle(f);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Per-stage throughput and latency, queue drops and pool size since {@link #run} started. */
+    public String report() {
+        double secs = ((endNanos > startNanos ? endNanos : System.nanoTime()) - startNanos) / 1e9;
+        StringBuilder sb = new StringBuilder();
+        for (StageStats s : new StageStats[] {capture, detect, recognize, output, endToEnd})
+            sb.append(s.report(secs)).append('\n');
+        sb.append(String.format("dropped: detect queue %d, recognize queue %d, output queue %d, out of order %d; "
+                        + "%d pooled frames, %d workers",
+                toDetect.dropped(), toRecognize.dropped(), toOutput.dropped(), late.sum(), allocated.get(), workers));
+        return sb.toString();
+    }
+
+    /** Releases the native buffers of every pooled frame; call after {@link #run}. */
+    public void release() {
+        for (Frame f; (f = free.poll()) != null; ) {
+            f.bgr.release();
+            f.gray.release();
+            f.faces.release();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.sam.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values, nanoseconds here, in the log-linear buckets of
+ * HdrHistogram: values below 32 get a bucket each and every power of two above that is split
+ * into 32 equal buckets, so a percentile is reported within 1/64 (1.6%) of a recorded value.
+ * Values from 2^41 ns (about 37 minutes) up share the last bucket. Recording is an array
+ * increment and an adder update; it allocates nothing.
+ */
+public final class Histogram {
+    private static final int SUB_BITS = 5, SUB = 1 << SUB_BITS;
+    private static final int MAX_EXP = 40;
+    static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(index(value));
+        sum.add(value);
+        if (value > max.get()) max.accumulateAndGet(value, Math::max);
+    }
+
+    static int index(long v) {
+        if (v < SUB) return (int) v;
+        int e = 63 - Long.numberOfLeadingZeros(v);
+        if (e > MAX_EXP) return BUCKETS - 1;
+        return ((e - SUB_BITS + 1) << SUB_BITS) + (int) ((v >>> (e - SUB_BITS)) & (SUB - 1));
+    }
+
+    // middle of bucket i
+    static long value(int i) {
+        if (i < SUB) return i;
+        int shift = (i >>> SUB_BITS) - 1;
+        long lower = (long) (SUB + (i & (SUB - 1))) << shift;
+        return lower + ((1L << shift) >>> 1);
+    }
+
+    /** The counts so far; recording goes on meanwhile, so count, sum and max may be a few values apart. */
+    public Snapshot snapshot() {
+        long[] c = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) n += c[i] = counts.get(i);
+        return new Snapshot(c, n, sum.sum(), max.get());
+    }
+
+    public static final class Snapshot {
+        public final long count, sum, max;
+        private final long[] counts;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /** The value at quantile q, 0 to 1; never above the largest value recorded. */
+        public long percentile(double q) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * count)), seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(value(i), max);
+            }
+            return max;
+        }
+    }
+}
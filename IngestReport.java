@@ -0,0 +1,108 @@
+import weka.core.Instances;
+import weka.core.converters.ConverterUtils.DataSource;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.ReplaceMissingValues;
+import weka.filters.unsupervised.attribute.StringToNominal;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.ref.Reference;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Load time and heap of LoanPrediction's two ingestion paths on the same CSV: DataSource plus
+ * the StringToNominal and ReplaceMissingValues copies, against {@link ColumnTable} and its
+ * train/test views, each up to the 80/20 split LoanPrediction trains on.
+ *
+ * Both figures are relative to the heap live before the path starts. Peak is the summed peak of
+ * the heap pools while the path runs; retained is what is still live after a collection with
+ * the path's result held. When both paths run, their train and test rows are also compared
+ * value by value.
+ *
+ * Usage: java IngestReport <csv> [--columnar-only] [--instances]
+ *   --instances also builds the columnar train/test Instances, as LoanPrediction --columnar does
+ */
+public class IngestReport {
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java IngestReport <csv> [--columnar-only] [--instances]");
+            System.exit(2);
+        }
+        String csv = args[0];
+        boolean wekaPath = !Arrays.asList(args).contains("--columnar-only");
+        boolean instances = Arrays.asList(args).contains("--instances");
+
+        System.out.printf("%-10s %9s  %9s  %8s  %11s%n", "path", "rows", "load ms", "peak MB", "retained MB");
+        Instances[] weka = null;
+        if (wekaPath) {
+            long[] m = start();
+            weka = wekaSplit(csv);
+            report("weka", weka[0].numInstances() + weka[1].numInstances(), m);
+        }
+        long[] m = start();
+        ColumnTable table = ColumnTable.read(Paths.get(csv));
+        ColumnTable.View[] views = table.split(0.8, 1);
+        Object held = views;
+        if (instances) held = new Instances[] {views[0].toInstances(), views[1].toInstances()};
+        report(instances ? "columnar+i" : "columnar", table.rows(), m);
+        Reference.reachabilityFence(held);
+        System.out.printf("columnar storage %.1f MB for %d rows x %d columns%n", table.bytes() / 1e6, table.rows(),
+                table.columns());
+
+        if (weka != null) {
+            long diffs = 0;
+            double[] values = new double[table.columns()];
+            for (int s = 0; s < 2; s++) {
+                for (int i = 0; i < views[s].size(); i++) {
+                    if (!Arrays.equals(weka[s].instance(i).toDoubleArray(), views[s].values(i, values))) diffs++;
+                }
+            }
+            System.out.println(diffs == 0 ? "train/test rows identical to the weka path"
+                    : diffs + " rows differ from the weka path");
+        }
+    }
+
+    // LoanPrediction's original loading, up to the split
+    static Instances[] wekaSplit(String csv) throws Exception {
+        Instances data = new DataSource(csv).getDataSet();
+        if (data.classIndex() == -1) data.setClassIndex(data.numAttributes() - 1);
+        StringToNominal stn = new StringToNominal();
+        stn.setAttributeRange("first-last");
+        stn.setInputFormat(data);
+        Instances nominalData = Filter.useFilter(data, stn);
+        ReplaceMissingValues replaceMissing = new ReplaceMissingValues();
+        replaceMissing.setInputFormat(nominalData);
+        Instances clean = Filter.useFilter(nominalData, replaceMissing);
+        clean.randomize(new Random(1));
+        int trainSize = (int) Math.round(clean.numInstances() * 0.8);
+        return new Instances[] {new Instances(clean, 0, trainSize),
+                new Instances(clean, trainSize, clean.numInstances() - trainSize)};
+    }
+
+    // collects and resets the pool peaks; returns {start nanos, live bytes}
+    private static long[] start() {
+        long live = liveBytes();
+        for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans())
+            if (p.getType() == MemoryType.HEAP) p.resetPeakUsage();
+        return new long[] {System.nanoTime(), live};
+    }
+
+    private static void report(String path, long rows, long[] start) {
+        long nanos = System.nanoTime() - start[0];
+        long peak = 0;
+        for (MemoryPoolMXBean p : ManagementFactory.getMemoryPoolMXBeans())
+            if (p.getType() == MemoryType.HEAP) peak += p.getPeakUsage().getUsed();
+        long retained = liveBytes();
+        System.out.printf("%-10s %9d  %9.0f  %8.1f  %11.1f%n", path, rows, nanos / 1e6, (peak - start[1]) / 1e6,
+                (retained - start[1]) / 1e6);
+    }
+
+    private static long liveBytes() {
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+}
@@ -0,0 +1,144 @@
+package com.sam.voice;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Intent-match latency of {@link IntentMatcher} against the if/else chain of contains,
+ * startsWith and matches calls it replaced, with the assistant's commands plus a few hundred
+ * generated ones registered in both.
+ *
+ * Each utterance is matched once per round and timed on its own; the report gives per-match
+ * percentiles, throughput and bytes allocated per match, for final utterances and for the
+ * partial hypotheses the pipeline feeds the matcher while someone is still talking.
+ *
+ * Usage: java com.sam.voice.IntentBenchmark [commands] [utterances] [rounds]
+ */
+public class IntentBenchmark {
+    private static final String[] VERBS = {"open", "launch", "close", "start", "stop", "show", "turn on", "turn off"};
+    private static final String[] FILLER = {"please", "the", "my", "now", "hey", "could", "you", "a", "for", "me",
+            "and", "then", "music", "weather", "lights", "today"};
+
+    // the old chain, generalised: each rule is a contains or startsWith test, tried in order
+    private static final class Chain {
+        final List<String> phrases = new ArrayList<>();
+        final List<Boolean> anywhere = new ArrayList<>();
+
+        int match(String text) {
+            // the per-utterance regex of the old time rule
+            if (text.contains("time") || text.matches(".*what.*time.*")) return 0;
+            for (int i = 0; i < phrases.size(); i++) {
+                String p = phrases.get(i);
+                if (anywhere.get(i) ? text.contains(p) : text.startsWith(p)) return i + 1;
+            }
+            return -1;
+        }
+    }
+
+    public static void main(String[] args) {
+        int commands = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int utterances = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+        Random rnd = new Random(7);
+
+        IntentMatcher.Builder b = new IntentMatcher.Builder()
+                .intent("time", true, x -> { }, "* time")
+                .intent("search", false, x -> { }, "search {query}", "search for {query}", "wiki {query}")
+                .intent("play", false, x -> { }, "play {song}")
+                .intent("notepad", false, x -> { }, "* open notepad")
+                .intent("exit", false, x -> { }, "* exit", "* quit", "* goodbye");
+        Chain chain = new Chain();
+        for (String p : new String[] {"search", "wiki", "play", "open notepad", "exit", "quit", "goodbye"}) {
+            chain.phrases.add(p);
+            chain.anywhere.add(p.equals("open notepad") || p.equals("exit") || p.equals("quit") || p.equals("goodbye"));
+        }
+        List<String> phrases = new ArrayList<>();
+        for (int i = 0; i < commands; i++) {
+            // fixed-width names, so no phrase is a prefix of another for the chain's substring tests
+            String phrase = VERBS[i % VERBS.length] + " device " + (char) ('a' + i / 26 % 26) + (char) ('a' + i % 26);
+            boolean anywhere = i % 3 == 0;
+            phrases.add(phrase);
+            b.intent("cmd" + i, false, x -> { }, anywhere ? "* " + phrase : phrase + " {arg}");
+            chain.phrases.add(phrase);
+            chain.anywhere.add(anywhere);
+        }
+        IntentMatcher matcher = b.build();
+
+        // half hit a generated command somewhere in filler, the rest are the assistant's or nothing
+        String[] texts = new String[utterances];
+        for (int u = 0; u < utterances; u++) {
+            StringBuilder sb = new StringBuilder();
+            int kind = rnd.nextInt(4);
+            if (kind < 2) {
+                String phrase = phrases.get(rnd.nextInt(phrases.size()));
+                if (rnd.nextBoolean()) sb.append(FILLER[rnd.nextInt(FILLER.length)]).append(' ');
+                sb.append(phrase);
+            } else if (kind == 2) {
+                sb.append(new String[] {"search for albert einstein", "what time is it", "play shape of you",
+                        "please open notepad", "goodbye"}[rnd.nextInt(5)]);
+            } else {
+                sb.append(FILLER[rnd.nextInt(FILLER.length)]);
+            }
+            for (int w = rnd.nextInt(6); w > 0; w--) sb.append(' ').append(FILLER[rnd.nextInt(FILLER.length)]);
+            texts[u] = sb.toString();
+        }
+
+        // the two must agree on which command fires
+        IntentMatcher.Match m = new IntentMatcher.Match();
+        int disagree = 0;
+        for (String t : texts) {
+            matcher.match(t, m);
+            String name = matcher.name(m);
+            int c = chain.match(t);
+            String expected = c < 0 ? null : c == 0 ? "time" : c <= 7
+                    ? new String[] {"search", "search", "play", "notepad", "exit", "exit", "exit"}[c - 1]
+                    : "cmd" + (c - 8);
+            if (!Objects.equals(name, expected)) disagree++;
+        }
+        System.out.printf("%d intents, %d utterances, %d rounds; %d disagreements with the chain%n",
+                matcher.intents(), utterances, rounds, disagree);
+
+        StringBuilder partial = new StringBuilder();
+        System.out.printf("%-18s %9s %9s %9s %12s %10s%n", "", "p50 ns", "p99 ns", "max ns", "matches/s", "B/match");
+        for (int pass = 0; pass < 2; pass++) {
+            boolean report = pass == 1;  // the first pass warms up
+            run("chain", report, rounds, texts, t -> chain.match(t));
+            run("trie", report, rounds, texts, t -> matcher.match(t, m).intent);
+            run("trie, partials", report, rounds, texts, t -> {
+                // a partial hypothesis is a growing prefix of the final text, in a reused builder
+                partial.setLength(0);
+                partial.append(t, 0, t.length() / 2);
+                return matcher.match(partial, m).intent;
+            });
+        }
+    }
+
+    static volatile long blackhole;  // keeps the matches from being optimised away
+
+    private interface Op {
+        int apply(String text);
+    }
+
+    private static void run(String name, boolean report, int rounds, String[] texts, Op op) {
+        long[] nanos = new long[rounds * texts.length];
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long sink = 0;
+        long bytes0 = threads.getCurrentThreadAllocatedBytes();
+        long t0 = System.nanoTime();
+        int k = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String t : texts) {
+                long s = System.nanoTime();
+                sink += op.apply(t);
+                nanos[k++] = System.nanoTime() - s;
+            }
+        }
+        long total = System.nanoTime() - t0;
+        long bytes = threads.getCurrentThreadAllocatedBytes() - bytes0;
+        blackhole = sink;
+        if (!report) return;
+        Arrays.sort(nanos);
+        System.out.printf("%-18s %9d %9d %9d %12.0f %10.1f%n", name, nanos[k / 2], nanos[(int) (k * 0.99)],
+                nanos[k - 1], k / (total / 1e9), bytes / (double) k);
+    }
+}
@@ -0,0 +1,364 @@
+package com.sam.voice;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * The assistant's commands, compiled once into a token trie and matched in one pass over the
+ * words of an utterance.
+ *
+ * A pattern is a sequence of words matched against the start of the utterance; whatever
+ * follows is ignored, or captured when the pattern ends in a {@code {slot}}. A {@code *}
+ * matches any number of words, so {@code "* open notepad"} finds the phrase anywhere. Intents
+ * are tried in registration order, as an if/else chain would: the first registered intent
+ * with a matching pattern wins, and among its patterns the one with the most words, so
+ * "search for x" captures "x" rather than "for x". Unmatched text goes to the fallback.
+ *
+ * Matching walks the set of live trie nodes word by word and stops as soon as no live node
+ * can still reach an intent registered before the best one found. The same test makes a
+ * match on a partial hypothesis <em>decided</em>: no further words can change it. An intent
+ * marked early runs as soon as it is decided on a partial result, before the end of the
+ * utterance; an intent with a prefetch hook gets its slot once a partial has been heard
+ * twice unchanged, so a lookup can start while the user is still finishing.
+ */
+public final class IntentMatcher implements SpeechPipeline.Commands {
+    private static final int NONE = -1;
+
+    /** Collects intents in priority order. */
+    public static final class Builder {
+        private final List<Intent> intents = new ArrayList<>();
+        private final List<String[]> patterns = new ArrayList<>();  // {intent index, pattern}
+        private Consumer<String> fallback = text -> { };
+
+        /**
+         * @param action   gets the slot text, or "" for a pattern without one
+         * @param early    may run on a decided partial result; only for patterns without a slot
+         */
+        public Builder intent(String name, boolean early, Consumer<String> action, String... patterns) {
+            return intent(name, early, action, null, patterns);
+        }
+
+        /** @param prefetch gets a likely slot value from partial results, or null */
+        public Builder intent(String name, boolean early, Consumer<String> action, Consumer<String> prefetch,
+                              String... patterns) {
+            int index = intents.size();
+            intents.add(new Intent(name, early, action, prefetch));
+            for (String p : patterns) {
+                String[] words = p.trim().split("\\s+");
+                for (int w = 0; w < words.length; w++) {
+                    boolean slot = words[w].startsWith("{") && words[w].endsWith("}");
+                    if (slot && w != words.length - 1)
+                        throw new IllegalArgumentException(p + ": a slot must come last");
+                    if (slot && early) throw new IllegalArgumentException(name + ": an early intent cannot have a slot");
+                    if (words[w].equals("*") && w == words.length - 1)
+                        throw new IllegalArgumentException(p + ": a trailing * matches nothing more");
+                }
+                if (words[words.length - 1].startsWith("{")) intents.get(index).slotted = true;
+                this.patterns.add(new String[] {Integer.toString(index), p.trim().toLowerCase(Locale.ROOT)});
+            }
+            return this;
+        }
+
+        /** Gets the whole text of an utterance no intent matches. */
+        public Builder fallback(Consumer<String> action) {
+            fallback = action;
+            return this;
+        }
+
+        public IntentMatcher build() {
+            return new IntentMatcher(this);
+        }
+    }
+
+    private static final class Intent {
+        final String name;
+        final boolean early;
+        final Consumer<String> action, prefetch;
+        boolean slotted;  // some pattern ends in a slot
+
+        Intent(String name, boolean early, Consumer<String> action, Consumer<String> prefetch) {
+            this.name = name;
+            this.early = early;
+            this.action = action;
+            this.prefetch = prefetch;
+        }
+    }
+
+    /** Outcome of one {@link #match}, reused between calls. */
+    public static final class Match {
+        int intent = NONE;
+        int words;           // literal words of the winning pattern
+        int slotStart = -1;  // offset in the text, -1 without a slot
+        boolean decided;
+        private CharSequence text;
+
+        public boolean matched() {
+            return intent != NONE;
+        }
+
+        /** Whether no further words can change the match. */
+        public boolean decided() {
+            return decided;
+        }
+
+        /** The captured slot, trimmed, or "" without one. */
+        public String slot() {
+            if (slotStart < 0 || slotStart >= text.length()) return "";
+            return text.subSequence(slotStart, text.length()).toString().trim();
+        }
+    }
+
+    private final Intent[] intents;
+    private final Consumer<String> fallback;
+    // vocabulary: open addressing over the pattern words
+    private final String[] vocab;
+    private final int[] vocabId;
+    // trie, one entry per node; children of a node sorted by word id in edgeWord/edgeTarget
+    private final int[] edgeFrom, edgeWord, edgeTarget;
+    private final int[] starChild;   // node reached by a *, or NONE
+    private final boolean[] star;    // a * node: stays live on any word
+    private final int[] accept;      // intent whose pattern ends here, or NONE
+    private final int[] acceptWords;
+    private final boolean[] acceptSlot;
+    private final int[] reach;       // first intent reachable from the node, itself included
+    // match state, reused; recognizer thread only for onPartial
+    private int[] live, nextLive, seen;
+    private int generation;
+    private final Match partialMatch = new Match();
+    private final StringBuilder lastPartial = new StringBuilder();
+    private String lastPrefetch = "";
+    private int partialRepeats;
+
+    private IntentMatcher(Builder b) {
+        intents = b.intents.toArray(new Intent[0]);
+        fallback = b.fallback;
+        Map<String, Integer> words = new HashMap<>();
+        // mutable trie: children by word id, node 0 the root
+        List<TreeMap<Integer, Integer>> children = new ArrayList<>();
+        List<int[]> info = new ArrayList<>();  // {starChild, star, accept, acceptWords, acceptSlot}
+        children.add(new TreeMap<>());
+        info.add(new int[] {NONE, 0, NONE, 0, 0});
+        for (String[] p : b.patterns) {
+            int intent = Integer.parseInt(p[0]);
+            int node = 0, literal = 0;
+            boolean slot = false;
+            for (String w : p[1].split("\\s+")) {
+                if (w.startsWith("{")) {
+                    slot = true;
+                    break;
+                }
+                int child;
+                if (w.equals("*")) {
+                    child = info.get(node)[0];
+                    if (child == NONE) {
+                        child = children.size();
+                        children.add(new TreeMap<>());
+                        info.add(new int[] {NONE, 1, NONE, 0, 0});
+                        info.get(node)[0] = child;
+                    }
+                } else {
+                    literal++;
+                    int id = words.computeIfAbsent(w, k -> words.size());
+                    Integer c = children.get(node).get(id);
+                    if (c == null) {
+                        c = children.size();
+                        children.add(new TreeMap<>());
+                        info.add(new int[] {NONE, 0, NONE, 0, 0});
+                        children.get(node).put(id, c);
+                    }
+                    child = c;
+                }
+                node = child;
+            }
+            int[] n = info.get(node);
+            // first registered intent wins a node; within it, the pattern with more words
+            if (n[2] == NONE || intent < n[2] || intent == n[2] && literal > n[3]) {
+                n[2] = intent;
+                n[3] = literal;
+                n[4] = slot ? 1 : 0;
+            }
+        }
+
+        int nodes = children.size();
+        starChild = new int[nodes];
+        star = new boolean[nodes];
+        accept = new int[nodes];
+        acceptWords = new int[nodes];
+        acceptSlot = new boolean[nodes];
+        edgeFrom = new int[nodes + 1];
+        int edges = 0;
+        for (TreeMap<Integer, Integer> c : children) edges += c.size();
+        edgeWord = new int[edges];
+        edgeTarget = new int[edges];
+        int e = 0;
+        for (int n = 0; n < nodes; n++) {
+            int[] in = info.get(n);
+            starChild[n] = in[0];
+            star[n] = in[1] == 1;
+            accept[n] = in[2];
+            acceptWords[n] = in[3];
+            acceptSlot[n] = in[4] == 1;
+            edgeFrom[n] = e;
+            for (Map.Entry<Integer, Integer> c : children.get(n).entrySet()) {
+                edgeWord[e] = c.getKey();
+                edgeTarget[e++] = c.getValue();
+            }
+        }
+        edgeFrom[nodes] = e;
+        // children are always created after their parent, so a reverse sweep sees them first
+        reach = new int[nodes];
+        for (int n = nodes - 1; n >= 0; n--) {
+            int r = accept[n] == NONE ? Integer.MAX_VALUE : accept[n];
+            for (int k = edgeFrom[n]; k < edgeFrom[n + 1]; k++) r = Math.min(r, reach[edgeTarget[k]]);
+            if (starChild[n] != NONE) r = Math.min(r, reach[starChild[n]]);
+            reach[n] = r;
+        }
+
+        int cap = Integer.highestOneBit(Math.max(4, words.size() * 2) - 1) << 1;
+        vocab = new String[cap];
+        vocabId = new int[cap];
+        for (Map.Entry<String, Integer> w : words.entrySet()) {
+            int h = hash(w.getKey(), 0, w.getKey().length()) & (cap - 1);
+            while (vocab[h] != null) h = (h + 1) & (cap - 1);
+            vocab[h] = w.getKey();
+            vocabId[h] = w.getValue();
+        }
+        live = new int[nodes];
+        nextLive = new int[nodes];
+        seen = new int[nodes];
+    }
+
+    public int intents() {
+        return intents.length;
+    }
+
+    public String name(Match m) {
+        return m.matched() ? intents[m.intent].name : null;
+    }
+
+    private static int hash(CharSequence s, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; i++) h = 31 * h + s.charAt(i);
+        return h ^ (h >>> 16);
+    }
+
+    // word id of s[from, to), or NONE for a word no pattern uses
+    private int word(CharSequence s, int from, int to) {
+        int mask = vocab.length - 1;
+        for (int h = hash(s, from, to) & mask; vocab[h] != null; h = (h + 1) & mask) {
+            String w = vocab[h];
+            if (w.length() != to - from) continue;
+            int i = 0;
+            while (i < w.length() && w.charAt(i) == s.charAt(from + i)) i++;
+            if (i == w.length()) return vocabId[h];
+        }
+        return NONE;
+    }
+
+    /**
+     * Matches lower-case, space-separated words. Not thread-safe: one thread per matcher, the
+     * recognizer thread in the pipeline.
+     */
+    public Match match(CharSequence text, Match out) {
+        out.intent = NONE;
+        out.words = 0;
+        out.slotStart = -1;
+        out.text = text;
+        int n = 0;
+        generation++;
+        n = add(live, n, 0, out, 0);
+        int i = 0, len = text.length();
+        while (n > 0 && !done(live, n, out)) {
+            while (i < len && text.charAt(i) == ' ') i++;
+            if (i == len) break;
+            int from = i;
+            while (i < len && text.charAt(i) != ' ') i++;
+            int w = word(text, from, i);
+            generation++;
+            int m = 0;
+            for (int k = 0; k < n; k++) {
+                int node = live[k];
+                if (star[node]) m = add(nextLive, m, node, out, i);
+                if (w == NONE) continue;
+                int lo = edgeFrom[node], hi = edgeFrom[node + 1] - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (edgeWord[mid] < w) lo = mid + 1;
+                    else if (edgeWord[mid] > w) hi = mid - 1;
+                    else {
+                        m = add(nextLive, m, edgeTarget[mid], out, i);
+                        break;
+                    }
+                }
+            }
+            int[] t = live;
+            live = nextLive;
+            nextLive = t;
+            n = m;
+        }
+        out.decided = out.matched() && done(live, n, out);
+        return out;
+    }
+
+    // adds node and the * node below it, recording an accept; `at` is the offset after the word
+    private int add(int[] set, int n, int node, Match out, int at) {
+        for (; node != NONE; node = starChild[node]) {
+            if (seen[node] == generation) continue;
+            seen[node] = generation;
+            int a = accept[node];
+            if (a != NONE && (!out.matched() || a < out.intent || a == out.intent && acceptWords[node] > out.words)) {
+                out.intent = a;
+                out.words = acceptWords[node];
+                out.slotStart = acceptSlot[node] ? at : -1;
+            }
+            set[n++] = node;
+        }
+        return n;
+    }
+
+    // nothing live can reach an intent before the current best, nor another slot for it
+    private boolean done(int[] set, int n, Match out) {
+        if (!out.matched()) return false;
+        boolean slotted = intents[out.intent].slotted;
+        for (int k = 0; k < n; k++) {
+            int r = reach[set[k]];
+            if (r < out.intent || r == out.intent && slotted) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Runnable onFinal(String text) {
+        lastPartial.setLength(0);
+        lastPrefetch = "";
+        Match m = match(text, new Match());
+        if (!m.matched()) return () -> fallback.accept(text);
+        Consumer<String> action = intents[m.intent].action;
+        String slot = m.slot();
+        return () -> action.accept(slot);
+    }
+
+    @Override
+    public Runnable onPartial(CharSequence partial) {
+        if (CharSequence.compare(lastPartial, partial) == 0) {
+            partialRepeats++;
+        } else {
+            lastPartial.setLength(0);
+            lastPartial.append(partial);
+            partialRepeats = 1;
+        }
+        Match m = match(partial, partialMatch);
+        if (!m.matched()) return null;
+        Intent intent = intents[m.intent];
+        if (intent.early) return m.decided() ? () -> intent.action.accept("") : null;
+        // a prefetch is only a guess, so it need not wait for the match to be decided
+        if (intent.prefetch != null && partialRepeats == 2 && m.slotStart >= 0) {
+            String slot = m.slot();
+            if (!slot.isEmpty() && !slot.equals(lastPrefetch)) {
+                lastPrefetch = slot;
+                intent.prefetch.accept(slot);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,468 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable snapshot of the chatbot corpus that supports cheap incremental updates.
+ *
+ * A snapshot is a {@link ChatIndex} base (built in heap or mapped from disk) plus a small
+ * delta: entries appended since the base was built, tombstones for removed entries and
+ * the resulting document-frequency adjustments. Snapshots derived from one another share the
+ * delta instead of copying it. Appended entries, the terms first seen in them and their
+ * postings go to append-only storage that each snapshot reads up to its own counts only.
+ * Tombstones and df adjustments are chunked: {@link #apply} copies the chunks a change touches
+ * and the table of chunk references, one reference per 4096 docs and per 256 terms. An update
+ * therefore costs time proportional to the change plus that small table, however large the
+ * delta has grown. Once the delta passes a fraction of the base, {@link #apply} folds
+ * everything into a fresh base; that rebuild is linear in the corpus and comes once per
+ * fraction-of-the-corpus changes, so it adds a constant per change on average.
+ *
+ * With a non-empty delta, IDF is taken from the live document frequencies and document norms
+ * are computed from the forward lists on first use, so scores agree with a full rebuild of the
+ * live corpus up to rounding: a rebuild numbers the terms in another order and so adds up their
+ * weights in another order, which can change the last bits and break exact ties differently.
+ * With an empty delta queries go straight to the base.
+ */
+public class LiveIndex implements Tokenizer.TermLookup {
+    // compact once delta docs + tombstones exceed max(MIN_COMPACT, base size / COMPACT_RATIO)
+    private static final int MIN_COMPACT = 1024;
+    private static final int COMPACT_RATIO = 8;
+    // tombstone chunks of 64 words (4096 docs), df chunks of 256 terms
+    private static final int DEL_SHIFT = 12, DEL_WORDS = 1 << (DEL_SHIFT - 6);
+    private static final int DF_SHIFT = 8, DF_CHUNK = 1 << DF_SHIFT;
+    private static final VarHandle NORM = MethodHandles.arrayElementVarHandle(double[].class);
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final ChatIndex base;
+    private final int baseSize;
+    private final int baseVocab;
+    // appended entries are doc ids baseSize .. baseSize + docCount - 1 and new terms ids
+    // baseVocab .. baseVocab + termCount - 1; the delta may already hold more, for later snapshots
+    private final Delta delta;
+    private final int docCount;
+    private final int termCount;
+    // chunk i covers docs from i << DEL_SHIFT; a null chunk, or none, means no removals there
+    private final long[][] deleted;
+    private final int deletedCount;
+    // df change relative to the base, chunk i covering terms from i << DF_SHIFT; null = none
+    private final int[][] dfDelta;
+
+    // lazily filled document norms under the live IDF; 0 means not yet computed
+    private volatile double[] normCache;
+
+    private LiveIndex(ChatIndex base, Delta delta, int docCount, int termCount, long[][] deleted, int deletedCount,
+                      int[][] dfDelta) {
+        this.base = base;
+        this.baseSize = base.size();
+        this.baseVocab = base.vocabSize();
+        this.delta = delta;
+        this.docCount = docCount;
+        this.termCount = termCount;
+        this.deleted = deleted;
+        this.deletedCount = deletedCount;
+        this.dfDelta = dfDelta;
+    }
+
+    /**
+     * Entries and terms appended on top of one base, shared by the snapshots derived from each
+     * other. It only grows, by {@link #apply} under its lock, and a snapshot reads no further
+     * than its own counts. Full arrays are replaced by larger copies published through volatile
+     * fields, so a reader holding an older array still finds its own prefix there.
+     */
+    private static final class Delta {
+        volatile String[] questions = new String[16], answers = new String[16];
+        volatile int[][] terms = new int[16][], tfs = new int[16][];
+        int docs;
+        // terms first seen in the delta, by id; slots hold id + 1, 0 = empty, stored with release
+        volatile String[] termText = new String[16];
+        volatile int[] slots = new int[32];
+        int termCount;
+        // term -> delta doc offsets containing it
+        final Map<Integer, Postings> postings = new ConcurrentHashMap<>();
+
+        // a delta with just what s sees, for applying changes to a snapshot that is not the latest
+        static Delta of(LiveIndex s) {
+            Delta d = new Delta();
+            String[] text = s.delta.termText;
+            for (int i = 0; i < s.termCount; i++) d.add(text[i]);
+            for (int j = 0; j < s.docCount; j++) {
+                d.append(s.delta.questions[j], s.delta.answers[j], s.delta.terms[j], s.delta.tfs[j]);
+            }
+            return d;
+        }
+
+        void append(String question, String answer, int[] ts, int[] fs) {
+            int j = docs;
+            if (j == questions.length) {
+                terms = Arrays.copyOf(terms, j * 2);
+                tfs = Arrays.copyOf(tfs, j * 2);
+                answers = Arrays.copyOf(answers, j * 2);
+                questions = Arrays.copyOf(questions, j * 2);
+            }
+            questions[j] = question;
+            answers[j] = answer;
+            terms[j] = ts;
+            tfs[j] = fs;
+            for (int t : ts) postings.computeIfAbsent(t, k -> new Postings()).add(j);
+            docs = j + 1;
+        }
+
+        // id of a term first seen in the delta, or -1; safe while apply adds terms
+        int lookup(char[] buf, int off, int len) {
+            int[] s = slots;
+            int mask = s.length - 1;
+            for (int slot = TermDictionary.hash(buf, off, len) & mask, e;
+                 (e = (int) SLOT.getAcquire(s, slot)) != 0; slot = (slot + 1) & mask) {
+                if (same(termText[e - 1], buf, off, len)) return e - 1;
+            }
+            return -1;
+        }
+
+        int intern(char[] buf, int off, int len) {
+            int id = lookup(buf, off, len);
+            return id >= 0 ? id : add(new String(buf, off, len));
+        }
+
+        private int add(String term) {
+            int id = termCount;
+            if (id == termText.length) termText = Arrays.copyOf(termText, id * 2);
+            termText[id] = term;
+            int[] s = slots;
+            int mask = s.length - 1, slot = TermDictionary.spread(term.hashCode()) & mask;
+            while (s[slot] != 0) slot = (slot + 1) & mask;
+            SLOT.setRelease(s, slot, id + 1);
+            termCount = id + 1;
+            if (termCount * 2 > s.length) {
+                int[] next = new int[s.length * 2];
+                mask = next.length - 1;
+                for (int i = 0; i < termCount; i++) {
+                    slot = TermDictionary.spread(termText[i].hashCode()) & mask;
+                    while (next[slot] != 0) slot = (slot + 1) & mask;
+                    next[slot] = i + 1;
+                }
+                slots = next;
+            }
+            return id;
+        }
+
+        private static boolean same(String term, char[] buf, int off, int len) {
+            if (term.length() != len) return false;
+            for (int i = 0; i < len; i++) if (term.charAt(i) != buf[off + i]) return false;
+            return true;
+        }
+    }
+
+    // ascending delta doc offsets of one term; size is written after the entry it covers
+    private static final class Postings {
+        volatile int[] docs = new int[2];
+        volatile int size;
+
+        void add(int off) {
+            int n = size;
+            int[] d = docs;
+            // entries left by an apply that failed half way are overwritten
+            while (n > 0 && d[n - 1] >= off) n--;
+            if (n == d.length) docs = d = Arrays.copyOf(d, n * 2);
+            d[n] = off;
+            size = n + 1;
+        }
+    }
+
+    public static LiveIndex of(ChatIndex base) {
+        return new LiveIndex(base, new Delta(), 0, 0, new long[0][], 0, new int[0][]);
+    }
+
+    /** The base index; equal to the whole snapshot when {@link #isCompact()}. */
+    public ChatIndex base() {
+        return base;
+    }
+
+    /** True when there are no pending appends or removals on top of the base. */
+    public boolean isCompact() {
+        return docCount == 0 && deletedCount == 0;
+    }
+
+    /** Size of the doc id space, including removed entries. */
+    public int size() {
+        return baseSize + docCount;
+    }
+
+    /** Number of entries that can still be returned. */
+    public int liveSize() {
+        return size() - deletedCount;
+    }
+
+    public boolean isLive(int doc) {
+        return doc >= 0 && doc < size() && !removed(doc);
+    }
+
+    private boolean removed(int doc) {
+        int c = doc >>> DEL_SHIFT;
+        long[] words = c < deleted.length ? deleted[c] : null;
+        return words != null && (words[(doc >>> 6) & (DEL_WORDS - 1)] & (1L << doc)) != 0;
+    }
+
+    public String question(int doc) {
+        return doc < baseSize ? base.question(doc) : delta.questions[doc - baseSize];
+    }
+
+    public String answer(int doc) {
+        return doc < baseSize ? base.answer(doc) : delta.answers[doc - baseSize];
+    }
+
+    @Override
+    public int id(char[] buf, int off, int len) {
+        int id = base.termId(buf, off, len);
+        if (id >= 0 || termCount == 0) return id;
+        int j = delta.lookup(buf, off, len);
+        return j < 0 || j >= termCount ? -1 : baseVocab + j;
+    }
+
+    private int liveDf(int term) {
+        int df = term < baseVocab ? base.df(term) : 0;
+        int c = term >>> DF_SHIFT;
+        int[] adj = c < dfDelta.length ? dfDelta[c] : null;
+        return adj == null ? df : df + adj[term & (DF_CHUNK - 1)];
+    }
+
+    double idf(int term) {
+        return Math.log((liveSize() + 1.0) / (liveDf(term) + 1.0)) + 1.0;
+    }
+
+    double norm(int doc) {
+        if (isCompact()) return base.norms.get(doc);
+        double[] cache = normCache;
+        if (cache == null) normCache = cache = new double[size()];
+        double n = (double) NORM.getOpaque(cache, doc);
+        if (n != 0) return n;
+        double sq = 0;
+        if (doc < baseSize) {
+            for (int p = base.docStart.get(doc), end = base.docStart.get(doc + 1); p < end; p++) {
+                double w = base.docTfs.get(p) * idf(base.docTerms.get(p));
+                sq += w * w;
+            }
+        } else {
+            int[] ts = delta.terms[doc - baseSize], tfs = delta.tfs[doc - baseSize];
+            for (int i = 0; i < ts.length; i++) {
+                double w = tfs[i] * idf(ts[i]);
+                sq += w * w;
+            }
+        }
+        n = Math.sqrt(sq);
+        NORM.setOpaque(cache, doc, n);
+        return n;
+    }
+
+    /** Distinct in-vocabulary query terms in ascending order with their TF-IDF weights. */
+    static final class Query {
+        final int[] terms;
+        final double[] idf;
+        final double[] weights;
+        final double norm;
+
+        Query(int[] terms, double[] idf, double[] weights, double norm) {
+            this.terms = terms; this.idf = idf; this.weights = weights; this.norm = norm;
+        }
+    }
+
+    Query parse(String input) {
+        int[][] q = new int[1][], qtf = new int[1][];
+        Tokenizer tk = Tokenizer.get();
+        int n = tk.tokenize(input, this);
+        int[] ids = tk.ids();
+        int len = 0;
+        for (int i = 0; i < n; i++) {
+            // a term whose every question was removed is no longer in the vocabulary
+            if (liveDf(ids[i]) > 0) ids[len++] = ids[i];
+        }
+        ChatIndex.countTerms(ids, len, q, qtf, 0);
+        int[] terms = q[0], tfs = qtf[0];
+
+        double qsq = 0;
+        double[] qw = new double[terms.length], tidf = new double[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            tidf[i] = idf(terms[i]);
+            qw[i] = tfs[i] * tidf[i];
+            qsq += qw[i] * qw[i];
+        }
+        return new Query(terms, tidf, qw, Math.sqrt(qsq));
+    }
+
+    /** Term ids of a document, ascending. */
+    int[] termsOf(int doc) {
+        if (doc >= baseSize) return delta.terms[doc - baseSize];
+        int from = base.docStart.get(doc);
+        int[] out = new int[base.docStart.get(doc + 1) - from];
+        base.docTerms.get(from, out);
+        return out;
+    }
+
+    /** Term frequencies of a document, parallel to {@link #termsOf}. */
+    int[] tfsOf(int doc) {
+        if (doc >= baseSize) return delta.tfs[doc - baseSize];
+        int from = base.docStart.get(doc);
+        int[] out = new int[base.docStart.get(doc + 1) - from];
+        base.docTfs.get(from, out);
+        return out;
+    }
+
+    /**
+     * Cosine of the query against one document. Summation follows ascending term order, so the
+     * result is bit-identical to the score {@link #search} gives the same document.
+     */
+    double score(Query q, int doc) {
+        double dot = 0;
+        int i = 0;
+        if (doc < baseSize) {
+            for (int p = base.docStart.get(doc), end = base.docStart.get(doc + 1); p < end && i < q.terms.length; p++) {
+                int t = base.docTerms.get(p);
+                while (i < q.terms.length && q.terms[i] < t) i++;
+                if (i < q.terms.length && q.terms[i] == t) { dot += q.weights[i] * (base.docTfs.get(p) * q.idf[i]); i++; }
+            }
+        } else {
+            int[] ts = delta.terms[doc - baseSize], tfs = delta.tfs[doc - baseSize];
+            for (int p = 0; p < ts.length && i < q.terms.length; p++) {
+                while (i < q.terms.length && q.terms[i] < ts[p]) i++;
+                if (i < q.terms.length && q.terms[i] == ts[p]) { dot += q.weights[i] * (tfs[p] * q.idf[i]); i++; }
+            }
+        }
+        double denom = q.norm * norm(doc);
+        return denom == 0 ? 0.0 : dot / denom;
+    }
+
+    /**
+     * Returns up to k live entries with a positive cosine score against the query, best first;
+     * equal scores are ordered by doc id.
+     */
+    public List<ChatIndex.Hit> search(String input, int k) {
+        if (isCompact()) return base.search(input, k);
+        Query query = parse(input);
+        int[] terms = query.terms;
+        double[] qw = query.weights, tidf = query.idf;
+        double qnorm = query.norm;
+        if (qnorm == 0 || k <= 0) return Collections.emptyList();
+
+        ChatIndex.Scratch scratch = ChatIndex.scratch(size());
+        double[] acc = scratch.acc, scores = scratch.scores;
+        int[] touched = scratch.touched;
+        int nTouched = 0;
+        int[][] dTerms = delta.terms, dTfs = delta.tfs;
+        for (int i = 0; i < terms.length; i++) {
+            int t = terms[i];
+            if (t < baseVocab) {
+                for (int p = base.postStart.get(t), end = base.postStart.get(t + 1); p < end; p++) {
+                    int d = base.postDocs.get(p);
+                    if (removed(d)) continue;
+                    if (acc[d] == 0) touched[nTouched++] = d;
+                    acc[d] += qw[i] * (base.postTf.get(p) * tidf[i]);
+                }
+            }
+            Postings dp = docCount == 0 ? null : delta.postings.get(t);
+            if (dp == null) continue;
+            int n = dp.size;
+            int[] offs = dp.docs;
+            for (int j = 0; j < n && offs[j] < docCount; j++) {
+                int off = offs[j], d = baseSize + off;
+                if (removed(d)) continue;
+                int[] ts = dTerms[off];
+                double tf = dTfs[off][Arrays.binarySearch(ts, t)];
+                if (acc[d] == 0) touched[nTouched++] = d;
+                acc[d] += qw[i] * (tf * tidf[i]);
+            }
+        }
+        for (int i = 0; i < nTouched; i++) {
+            int d = touched[i];
+            double denom = qnorm * norm(d);
+            scores[i] = denom == 0 ? 0.0 : acc[d] / denom;
+            acc[d] = 0;
+        }
+        return ChatIndex.topK(touched, scores, nTouched, k, this::answer);
+    }
+
+    /**
+     * Returns a new snapshot with the given (already lowercased question, answer) pairs appended
+     * and the given doc ids removed. This snapshot is left untouched. Applied to a snapshot that
+     * others have since been derived from, it first copies the delta as this one sees it.
+     */
+    public LiveIndex apply(List<String[]> adds, int[] removes) {
+        synchronized (delta) {
+            Delta d = delta.docs == docCount && delta.termCount == termCount ? delta : Delta.of(this);
+            Tokenizer.TermLookup intern = (buf, off, len) -> {
+                int id = base.termId(buf, off, len);
+                return id >= 0 ? id : baseVocab + d.intern(buf, off, len);
+            };
+            Tokenizer tk = Tokenizer.get();
+            int[][] terms = new int[adds.size()][], tfs = new int[adds.size()][];
+            for (int j = 0; j < adds.size(); j++) {
+                int len = tk.tokenize(adds.get(j)[0], intern);
+                ChatIndex.countTerms(tk.ids(), len, terms, tfs, j);
+            }
+
+            long[][] del = deleted;
+            int delCount = deletedCount;
+            int[][] df = dfDelta;
+            if (!adds.isEmpty() || removes.length > 0) {
+                df = Arrays.copyOf(dfDelta, (baseVocab + d.termCount + DF_CHUNK - 1) >>> DF_SHIFT);
+            }
+            if (removes.length > 0) {
+                del = Arrays.copyOf(deleted, (size() + (1 << DEL_SHIFT) - 1) >>> DEL_SHIFT);
+                for (int doc : removes) {
+                    if (doc < 0 || doc >= size() || !tombstone(del, doc)) continue;
+                    delCount++;
+                    if (doc < baseSize) {
+                        for (int p = base.docStart.get(doc), end = base.docStart.get(doc + 1); p < end; p++) {
+                            adjustDf(df, base.docTerms.get(p), -1);
+                        }
+                    } else {
+                        for (int t : d.terms[doc - baseSize]) adjustDf(df, t, -1);
+                    }
+                }
+            }
+            for (int j = 0; j < adds.size(); j++) {
+                for (int t : terms[j]) adjustDf(df, t, 1);
+                d.append(adds.get(j)[0], adds.get(j)[1], terms[j], tfs[j]);
+            }
+
+            LiveIndex next = new LiveIndex(base, d, d.docs, d.termCount, del, delCount, df);
+            int pending = next.docCount + next.deletedCount;
+            return pending > Math.max(MIN_COMPACT, baseSize / COMPACT_RATIO) ? next.compact() : next;
+        }
+    }
+
+    // sets doc's tombstone in table, first copying a chunk still shared with this snapshot;
+    // false if it was set already
+    private boolean tombstone(long[][] table, int doc) {
+        int c = doc >>> DEL_SHIFT;
+        long[] words = table[c];
+        if (words == null || c < deleted.length && words == deleted[c]) {
+            table[c] = words = words == null ? new long[DEL_WORDS] : words.clone();
+        }
+        int w = (doc >>> 6) & (DEL_WORDS - 1);
+        if ((words[w] & (1L << doc)) != 0) return false;
+        words[w] |= 1L << doc;
+        return true;
+    }
+
+    // adds change to term's df adjustment in table, first copying a chunk still shared with this snapshot
+    private void adjustDf(int[][] table, int term, int change) {
+        int c = term >>> DF_SHIFT;
+        int[] adj = table[c];
+        if (adj == null || c < dfDelta.length && adj == dfDelta[c]) {
+            table[c] = adj = adj == null ? new int[DF_CHUNK] : adj.clone();
+        }
+        adj[term & (DF_CHUNK - 1)] += change;
+    }
+
+    /** Folds the delta into a freshly built base; live entries keep their relative order. */
+    public LiveIndex compact() {
+        if (isCompact()) return this;
+        List<String> docs = new ArrayList<>(liveSize()), answers = new ArrayList<>(liveSize());
+        for (int d = 0; d < size(); d++) {
+            if (!isLive(d)) continue;
+            docs.add(question(d));
+            answers.add(answer(d));
+        }
+        return of(TfIdfIndex.build(docs, answers));
+    }
+}
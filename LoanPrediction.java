@@ -1,3 +1,6 @@
+import com.sam.metrics.Metrics;
+import com.sam.metrics.Stage;
+import com.sam.metrics.Trace;
 import weka.core.Instances;
 import weka.core.converters.ConverterUtils.DataSource;
 import weka.filters.Filter;
@@ -6,53 +9,111 @@ import weka.filters.unsupervised.attribute.StringToNominal;
 import weka.classifiers.Classifier;
 import weka.classifiers.trees.RandomForest;
 import weka.classifiers.Evaluation;
+import weka.core.SerializationHelper;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.util.Random;
 import java.io.ObjectOutputStream;
 import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 
 public class LoanPrediction {
+    private static final Stage LOAD = Metrics.stage("loan.load", "CSV load, preprocessing and split");
+    private static final Stage SELECT = Metrics.stage("loan.select", "forest parameter search by cross-validation");
+    private static final Stage TRAIN = Metrics.stage("loan.train", "random forest training");
+    private static final Stage EVALUATE = Metrics.stage("loan.evaluate", "evaluation on the test split");
+    private static final Stage COMPILE = Metrics.stage("loan.compile", "forest compilation and check");
+
+    // [--select[=random:N]] [--folds=K]: pick the forest's parameters by cross-validation first
+    // [--columnar]: load through ColumnTable instead of DataSource and the two filters
     public static void main(String[] args) throws Exception {
         String csvFile = "loan_data.csv"; // path to CSV
-        // Load CSV
-        DataSource source = new DataSource(csvFile);
-        Instances data = source.getDataSet();
+        String select = null;
+        int folds = 5;
+        boolean columnar = false;
+        for (String a : args) {
+            if (a.equals("--columnar")) columnar = true;
+            else if (a.equals("--select")) select = "grid";
+            else if (a.startsWith("--select=")) select = a.substring("--select=".length());
+            else if (a.startsWith("--folds=")) folds = Integer.parseInt(a.substring("--folds=".length()));
+        }
+        Trace trace = Trace.begin("loan.prediction");
+        Instances train, test;
+        Object[] prep;
+        long t = LOAD.start();
+        if (columnar) {
+            // Stream the CSV into imputed columns; only the train and test rows become Instances
+            ColumnTable table = ColumnTable.read(Paths.get(csvFile));
+            ColumnTable.View[] split = table.split(0.8, 1);
+            train = split[0].toInstances();
+            test = split[1].toInstances();
+            prep = new Object[] {table.header(), table.fill()};
+        } else {
+            // Load CSV
+            DataSource source = new DataSource(csvFile);
+            Instances data = source.getDataSet();
 
-        // Ensure class index is last column
-        if (data.classIndex() == -1)
-            data.setClassIndex(data.numAttributes() - 1);
+            // Ensure class index is last column
+            if (data.classIndex() == -1)
+                data.setClassIndex(data.numAttributes() - 1);
 
-        // Convert string attributes to nominal (if any)
-        StringToNominal stn = new StringToNominal();
-        stn.setAttributeRange("first-last");
-        stn.setInputFormat(data);
-        // You may restrict range to categorical columns only if needed.
-        Instances nominalData = Filter.useFilter(data, stn);
+            // Convert string attributes to nominal (if any)
+            StringToNominal stn = new StringToNominal();
+            stn.setAttributeRange("first-last");
+            stn.setInputFormat(data);
+            // You may restrict range to categorical columns only if needed.
+            Instances nominalData = Filter.useFilter(data, stn);
 
-        // Replace missing values
-        ReplaceMissingValues replaceMissing = new ReplaceMissingValues();
-        replaceMissing.setInputFormat(nominalData);
-        Instances clean = Filter.useFilter(nominalData, replaceMissing);
+            // Replace missing values
+            ReplaceMissingValues replaceMissing = new ReplaceMissingValues();
+            replaceMissing.setInputFormat(nominalData);
+            Instances clean = Filter.useFilter(nominalData, replaceMissing);
 
-        // Shuffle
-        clean.randomize(new Random(1));
+            // Shuffle
+            clean.randomize(new Random(1));
 
-        // Train/test split (80/20)
-        int trainSize = (int) Math.round(clean.numInstances() * 0.8);
-        int testSize = clean.numInstances() - trainSize;
-        Instances train = new Instances(clean, 0, trainSize);
-        Instances test = new Instances(clean, trainSize, testSize);
+            // Train/test split (80/20)
+            int trainSize = (int) Math.round(clean.numInstances() * 0.8);
+            int testSize = clean.numInstances() - trainSize;
+            train = new Instances(clean, 0, trainSize);
+            test = new Instances(clean, trainSize, testSize);
+            // the fitted filters and the raw header, so LoanScorer preprocesses new records the same way
+            prep = new Object[] {new Instances(data, 0), stn, replaceMissing};
+        }
+        LOAD.stop(t);
 
         // Build RandomForest
         RandomForest rf = new RandomForest();
         rf.setNumTrees(100);
+        if (select != null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            List<ForestSearch.Config> configs = select.startsWith("random:")
+                    ? ForestSearch.random(Integer.parseInt(select.substring("random:".length())), train.numAttributes() - 1, 1)
+                    : ForestSearch.grid();
+            long t0 = System.nanoTime();
+            t = SELECT.start();
+            List<ForestSearch.Result> results = new ForestSearch(train, folds, 1, cores).run(configs);
+            SELECT.stop(t);
+            System.out.printf("=== Model selection: %d configurations, %d-fold CV, %.1f s on %d cores ===%n",
+                    configs.size(), folds, (System.nanoTime() - t0) / 1e9, cores);
+            System.out.print(ForestSearch.report(results, folds));
+            // the best configuration is trained on the whole training split and saved below
+            rf = results.get(0).config.newForest(cores, 1);
+            System.out.println("Best: " + results.get(0).config);
+        }
+        t = TRAIN.start();
         rf.buildClassifier(train);
+        TRAIN.stop(t);
 
         // Evaluate
+        t = EVALUATE.start();
         Evaluation eval = new Evaluation(train);
         eval.evaluateModel(rf, test);
+        EVALUATE.stop(t);
         System.out.println("=== Evaluation ===");
         System.out.println(eval.toSummaryString());
         System.out.println("Confusion Matrix:");
@@ -69,6 +130,35 @@ public class LoanPrediction {
         oos.flush();
         oos.close();
 
-        System.out.println("Model saved to loan_rf.model");
+        SerializationHelper.writeAll("loan_rf.prep", prep);
+
+        System.out.println("Model saved to loan_rf.model, preprocessing to loan_rf.prep");
+
+        // Flatten the forest for allocation-free scoring, only if it agrees with Weka on every test record
+        t = COMPILE.start();
+        CompiledForest compiled = CompiledForest.compile(rf, train);
+        double[] dist = new double[train.numClasses()];
+        int mismatches = 0;
+        for (int i = 0; i < test.numInstances(); i++) {
+            double[] expected = rf.distributionForInstance(test.instance(i));
+            if (!Arrays.equals(expected, compiled.distribution(test.instance(i).toDoubleArray(), dist))) mismatches++;
+        }
+        COMPILE.stop(t);
+        Trace.end(trace);
+        if (mismatches > 0) {
+            System.out.println("Compiled forest differs from the model on " + mismatches + " test records; not saved");
+            return;
+        }
+        Path forestFile = Paths.get("loan_rf.forest");
+        compiled.save(forestFile);
+        long t0 = System.nanoTime();
+        SerializationHelper.read("loan_rf.model");
+        long t1 = System.nanoTime();
+        CompiledForest.load(forestFile);
+        long t2 = System.nanoTime();
+        System.out.printf("Compiled %d trees, %d nodes to loan_rf.forest (%d bytes); matches on all %d test records; "
+                        + "load %.1f ms vs %.1f ms for loan_rf.model%n",
+                compiled.trees(), compiled.nodes(), forestFile.toFile().length(), test.numInstances(),
+                (t2 - t1) / 1e6, (t1 - t0) / 1e6);
     }
 }
@@ -0,0 +1,263 @@
+import com.sam.metrics.Metrics;
+import com.sam.metrics.Stage;
+import weka.classifiers.Classifier;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.SerializationHelper;
+import weka.core.Utils;
+import weka.filters.Filter;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Scores loan applications with the forest LoanPrediction saved, preprocessed the way it was
+ * trained.
+ *
+ * The fitted StringToNominal and ReplaceMissingValues filters saved next to the model are
+ * reduced on load to a per-column table: a category maps to the index the forest was trained
+ * on, and a missing value takes the mean or mode the filters substitute. Unseen categories
+ * count as missing. Data loaded through {@link ColumnTable} saves that table directly, as the
+ * preprocessed header and the substitutes. A record is the raw CSV fields in training column order; the class column
+ * may be left off.
+ *
+ * Thread-safe. Each thread scores through its own preallocated instance, whose value array is
+ * overwritten in place; the forest only reads its trees. With a {@link CompiledForest} in place
+ * of the Weka model, single scores and batches allocate nothing per record.
+ */
+public final class LoanScorer {
+    /** Class index whose probability {@link #score} returns, as LoanPrediction's AUC uses. */
+    public static final int POSITIVE = 1;
+    private static final int LEAF_RECORDS = 256;
+    private static final Stage SCORE = Metrics.stage("loan.score", "single records scored or predicted");
+    private static final Stage SCORE_BATCH = Metrics.stage("loan.score_batch", "batches scored");
+
+    private final Classifier model;     // one of model and forest is set
+    private final CompiledForest forest;
+    private final Instances header;    // preprocessed format, class last
+    private final double[] fill;       // substitute for a missing value, per column
+    private final boolean[] nominal;
+    private final int columns;         // input columns, without the class
+    private final ThreadLocal<Scratch> scratch;
+
+    private final class Scratch {
+        final double[] values = new double[header.numAttributes()];
+        final Instance instance = new DenseInstance(1.0, values);
+        final double[] dist = new double[header.numClasses()];
+        double[][] rows;      // compiled batches, LEAF_RECORDS records at a time
+        double[] rowDist;
+
+        Scratch() {
+            instance.setDataset(header);
+        }
+    }
+
+    LoanScorer(Classifier model, CompiledForest forest, Instances header, double[] fill) {
+        this.model = model;
+        this.forest = forest;
+        this.header = new Instances(header, 0);
+        if (header.classIndex() != header.numAttributes() - 1)
+            throw new IllegalArgumentException("class must be the last attribute");
+        columns = header.numAttributes() - 1;
+        nominal = new boolean[columns];
+        for (int j = 0; j < columns; j++) {
+            Attribute a = header.attribute(j);
+            if (!a.isNominal() && !a.isNumeric())
+                throw new IllegalArgumentException("unsupported attribute type: " + a);
+            nominal[j] = a.isNominal();
+        }
+        this.fill = fill;
+        scratch = ThreadLocal.withInitial(Scratch::new);
+    }
+
+    // whatever the filters turn an all-missing record into is the per-column substitute
+    private static double[] substitutes(Instances raw, Filter stringToNominal, Filter replaceMissing) throws Exception {
+        Instance blank = new DenseInstance(raw.numAttributes());
+        blank.setDataset(raw);
+        stringToNominal.input(blank);
+        replaceMissing.input(stringToNominal.output());
+        return replaceMissing.output().toDoubleArray();
+    }
+
+    /**
+     * Loads what LoanPrediction saved, e.g. loan_rf.model or the compiled loan_rf.forest, and
+     * loan_rf.prep: either the raw header and the two fitted filters, or the preprocessed
+     * header and the substitutes.
+     */
+    public static LoanScorer load(String modelFile, String prepFile) throws Exception {
+        Classifier model = null;
+        CompiledForest forest = null;
+        if (modelFile.endsWith(".forest")) forest = CompiledForest.load(Paths.get(modelFile));
+        else model = (Classifier) SerializationHelper.read(modelFile);
+        Object[] prep = SerializationHelper.readAll(prepFile);
+        if (prep.length == 2) return new LoanScorer(model, forest, (Instances) prep[0], (double[]) prep[1]);
+        Filter replaceMissing = (Filter) prep[2];
+        return new LoanScorer(model, forest, replaceMissing.getOutputFormat(),
+                substitutes((Instances) prep[0], (Filter) prep[1], replaceMissing));
+    }
+
+    public boolean compiled() {
+        return forest != null;
+    }
+
+    /** Fields a record has without its class. */
+    public int columns() {
+        return columns;
+    }
+
+    public String columnName(int j) {
+        return header.attribute(j).name();
+    }
+
+    public String label(int classIndex) {
+        return header.classAttribute().value(classIndex);
+    }
+
+    /** Class distribution for one record. */
+    public double[] distribution(String[] fields) throws Exception {
+        return distribution(fields, scratch.get()).clone();
+    }
+
+    // the distribution lives in the thread's scratch space
+    private double[] distribution(String[] fields, Scratch s) throws Exception {
+        fillValues(fields, s.values);
+        if (forest != null) return forest.distribution(s.values, s.dist);
+        return model.distributionForInstance(s.instance);
+    }
+
+    /** Probability of the {@link #POSITIVE} class for one record. */
+    public double score(String[] fields) throws Exception {
+        long t0 = SCORE.start();
+        double p = distribution(fields, scratch.get())[POSITIVE];
+        SCORE.stop(t0);
+        return p;
+    }
+
+    /** Most probable class label for one record. */
+    public String predict(String[] fields) throws Exception {
+        long t0 = SCORE.start();
+        double[] d = distribution(fields, scratch.get());
+        int best = 0;
+        for (int c = 1; c < d.length; c++) if (d[c] > d[best]) best = c;
+        SCORE.stop(t0);
+        return label(best);
+    }
+
+    /** Positive-class probabilities for a batch, scored in parallel on the common pool. */
+    public double[] score(List<String[]> records) {
+        long t0 = SCORE_BATCH.start();
+        double[] out = new double[records.size()];
+        if (records.size() <= LEAF_RECORDS) {
+            scoreRange(records, 0, records.size(), out);
+        } else {
+            ForkJoinPool.commonPool().invoke(new BatchTask(records, 0, records.size(), out));
+        }
+        SCORE_BATCH.stop(t0);
+        return out;
+    }
+
+    @SuppressWarnings("serial")
+    private final class BatchTask extends RecursiveAction {
+        final List<String[]> records;
+        final int from, to;
+        final double[] out;
+
+        BatchTask(List<String[]> records, int from, int to, double[] out) {
+            this.records = records;
+            this.from = from;
+            this.to = to;
+            this.out = out;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_RECORDS) {
+                scoreRange(records, from, to, out);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new BatchTask(records, from, mid, out), new BatchTask(records, mid, to, out));
+        }
+    }
+
+    private void scoreRange(List<String[]> records, int from, int to, double[] out) {
+        Scratch s = scratch.get();
+        if (forest != null) {
+            scoreCompiled(records, from, to, out, s);
+            return;
+        }
+        try {
+            for (int i = from; i < to; i++) {
+                fillValues(records.get(i), s.values);
+                out[i] = model.distributionForInstance(s.instance)[POSITIVE];
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // tree by tree over up to LEAF_RECORDS records at a time
+    private void scoreCompiled(List<String[]> records, int from, int to, double[] out, Scratch s) {
+        int numClasses = header.numClasses();
+        if (s.rows == null) {
+            s.rows = new double[LEAF_RECORDS][header.numAttributes()];
+            s.rowDist = new double[LEAF_RECORDS * numClasses];
+        }
+        for (int start = from; start < to; start += LEAF_RECORDS) {
+            int n = Math.min(LEAF_RECORDS, to - start);
+            for (int r = 0; r < n; r++) fillValues(records.get(start + r), s.rows[r]);
+            forest.distributions(s.rows, n, s.rowDist);
+            for (int r = 0; r < n; r++) out[start + r] = s.rowDist[r * numClasses + POSITIVE];
+        }
+    }
+
+    // raw fields -> preprocessed values, class left missing
+    private void fillValues(String[] fields, double[] values) {
+        if (fields.length != columns && fields.length != columns + 1)
+            throw new IllegalArgumentException("expected " + columns + " fields, got " + fields.length);
+        for (int j = 0; j < columns; j++) {
+            String f = fields[j].trim();
+            double v;
+            if (f.isEmpty() || f.equals("?")) {
+                v = fill[j];
+            } else if (nominal[j]) {
+                int idx = header.attribute(j).indexOfValue(f);
+                v = idx < 0 ? fill[j] : idx;
+            } else {
+                try {
+                    v = Double.parseDouble(f);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(columnName(j) + ": not a number: " + f);
+                }
+            }
+            values[j] = v;
+        }
+        values[columns] = Utils.missingValue();
+    }
+
+    /** Splits a CSV line into fields, dropping the quotes around quoted fields. */
+    public static String[] fields(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') { cur.append('"'); i++; }
+                else quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                out.add(cur.toString());
+                cur.setLength(0);
+            } else {
+                cur.append(c);
+            }
+        }
+        out.add(cur.toString());
+        return out.toArray(new String[0]);
+    }
+}
@@ -0,0 +1,161 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-running front end for {@link LoanScorer}, so a batch of applications no longer costs a
+ * JVM start and a model load.
+ *
+ * HTTP mode listens on the loopback interface only. POST /score takes one CSV record per line
+ * (training column order, class optional) and answers one "label,probability" line per record;
+ * a multi-line body is scored as a batch. GET /stats reports request count and latency
+ * percentiles. Stdin mode reads records line by line, writes one answer line each, and prints
+ * the latency summary to stderr at end of input.
+ *
+ * Usage: java LoanService [--port=N | --stdin] [--threads=N] [model|forest] [prep]
+ */
+public class LoanService {
+    public static void main(String[] args) throws Exception {
+        int port = 8080;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean stdin = false;
+        List<String> files = new ArrayList<>();
+        for (String a : args) {
+            if (a.equals("--stdin")) stdin = true;
+            else if (a.startsWith("--port=")) port = Integer.parseInt(a.substring("--port=".length()));
+            else if (a.startsWith("--threads=")) threads = Integer.parseInt(a.substring("--threads=".length()));
+            else files.add(a);
+        }
+        long t0 = System.nanoTime();
+        // the compiled forest when LoanPrediction wrote one
+        String model = files.size() > 0 ? files.get(0)
+                : new File("loan_rf.forest").exists() ? "loan_rf.forest" : "loan_rf.model";
+        LoanScorer scorer = LoanScorer.load(model, files.size() > 1 ? files.get(1) : "loan_rf.prep");
+        System.err.printf("[LoanService] %s loaded in %.1f ms, %d input columns%n", model,
+                (System.nanoTime() - t0) / 1e6, scorer.columns());
+
+        Latencies latencies = new Latencies(1 << 16);
+        if (stdin) {
+            serveStdin(scorer, latencies);
+            System.err.println("[LoanService] " + latencies.summary());
+        } else {
+            HttpServer server = serve(scorer, latencies, port, threads);
+            System.err.printf("[LoanService] listening on http://%s:%d/score%n",
+                    server.getAddress().getHostString(), server.getAddress().getPort());
+        }
+    }
+
+    /** Recent request latencies; percentiles are over the last {@code capacity} requests. */
+    static final class Latencies {
+        private final long[] ring;
+        private long count;
+
+        Latencies(int capacity) {
+            ring = new long[capacity];
+        }
+
+        synchronized void record(long nanos) {
+            ring[(int) (count++ % ring.length)] = nanos;
+        }
+
+        synchronized String summary() {
+            int n = (int) Math.min(count, ring.length);
+            if (n == 0) return "0 requests";
+            long[] sorted = Arrays.copyOf(ring, n);
+            Arrays.sort(sorted);
+            return String.format("%d requests; last %d: p50 %.1f us, p99 %.1f us, max %.1f us", count, n,
+                    sorted[n / 2] / 1e3, sorted[(int) (n * 0.99)] / 1e3, sorted[n - 1] / 1e3);
+        }
+    }
+
+    static HttpServer serve(LoanScorer scorer, Latencies latencies, int port, int threads) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        server.setExecutor(pool);
+        server.createContext("/score", ex -> {
+            try {
+                if (!ex.getRequestMethod().equals("POST")) {
+                    reply(ex, 405, "POST one CSV record per line\n");
+                    return;
+                }
+                long t0 = System.nanoTime();
+                List<String[]> records = new ArrayList<>();
+                BufferedReader in = new BufferedReader(new InputStreamReader(ex.getRequestBody(), StandardCharsets.UTF_8));
+                for (String line; (line = in.readLine()) != null; ) {
+                    if (!line.isBlank()) records.add(LoanScorer.fields(line));
+                }
+                String body;
+                try {
+                    body = answer(scorer, records);
+                } catch (IllegalArgumentException e) {
+                    reply(ex, 400, e.getMessage() + "\n");
+                    return;
+                }
+                reply(ex, 200, body);
+                latencies.record(System.nanoTime() - t0);
+            } catch (Exception e) {
+                reply(ex, 500, e + "\n");
+            }
+        });
+        server.createContext("/stats", ex -> reply(ex, 200, latencies.summary() + "\n"));
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            pool.shutdown();
+            System.err.println("[LoanService] " + latencies.summary());
+        }));
+        return server;
+    }
+
+    private static String answer(LoanScorer scorer, List<String[]> records) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        if (records.size() == 1) {
+            append(sb, scorer, scorer.score(records.get(0)));
+        } else {
+            for (double p : scorer.score(records)) append(sb, scorer, p);
+        }
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, LoanScorer scorer, double p) {
+        sb.append(scorer.label(p >= 0.5 ? LoanScorer.POSITIVE : 1 - LoanScorer.POSITIVE)).append(',')
+                .append(String.format("%.4f", p)).append('\n');
+    }
+
+    private static void reply(HttpExchange ex, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = ex.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    static void serveStdin(LoanScorer scorer, Latencies latencies) throws Exception {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        StringBuilder sb = new StringBuilder();
+        for (String line; (line = in.readLine()) != null; ) {
+            if (line.isBlank()) continue;
+            long t0 = System.nanoTime();
+            sb.setLength(0);
+            try {
+                append(sb, scorer, scorer.score(LoanScorer.fields(line)));
+            } catch (IllegalArgumentException e) {
+                sb.append("error,").append(e.getMessage()).append('\n');
+            }
+            latencies.record(System.nanoTime() - t0);
+            out.print(sb);
+        }
+        out.flush();
+    }
+}
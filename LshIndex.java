@@ -0,0 +1,173 @@
+import java.util.*;
+
+/**
+ * Approximate nearest-neighbour tables over the chatbot's TF-IDF vectors.
+ *
+ * Each of the L tables hashes a document by random-hyperplane (SimHash) signature: bit b is
+ * the sign of the document vector projected on a random +-1 hyperplane, where the component
+ * for a term is derived from a hash of (table, bit, term) instead of being stored. Documents
+ * at a small angle to the query collide with it in some table with high probability, so only
+ * the colliding buckets are re-ranked with the exact cosine from {@link LiveIndex#score}.
+ *
+ * More tables or probes raise recall and latency; more bits per table make buckets smaller,
+ * lowering latency and recall. Multi-probe also visits the buckets reached by flipping the
+ * query bits whose projections were closest to zero.
+ */
+public class LshIndex {
+    private final LiveIndex snapshot;
+    private final int tables;
+    private final int bits;
+    private final long seed;
+    // per table: signatures sorted ascending with the doc each belongs to
+    private final int[][] keys;
+    private final int[][] docs;
+
+    private static final class Marks {
+        int[] stamp = new int[0];
+        int epoch;
+
+        int next(int n) {
+            if (stamp.length < n) { stamp = new int[n]; epoch = 0; }
+            if (++epoch == 0) { Arrays.fill(stamp, 0); epoch = 1; }
+            return epoch;
+        }
+    }
+    private static final ThreadLocal<Marks> MARKS = ThreadLocal.withInitial(Marks::new);
+
+    private LshIndex(LiveIndex snapshot, int tables, int bits, long seed, int[][] keys, int[][] docs) {
+        this.snapshot = snapshot;
+        this.tables = tables;
+        this.bits = bits;
+        this.seed = seed;
+        this.keys = keys;
+        this.docs = docs;
+    }
+
+    /** Builds L = tables tables of the given bits (1..32) over the live entries of the snapshot. */
+    public static LshIndex build(LiveIndex snapshot, int tables, int bits, long seed) {
+        if (tables < 1 || bits < 1 || bits > 32) throw new IllegalArgumentException("tables >= 1, bits in 1..32");
+        int n = snapshot.liveSize();
+        int[][] keys = new int[tables][n], docs = new int[tables][n];
+        long[][] packed = new long[tables][n];
+        double[] proj = new double[bits];
+        int j = 0;
+        for (int d = 0; d < snapshot.size(); d++) {
+            if (!snapshot.isLive(d)) continue;
+            int[] ts = snapshot.termsOf(d), tfs = snapshot.tfsOf(d);
+            double[] w = new double[ts.length];
+            for (int i = 0; i < ts.length; i++) w[i] = tfs[i] * snapshot.idf(ts[i]);
+            for (int l = 0; l < tables; l++) {
+                int sig = signature(seed, l, bits, ts, w, proj);
+                // signature in the high half, doc in the low half: sorting groups buckets, stable by doc
+                packed[l][j] = ((long) sig << 32) | d;
+            }
+            j++;
+        }
+        for (int l = 0; l < tables; l++) {
+            long[] p = packed[l];
+            for (int i = 0; i < n; i++) p[i] ^= Long.MIN_VALUE; // order by unsigned signature
+            Arrays.sort(p);
+            for (int i = 0; i < n; i++) {
+                long v = p[i] ^ Long.MIN_VALUE;
+                keys[l][i] = (int) (v >>> 32);
+                docs[l][i] = (int) v;
+            }
+        }
+        return new LshIndex(snapshot, tables, bits, seed, keys, docs);
+    }
+
+    public LiveIndex snapshot() {
+        return snapshot;
+    }
+
+    // fills proj with the projections and returns the sign bits
+    private static int signature(long seed, int table, int bits, int[] terms, double[] weights, double[] proj) {
+        Arrays.fill(proj, 0, bits, 0.0);
+        for (int i = 0; i < terms.length; i++) {
+            long h = mix(seed ^ ((long) table << 40) ^ terms[i]);
+            for (int b = 0; b < bits; b++) proj[b] += ((h >>> b) & 1) != 0 ? weights[i] : -weights[i];
+        }
+        int sig = 0;
+        for (int b = 0; b < bits; b++) if (proj[b] > 0) sig |= 1 << b;
+        return sig;
+    }
+
+    // splitmix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Approximate top-k against the given snapshot, which must share this index's base so doc
+     * ids line up; entries added since the tables were built are not candidates until rebuilt.
+     *
+     * @param probes        extra buckets per table reached by flipping low-margin bits (0 = exact bucket only)
+     * @param maxCandidates cap on documents re-ranked with the exact cosine
+     */
+    public List<ChatIndex.Hit> search(LiveIndex current, String input, int k, int probes, int maxCandidates) {
+        LiveIndex.Query q = current.parse(input);
+        if (q.norm == 0 || k <= 0) return Collections.emptyList();
+        double[] proj = new double[bits];
+        int[] order = new int[bits];
+        int[] cand = new int[Math.max(1, maxCandidates)];
+        int nCand = 0;
+        Marks marks = MARKS.get();
+        int epoch = marks.next(snapshot.size());
+        int[] stamp = marks.stamp;
+
+        outer:
+        for (int l = 0; l < tables; l++) {
+            int sig = signature(seed, l, bits, q.terms, q.weights, proj);
+            int nProbe = Math.min(probes, bits);
+            if (nProbe > 0) lowestMargins(proj, order, nProbe);
+            for (int p = 0; p <= nProbe; p++) {
+                int key = p == 0 ? sig : sig ^ (1 << order[p - 1]);
+                int[] ks = keys[l], ds = docs[l];
+                for (int i = lowerBound(ks, key); i < ks.length && ks[i] == key; i++) {
+                    int d = ds[i];
+                    if (stamp[d] == epoch) continue;
+                    stamp[d] = epoch;
+                    cand[nCand++] = d;
+                    if (nCand == cand.length) break outer;
+                }
+            }
+        }
+
+        double[] scores = new double[nCand];
+        int live = 0;
+        for (int i = 0; i < nCand; i++) {
+            int d = cand[i];
+            if (!current.isLive(d)) continue;
+            double s = current.score(q, d);
+            if (s <= 0) continue;
+            cand[live] = d;
+            scores[live++] = s;
+        }
+        return ChatIndex.topK(cand, scores, live, k, current::answer);
+    }
+
+    // indices of the n projections closest to zero, nearest first and ties in index order;
+    // an insertion pass into order, since n is only the number of probes; allocates nothing
+    private static void lowestMargins(double[] proj, int[] order, int n) {
+        int m = 0;
+        for (int i = 0; i < proj.length; i++) {
+            double a = Math.abs(proj[i]);
+            if (m == n && a >= Math.abs(proj[order[n - 1]])) continue;
+            int j = m < n ? m++ : n - 1;
+            for (; j > 0 && Math.abs(proj[order[j - 1]]) > a; j--) order[j] = order[j - 1];
+            order[j] = i;
+        }
+    }
+
+    // first position whose unsigned key is >= key
+    private static int lowerBound(int[] ks, int key) {
+        int lo = 0, hi = ks.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Integer.compareUnsigned(ks[mid], key) < 0) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+}
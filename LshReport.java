@@ -0,0 +1,90 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Recall@1 and latency of Chatbot's approximate (LSH) mode against exact scoring on the same
+ * corpus, over a grid of table/bit/probe settings.
+ *
+ * Queries are corpus questions with one term dropped and one random term added, so each has a
+ * known near-duplicate. Recall@1 counts a query as found when the approximate top answer has the
+ * same score as the exact one (ties between equally good entries are not misses).
+ *
+ * Usage: java LshReport [corpus.tsv|synthetic:<entries>] [queries]
+ */
+public class LshReport {
+    public static void main(String[] args) throws Exception {
+        String source = args.length > 0 ? args[0] : "synthetic:200000";
+        int nQueries = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        String path = source;
+        if (source.startsWith("synthetic:")) {
+            File f = File.createTempFile("qa_corpus", ".txt");
+            f.deleteOnExit();
+            ChatbotLoadTest.writeSyntheticCorpus(f, Integer.parseInt(source.substring("synthetic:".length())), 1);
+            path = f.getPath();
+        }
+        Chatbot bot = new Chatbot();
+        bot.loadCorpus(path);
+        List<String> docs = new ArrayList<>(), answers = new ArrayList<>();
+        Chatbot.readCorpus(path, docs, answers);
+        List<String> queries = perturbedQueries(docs, nQueries, 3);
+
+        // exact baseline
+        bot.setExact();
+        List<ChatIndex.Hit> exact = new ArrayList<>();
+        for (String q : queries) bot.respondTopK(q, 1); // warm-up
+        long[] lat = new long[queries.size()];
+        for (int i = 0; i < queries.size(); i++) {
+            long t0 = System.nanoTime();
+            List<ChatIndex.Hit> h = bot.respondTopK(queries.get(i), 1);
+            lat[i] = System.nanoTime() - t0;
+            exact.add(h.isEmpty() ? null : h.get(0));
+        }
+        System.out.printf("%d entries, %d queries%n", docs.size(), queries.size());
+        System.out.println("mode                         build ms  recall@1   mean us    p50 us    p99 us");
+        print("exact", 0, 1.0, lat);
+
+        int[][] grid = {{4, 16, 0}, {8, 16, 0}, {8, 16, 2}, {16, 16, 2}, {8, 12, 0}, {16, 20, 4}, {32, 12, 2}};
+        for (int[] g : grid) {
+            long t0 = System.nanoTime();
+            bot.setApproximate(g[0], g[1], g[2], 2000);
+            double buildMs = (System.nanoTime() - t0) / 1e6;
+            for (String q : queries) bot.respondTopK(q, 1);
+            int found = 0, answerable = 0;
+            for (int i = 0; i < queries.size(); i++) {
+                long s = System.nanoTime();
+                List<ChatIndex.Hit> h = bot.respondTopK(queries.get(i), 1);
+                lat[i] = System.nanoTime() - s;
+                ChatIndex.Hit e = exact.get(i);
+                if (e == null) continue;
+                answerable++;
+                if (!h.isEmpty() && h.get(0).score == e.score) found++;
+            }
+            print(String.format("lsh L=%d bits=%d probes=%d", g[0], g[1], g[2]), buildMs,
+                    answerable == 0 ? 1.0 : (double) found / answerable, lat);
+        }
+        bot.setExact();
+    }
+
+    private static void print(String mode, double buildMs, double recall, long[] lat) {
+        long[] sorted = lat.clone();
+        Arrays.sort(sorted);
+        double mean = Arrays.stream(sorted).average().orElse(0);
+        System.out.printf("%-28s %8.0f  %8.3f  %8.1f  %8.1f  %8.1f%n", mode, buildMs, recall, mean / 1e3,
+                sorted[sorted.length / 2] / 1e3, sorted[(int) (sorted.length * 0.99)] / 1e3);
+    }
+
+    static List<String> perturbedQueries(List<String> docs, int n, long seed) {
+        Random rnd = new Random(seed);
+        List<String> out = new ArrayList<>(n);
+        while (out.size() < n && !docs.isEmpty()) {
+            List<String> toks = Tokenizer.tokens(docs.get(rnd.nextInt(docs.size())));
+            List<String> other = Tokenizer.tokens(docs.get(rnd.nextInt(docs.size())));
+            if (toks.size() < 2 || other.isEmpty()) continue;
+            toks.remove(rnd.nextInt(toks.size()));
+            toks.add(rnd.nextInt(toks.size() + 1), other.get(other.size() - 1));
+            out.add(String.join(" ", toks));
+        }
+        return out;
+    }
+}
@@ -0,0 +1,69 @@
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link ChatIndex} served straight from a memory-mapped index file (see {@link ChatIndexFile}).
+ * Postings, IDF and norms are views over the mapping and terms/answers are decoded on demand,
+ * so opening the index costs no parsing and almost no heap.
+ */
+public class MappedChatIndex extends ChatIndex {
+    private final IntBuffer termOff;
+    private final IntBuffer termHash;
+    private final ByteBuffer termBytes;
+    private final IntBuffer questionOff;
+    private final ByteBuffer questionBytes;
+    private final IntBuffer answerOff;
+    private final ByteBuffer answerBytes;
+
+    MappedChatIndex(ChatIndexFile.Sections s) {
+        super(s.size, s.idf, s.postStart, s.postDocs, s.postTf, s.norms, s.docStart, s.docTerms, s.docTfs);
+        this.termOff = s.termOff;
+        this.termHash = s.termHash;
+        this.termBytes = s.termBytes;
+        this.questionOff = s.questionOff;
+        this.questionBytes = s.questionBytes;
+        this.answerOff = s.answerOff;
+        this.answerBytes = s.answerBytes;
+    }
+
+    @Override
+    public int termId(char[] buf, int off, int len) {
+        int mask = termHash.capacity() - 1;
+        for (int slot = TermDictionary.hash(buf, off, len) & mask; ; slot = (slot + 1) & mask) {
+            int entry = termHash.get(slot);
+            if (entry == 0) return -1;
+            int id = entry - 1;
+            if (termEquals(id, buf, off, len)) return id;
+        }
+    }
+
+    private boolean termEquals(int id, char[] buf, int off, int len) {
+        int from = termOff.get(id);
+        if (termOff.get(id + 1) - from != len) return false;
+        for (int i = 0; i < len; i++) if ((char) (termBytes.get(from + i) & 0xff) != buf[off + i]) return false;
+        return true;
+    }
+
+    @Override
+    public String term(int id) {
+        return decode(termOff, termBytes, id, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public String question(int doc) {
+        return decode(questionOff, questionBytes, doc, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String answer(int doc) {
+        return decode(answerOff, answerBytes, doc, StandardCharsets.UTF_8);
+    }
+
+    private static String decode(IntBuffer off, ByteBuffer bytes, int i, java.nio.charset.Charset cs) {
+        int from = off.get(i);
+        byte[] b = new byte[off.get(i + 1) - from];
+        bytes.get(from, b);
+        return new String(b, cs);
+    }
+}
@@ -0,0 +1,346 @@
+package com.sam.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stage latencies, counters and sampled traces of the engines, exported over JMX and to a file
+ * rewritten periodically.
+ *
+ * Nothing is recorded unless metrics are on; instrumented code then only reads a volatile flag,
+ * {@link Stage#start} does not read the clock and nothing is allocated. When on, a stage costs
+ * two clock readings and a {@link Histogram} update. Set up from system properties when the
+ * first stage or counter is created:
+ *
+ *   -Dmetrics=true        record
+ *   -Dmetrics.trace=N     also trace about one operation in N (see {@link Trace})
+ *   -Dmetrics.jmx=true    register MXBeans under com.sam.metrics without recording yet; implied
+ *                         by -Dmetrics. The Metrics bean turns recording and tracing on and off.
+ *   -Dmetrics.dump=file   rewrite file every metrics.period seconds (default 10) and at exit,
+ *                         as JSON if its name ends in .json, else in Prometheus text format;
+ *                         the JSON throughput is then over the period since the previous write
+ *
+ * Names are dotted, "chatbot.respond"; in Prometheus text the dots become underscores and a
+ * stage is a summary in seconds.
+ */
+public final class Metrics {
+    static volatile boolean enabled = Boolean.getBoolean("metrics");
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] JSON_QUANTILES = {"p50Micros", "p90Micros", "p99Micros", "p999Micros"};
+    private static final Map<String, Stage> stages = new ConcurrentSkipListMap<>();
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private static final long startNanos = System.nanoTime();
+    private static MBeanServer jmx;
+    private static ScheduledExecutorService dumper;
+    private static Path dumpFile;
+    private static Window dumpWindow;  // the periodic dump's own, so other exports don't reset it
+
+    static {
+        if (enabled || Boolean.getBoolean("metrics.jmx")) registerMBeans();
+        String dump = System.getProperty("metrics.dump");
+        if (dump != null) dumpEvery(Paths.get(dump), Long.getLong("metrics.period", 10));
+    }
+
+    private Metrics() {}
+
+    /** The stage of that name, created on first use; meant for a static final field. */
+    public static synchronized Stage stage(String name, String help) {
+        Stage s = stages.get(name);
+        if (s == null) {
+            stages.put(name, s = new Stage(name, help));
+            if (jmx != null) register(new StageBean(s), "Stage", name);
+        }
+        return s;
+    }
+
+    /** The counter of that name, created on first use; meant for a static final field. */
+    public static synchronized Counter counter(String name, String help) {
+        Counter c = counters.get(name);
+        if (c == null) {
+            counters.put(name, c = new Counter(name, help));
+            if (jmx != null) register(new CounterBean(c), "Counter", name);
+        }
+        return c;
+    }
+
+    public static boolean enabled() {
+        return enabled;
+    }
+
+    /** Starts or stops recording; what was recorded so far is kept. */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /** Statistics of one stage for JMX clients, in microseconds. */
+    public interface StageMXBean {
+        String getDescription();
+
+        long getCount();
+
+        double getMeanMicros();
+
+        double getP50Micros();
+
+        double getP90Micros();
+
+        double getP99Micros();
+
+        double getP999Micros();
+
+        double getMaxMicros();
+    }
+
+    public interface CounterMXBean {
+        String getDescription();
+
+        long getCount();
+    }
+
+    /** Switches and exports, as the com.sam.metrics:type=Metrics bean. */
+    public interface MetricsMXBean {
+        boolean isEnabled();
+
+        void setEnabled(boolean on);
+
+        /** Trace about one operation in this many; 0 for none. */
+        int getTraceSampling();
+
+        void setTraceSampling(int n);
+
+        String json();
+
+        String prometheus();
+    }
+
+    private static final class StageBean implements StageMXBean {
+        private final Stage stage;
+
+        StageBean(Stage stage) {
+            this.stage = stage;
+        }
+
+        public String getDescription() { return stage.help; }
+        public long getCount() { return stage.snapshot().count; }
+        public double getMeanMicros() { return stage.snapshot().mean() / 1e3; }
+        public double getP50Micros() { return stage.snapshot().percentile(0.5) / 1e3; }
+        public double getP90Micros() { return stage.snapshot().percentile(0.9) / 1e3; }
+        public double getP99Micros() { return stage.snapshot().percentile(0.99) / 1e3; }
+        public double getP999Micros() { return stage.snapshot().percentile(0.999) / 1e3; }
+        public double getMaxMicros() { return stage.snapshot().max / 1e3; }
+    }
+
+    private static final class CounterBean implements CounterMXBean {
+        private final Counter counter;
+
+        CounterBean(Counter counter) {
+            this.counter = counter;
+        }
+
+        public String getDescription() { return counter.help; }
+        public long getCount() { return counter.get(); }
+    }
+
+    private static final class Control implements MetricsMXBean {
+        public boolean isEnabled() { return enabled; }
+        public void setEnabled(boolean on) { Metrics.setEnabled(on); }
+        public int getTraceSampling() { return Trace.sampling(); }
+        public void setTraceSampling(int n) { Trace.setSampling(n); }
+        public String json() { return Metrics.json(); }
+        public String prometheus() { return Metrics.prometheus(); }
+    }
+
+    /** Registers the Metrics bean and one bean per stage and counter, now and as they are created. */
+    public static synchronized void registerMBeans() {
+        if (jmx != null) return;
+        jmx = ManagementFactory.getPlatformMBeanServer();
+        register(new Control(), "Metrics", null);
+        for (Stage s : stages.values()) register(new StageBean(s), "Stage", s.name);
+        for (Counter c : counters.values()) register(new CounterBean(c), "Counter", c.name);
+    }
+
+    private static void register(Object bean, String type, String name) {
+        try {
+            jmx.registerMBean(bean, new ObjectName("com.sam.metrics:type=" + type
+                    + (name == null ? "" : ",name=" + name)));
+        } catch (JMException e) {
+            System.err.println("[Metrics] cannot register " + type + " " + name + ": " + e);
+        }
+    }
+
+    /**
+     * Writes every metric to {@code file} now and then every {@code seconds} from a daemon
+     * thread, and once more at exit; replaces an earlier schedule.
+     */
+    public static synchronized void dumpEvery(Path file, long seconds) {
+        if (dumper == null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(Metrics::dumpAtExit, "metrics-exit"));
+        } else {
+            dumper.shutdownNow();
+        }
+        dumpFile = file;
+        Window window = dumpWindow = new Window();
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(() -> dump(file, window), 0, seconds, TimeUnit.SECONDS);
+    }
+
+    private static void dumpAtExit() {
+        Path file;
+        Window window;
+        synchronized (Metrics.class) {
+            dumper.shutdownNow();
+            file = dumpFile;
+            window = dumpWindow;
+        }
+        dump(file, window);
+    }
+
+    // synchronized on the window, as the dump at exit may overlap a periodic one
+    private static void dump(Path file, Window window) {
+        try {
+            synchronized (window) {
+                write(file, window);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[Metrics] cannot write " + file + ": " + e);
+        }
+    }
+
+    /** Writes every metric to {@code file}, as JSON if its name ends in .json, else as Prometheus text. */
+    public static void write(Path file) throws IOException {
+        write(file, new Window());
+    }
+
+    private static void write(Path file, Window window) throws IOException {
+        String text = file.toString().endsWith(".json") ? json(window) : prometheus();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, text.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // stage counts at an exporter's previous export, for its throughput; a new one covers the
+    // uptime. One kept across exports is guarded by itself.
+    private static final class Window {
+        final Map<String, Long> counts = new HashMap<>();
+        long at = startNanos;
+    }
+
+    /**
+     * Stages with count, throughput since start and percentiles in microseconds; counters; and
+     * the recent traces, spans offset from their trace's start.
+     */
+    public static String json() {
+        return json(new Window());
+    }
+
+    private static String json(Window window) {
+        long now = System.nanoTime();
+        double seconds = (now - window.at) / 1e9;
+        window.at = now;
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("{\"time\":").append(quote(Instant.now().toString()))
+                .append(",\"uptimeSeconds\":").append(format((now - startNanos) / 1e9))
+                .append(",\"enabled\":").append(enabled)
+                .append(",\"stages\":{");
+        String sep = "";
+        for (Stage s : stages.values()) {
+            Histogram.Snapshot h = s.snapshot();
+            Long last = window.counts.put(s.name, h.count);
+            sb.append(sep).append(quote(s.name)).append(":{\"count\":").append(h.count)
+                    .append(",\"perSecond\":").append(format((h.count - (last == null ? 0 : last)) / seconds))
+                    .append(",\"meanMicros\":").append(micros(Math.round(h.mean())));
+            for (int i = 0; i < QUANTILES.length; i++) {
+                sb.append(",\"").append(JSON_QUANTILES[i]).append("\":").append(micros(h.percentile(QUANTILES[i])));
+            }
+            sb.append(",\"maxMicros\":").append(micros(h.max)).append('}');
+            sep = ",";
+        }
+        sb.append("},\"counters\":{");
+        sep = "";
+        for (Counter c : counters.values()) {
+            sb.append(sep).append(quote(c.name)).append(':').append(c.get());
+            sep = ",";
+        }
+        sb.append("},\"traces\":[");
+        List<Trace> traces = Trace.recent();
+        for (int i = 0; i < traces.size(); i++) {
+            if (i > 0) sb.append(',');
+            traces.get(i).json(sb);
+        }
+        return sb.append("]}\n").toString();
+    }
+
+    /** Stages as summaries in seconds, with a _max gauge each, and counters, in Prometheus text format. */
+    public static String prometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Stage s : stages.values()) {
+            Histogram.Snapshot h = s.snapshot();
+            String name = metricName(s.name) + "_seconds";
+            sb.append("# HELP ").append(name).append(' ').append(help(s.help)).append('\n');
+            sb.append("# TYPE ").append(name).append(" summary\n");
+            for (double q : QUANTILES) {
+                sb.append(name).append("{quantile=\"").append(q).append("\"} ")
+                        .append(h.percentile(q) / 1e9).append('\n');
+            }
+            sb.append(name).append("_sum ").append(h.sum / 1e9).append('\n');
+            sb.append(name).append("_count ").append(h.count).append('\n');
+            sb.append("# TYPE ").append(name).append("_max gauge\n");
+            sb.append(name).append("_max ").append(h.max / 1e9).append('\n');
+        }
+        for (Counter c : counters.values()) {
+            String name = metricName(c.name) + "_total";
+            sb.append("# HELP ").append(name).append(' ').append(help(c.help)).append('\n');
+            sb.append("# TYPE ").append(name).append(" counter\n");
+            sb.append(name).append(' ').append(c.get()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String metricName(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    private static String help(String text) {
+        return text.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e3);
+    }
+
+    private static String format(double v) {
+        return String.format(Locale.ROOT, "%.1f", v);
+    }
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') sb.append('\\').append(c);
+            else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+            else sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+}
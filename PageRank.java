@@ -0,0 +1,119 @@
+import java.util.Arrays;
+
+/**
+ * Power-iteration PageRank over a weighted graph stored as CSR primitive arrays.
+ *
+ * Edge weights are normalized once into a row-stochastic matrix when the graph is built, so an
+ * iteration is one pass over the edges. Iteration stops once the L1 change between successive
+ * score vectors drops below the tolerance. A node without outgoing weight passes nothing on,
+ * as in the original dense implementation, so scores need not sum to one.
+ *
+ * The score buffers are reused across {@link #rank} calls; an instance is not thread-safe.
+ */
+public final class PageRank {
+    private final int n;
+    private final int[] rowStart; // length n + 1
+    private final int[] cols;
+    private final double[] weights; // row-normalized
+    private double[] pr, next;
+    private int iterations;
+
+    /**
+     * Takes ownership of the arrays: row j's out-edges are cols/weights[rowStart[j], rowStart[j+1]).
+     * Weights must be non-negative and are normalized in place.
+     */
+    public PageRank(int n, int[] rowStart, int[] cols, double[] weights) {
+        this.n = n;
+        this.rowStart = rowStart;
+        this.cols = cols;
+        this.weights = weights;
+        for (int j = 0; j < n; j++) {
+            double sum = 0;
+            for (int e = rowStart[j]; e < rowStart[j + 1]; e++) sum += weights[e];
+            if (sum == 0) continue;
+            for (int e = rowStart[j]; e < rowStart[j + 1]; e++) weights[e] /= sum;
+        }
+        pr = new double[n];
+        next = new double[n];
+    }
+
+    /** Graph of the non-zero entries of a dense N x N weight matrix. */
+    public static PageRank of(double[][] m) {
+        int n = m.length, edges = 0;
+        for (double[] row : m) for (double w : row) if (w != 0) edges++;
+        int[] rowStart = new int[n + 1], cols = new int[edges];
+        double[] weights = new double[edges];
+        int e = 0;
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < n; i++) {
+                if (m[j][i] == 0) continue;
+                cols[e] = i;
+                weights[e++] = m[j][i];
+            }
+            rowStart[j + 1] = e;
+        }
+        return new PageRank(n, rowStart, cols, weights);
+    }
+
+    public int size() {
+        return n;
+    }
+
+    public int edges() {
+        return rowStart[n];
+    }
+
+    /** Iterations the last {@link #rank} call ran. */
+    public int iterations() {
+        return iterations;
+    }
+
+    /** Uniform teleport; see {@link #rank(double, double, int, double[])}. */
+    public double[] rank(double d, double tol, int maxIter) {
+        return rank(d, tol, maxIter, null);
+    }
+
+    /**
+     * Runs until the L1 change is below tol or maxIter iterations.
+     *
+     * @param d               damping factor
+     * @param personalization teleport weights per node, normalized to sum 1; null for uniform
+     * @return the scores, valid until the next call on this instance
+     */
+    public double[] rank(double d, double tol, int maxIter, double[] personalization) {
+        double[] p = null;
+        if (personalization != null) {
+            if (personalization.length != n) throw new IllegalArgumentException("personalization length " + personalization.length + " != " + n);
+            double sum = 0;
+            for (double v : personalization) {
+                if (v < 0) throw new IllegalArgumentException("personalization weights must be non-negative");
+                sum += v;
+            }
+            if (sum == 0) throw new IllegalArgumentException("personalization weights sum to zero");
+            p = new double[n];
+            for (int i = 0; i < n; i++) p[i] = personalization[i] / sum;
+        }
+        double[] cur = pr, nxt = next;
+        if (p != null) System.arraycopy(p, 0, cur, 0, n);
+        else Arrays.fill(cur, 1.0 / n);
+        double base = (1 - d) / n;
+        int it = 0;
+        while (it < maxIter) {
+            if (p == null) Arrays.fill(nxt, base);
+            else for (int i = 0; i < n; i++) nxt[i] = (1 - d) * p[i];
+            for (int j = 0; j < n; j++) {
+                double out = d * cur[j];
+                for (int e = rowStart[j]; e < rowStart[j + 1]; e++) nxt[cols[e]] += out * weights[e];
+            }
+            it++;
+            double delta = 0;
+            for (int i = 0; i < n; i++) delta += Math.abs(nxt[i] - cur[i]);
+            double[] t = cur; cur = nxt; nxt = t;
+            if (delta < tol) break;
+        }
+        pr = cur;
+        next = nxt;
+        iterations = it;
+        return cur;
+    }
+}
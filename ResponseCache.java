@@ -0,0 +1,210 @@
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded, concurrent cache of chatbot answers keyed on the normalized query.
+ *
+ * Keys are spread over lock-striped segments, each an access-ordered LRU map with its own
+ * TinyLFU-style frequency sketch: when a segment is full, a new key only displaces the LRU
+ * victim if it has been asked for more often recently, so a burst of one-off queries cannot
+ * flush the hot set. Entries also expire after a TTL.
+ *
+ * {@link #invalidate()} bumps an epoch instead of clearing: entries from an older epoch read as
+ * misses and are dropped lazily. Readers take the epoch before reading the index snapshot and
+ * pass it to {@link #put}; writers publish the snapshot before invalidating, so an answer
+ * computed from an old snapshot is never served as current.
+ */
+public class ResponseCache {
+    public static final class Stats {
+        public final long hits, misses, evictions, expirations, rejections;
+        public final int size;
+
+        Stats(long hits, long misses, long evictions, long expirations, long rejections, int size) {
+            this.hits = hits; this.misses = misses; this.evictions = evictions;
+            this.expirations = expirations; this.rejections = rejections; this.size = size;
+        }
+
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0.0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d hitRate=%.3f evictions=%d expirations=%d rejections=%d size=%d",
+                    hits, misses, hitRate(), evictions, expirations, rejections, size);
+        }
+    }
+
+    private static final class Entry {
+        final String value;
+        final long epoch;
+        final long expiresAt;
+
+        Entry(String value, long epoch, long expiresAt) {
+            this.value = value; this.epoch = epoch; this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class Segment {
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<String, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+        final FrequencySketch sketch;
+        final int capacity;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            this.sketch = new FrequencySketch(capacity);
+        }
+    }
+
+    private final Segment[] segments;
+    private final long ttlNanos;
+    private final AtomicLong epoch = new AtomicLong();
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), evictions = new LongAdder(),
+            expirations = new LongAdder(), rejections = new LongAdder();
+
+    /** @param ttlMillis time to live per entry; 0 or less for no expiry */
+    public ResponseCache(int maxEntries, long ttlMillis) {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be positive");
+        int n = Integer.highestOneBit(Math.max(1, Math.min(maxEntries / 8, Runtime.getRuntime().availableProcessors() * 4)));
+        segments = new Segment[n];
+        for (int i = 0; i < n; i++) segments[i] = new Segment(maxEntries / n + (i < maxEntries % n ? 1 : 0));
+        ttlNanos = ttlMillis <= 0 ? Long.MAX_VALUE : ttlMillis * 1_000_000L;
+    }
+
+    private static boolean alive(Entry e, long now) {
+        return e.expiresAt == Long.MAX_VALUE || now - e.expiresAt < 0;
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segmentFor(int h) {
+        return segments[h & (segments.length - 1)];
+    }
+
+    /** Current epoch; read it before reading the data the cached value is computed from. */
+    public long epoch() {
+        return epoch.get();
+    }
+
+    /** Makes every cached entry stale. */
+    public void invalidate() {
+        epoch.incrementAndGet();
+    }
+
+    public String get(String key) {
+        int h = hash(key);
+        Segment s = segmentFor(h);
+        long now = System.nanoTime();
+        s.lock.lock();
+        try {
+            s.sketch.increment(h);
+            Entry e = s.map.get(key);
+            if (e != null && e.epoch == epoch.get()) {
+                if (alive(e, now)) {
+                    hits.increment();
+                    return e.value;
+                }
+                expirations.increment();
+            }
+            if (e != null) s.map.remove(key);
+        } finally {
+            s.lock.unlock();
+        }
+        misses.increment();
+        return null;
+    }
+
+    /** Stores a value computed while {@link #epoch()} was {@code epochSeen}; stale values are dropped. */
+    public void put(String key, String value, long epochSeen) {
+        if (epochSeen != epoch.get()) return;
+        int h = hash(key);
+        Segment s = segmentFor(h);
+        long expiresAt = ttlNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + ttlNanos;
+        s.lock.lock();
+        try {
+            if (!s.map.containsKey(key) && s.map.size() >= s.capacity) {
+                Iterator<Map.Entry<String, Entry>> it = s.map.entrySet().iterator();
+                Map.Entry<String, Entry> victim = it.next();
+                boolean victimLive = victim.getValue().epoch == epochSeen && alive(victim.getValue(), System.nanoTime());
+                if (victimLive && s.sketch.frequency(h) <= s.sketch.frequency(hash(victim.getKey()))) {
+                    rejections.increment();
+                    return;
+                }
+                it.remove();
+                evictions.increment();
+            }
+            s.map.put(key, new Entry(value, epochSeen, expiresAt));
+        } finally {
+            s.lock.unlock();
+        }
+    }
+
+    public int size() {
+        int n = 0;
+        for (Segment s : segments) {
+            s.lock.lock();
+            try { n += s.map.size(); } finally { s.lock.unlock(); }
+        }
+        return n;
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), expirations.sum(), rejections.sum(), size());
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, 4 rows packed into longs, halved every 10 x capacity
+     * increments so old popularity fades. Guarded by the owning segment's lock.
+     */
+    private static final class FrequencySketch {
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int words = Integer.highestOneBit(Math.max(8, capacity) - 1) << 1;
+            table = new long[words];
+            mask = words - 1;
+            sampleSize = Math.max(10, 10 * capacity);
+        }
+
+        private static int rehash(int h, int row) {
+            h = (h + row) * 0x85EBCA6B;
+            return h ^ (h >>> 15);
+        }
+
+        int frequency(int h) {
+            int min = 15;
+            for (int row = 0; row < 4; row++) {
+                int r = rehash(h, row);
+                int shift = ((r >>> 28) & 15) << 2;
+                min = Math.min(min, (int) ((table[r & mask] >>> shift) & 15));
+            }
+            return min;
+        }
+
+        void increment(int h) {
+            boolean added = false;
+            for (int row = 0; row < 4; row++) {
+                int r = rehash(h, row);
+                int i = r & mask, shift = ((r >>> 28) & 15) << 2;
+                if (((table[i] >>> shift) & 15) != 15) {
+                    table[i] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                additions /= 2;
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sparse, symmetric cosine-similarity graph over sentence term vectors, built in parallel.
+ *
+ * Sentences come in already vectorized as sorted term ids with counts, and their norms are
+ * computed once. Dot products come from an inverted index, so only pairs sharing a term are
+ * touched, and only the upper triangle (i < j) is computed; each edge is then mirrored. Rows
+ * are sharded across the common fork-join pool.
+ *
+ * Edges below the threshold are dropped and each row keeps at most maxDegree of its strongest
+ * upper-triangle edges, so the graph holds at most n * (2 * maxDegree + 1) edges however many
+ * sentences share words. Every non-empty sentence keeps its self-loop, as in the dense matrix.
+ */
+public final class SimilarityGraph {
+    private static final int LEAF_ROWS = 16;
+
+    private final int n;
+    private final int[][] terms, counts;
+    private final double[] norms;
+    private final double[] selfWeights;
+    // inverted index: term -> sentences ascending, with counts
+    private final int[] postStart, postDocs, postCounts;
+    private final double threshold;
+    private final int maxDegree;
+    // kept upper-triangle edges per row, by column ascending
+    private final int[][] upperCols;
+    private final double[][] upperWeights;
+
+    private static final class Scratch {
+        double[] acc = new double[0];
+        int[] touched = new int[0];
+        int[] heap = new int[0];
+
+        void ensure(int n) {
+            if (acc.length < n) {
+                acc = new double[n];
+                touched = new int[n];
+            }
+        }
+    }
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private SimilarityGraph(int[][] terms, int[][] counts, double threshold, int maxDegree) {
+        this.n = terms.length;
+        this.terms = terms;
+        this.counts = counts;
+        this.threshold = threshold;
+        this.maxDegree = maxDegree;
+        norms = new double[n];
+        selfWeights = new double[n];
+        int vocab = 0;
+        for (int i = 0; i < n; i++) {
+            double sq = 0;
+            for (int c : counts[i]) sq += (double) c * c;
+            norms[i] = Math.sqrt(sq);
+            selfWeights[i] = sq == 0 ? 0.0 : sq / (norms[i] * norms[i]);
+            for (int t : terms[i]) vocab = Math.max(vocab, t + 1);
+        }
+        postStart = new int[vocab + 1];
+        for (int[] ts : terms) for (int t : ts) postStart[t + 1]++;
+        for (int t = 0; t < vocab; t++) postStart[t + 1] += postStart[t];
+        postDocs = new int[postStart[vocab]];
+        postCounts = new int[postDocs.length];
+        int[] fill = Arrays.copyOf(postStart, vocab);
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < terms[i].length; k++) {
+                int p = fill[terms[i][k]]++;
+                postDocs[p] = i;
+                postCounts[p] = counts[i][k];
+            }
+        }
+        upperCols = new int[n][];
+        upperWeights = new double[n][];
+    }
+
+    /**
+     * Builds the graph ready for ranking.
+     *
+     * @param terms     per sentence, sorted distinct term ids
+     * @param counts    per sentence, the count of each term
+     * @param threshold minimum cosine for an edge between two sentences
+     * @param maxDegree cap on edges each sentence contributes to later sentences
+     */
+    public static PageRank build(int[][] terms, int[][] counts, double threshold, int maxDegree) {
+        if (maxDegree < 1) throw new IllegalArgumentException("maxDegree must be positive");
+        SimilarityGraph g = new SimilarityGraph(terms, counts, threshold, maxDegree);
+        if (g.n > 0) ForkJoinPool.commonPool().invoke(g.new RowTask(0, g.n));
+        return g.assemble();
+    }
+
+    @SuppressWarnings("serial")
+    private final class RowTask extends RecursiveAction {
+        private final int from, to;
+
+        RowTask(int from, int to) {
+            this.from = from; this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_ROWS) {
+                Scratch s = SCRATCH.get();
+                s.ensure(n);
+                for (int i = from; i < to; i++) row(i, s);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RowTask(from, mid), new RowTask(mid, to));
+        }
+    }
+
+    // similarities of sentence i to every later sentence sharing a term
+    private void row(int i, Scratch s) {
+        int[] ts = terms[i], cs = counts[i];
+        double[] acc = s.acc;
+        int[] touched = s.touched;
+        int nt = 0;
+        for (int k = 0; k < ts.length; k++) {
+            int t = ts[k], end = postStart[t + 1];
+            for (int p = firstAfter(postStart[t], end, i); p < end; p++) {
+                int j = postDocs[p];
+                if (acc[j] == 0) touched[nt++] = j;
+                acc[j] += (double) cs[k] * postCounts[p];
+            }
+        }
+        int[] cand = new int[nt];
+        double[] w = new double[nt];
+        int kept = 0;
+        for (int x = 0; x < nt; x++) {
+            int j = touched[x];
+            double sim = acc[j] / (norms[i] * norms[j]);
+            acc[j] = 0;
+            if (sim < threshold) continue;
+            cand[kept] = j;
+            w[kept++] = sim;
+        }
+        if (kept > maxDegree) kept = strongest(cand, w, kept, s);
+        // by column; candidates are distinct sentences
+        long[] byCol = new long[kept];
+        for (int x = 0; x < kept; x++) byCol[x] = ((long) cand[x] << 32) | x;
+        Arrays.sort(byCol);
+        int[] cols = new int[kept];
+        double[] weights = new double[kept];
+        for (int x = 0; x < kept; x++) {
+            cols[x] = (int) (byCol[x] >>> 32);
+            weights[x] = w[(int) byCol[x]];
+        }
+        upperCols[i] = cols;
+        upperWeights[i] = weights;
+    }
+
+    // moves the maxDegree strongest candidates to the front, ties to the earlier sentence
+    private int strongest(int[] cand, double[] w, int count, Scratch s) {
+        int k = maxDegree;
+        if (s.heap.length < k) s.heap = new int[k];
+        int[] heap = s.heap; // min-heap of candidate positions, weakest on top
+        int size = 0;
+        for (int x = 0; x < count; x++) {
+            if (size < k) {
+                int c = size++;
+                while (c > 0 && weaker(x, heap[(c - 1) >>> 1], cand, w)) {
+                    heap[c] = heap[(c - 1) >>> 1];
+                    c = (c - 1) >>> 1;
+                }
+                heap[c] = x;
+            } else if (weaker(heap[0], x, cand, w)) {
+                int c = 0;
+                while (true) {
+                    int l = 2 * c + 1;
+                    if (l >= k) break;
+                    if (l + 1 < k && weaker(heap[l + 1], heap[l], cand, w)) l++;
+                    if (!weaker(heap[l], x, cand, w)) break;
+                    heap[c] = heap[l];
+                    c = l;
+                }
+                heap[c] = x;
+            }
+        }
+        int[] keptCand = new int[k];
+        double[] keptW = new double[k];
+        for (int x = 0; x < k; x++) {
+            keptCand[x] = cand[heap[x]];
+            keptW[x] = w[heap[x]];
+        }
+        System.arraycopy(keptCand, 0, cand, 0, k);
+        System.arraycopy(keptW, 0, w, 0, k);
+        return k;
+    }
+
+    private static boolean weaker(int a, int b, int[] cand, double[] w) {
+        return w[a] < w[b] || (w[a] == w[b] && cand[a] > cand[b]);
+    }
+
+    // first position in postDocs[from, to) holding a sentence after i
+    private int firstAfter(int from, int to, int i) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (postDocs[mid] <= i) from = mid + 1; else to = mid;
+        }
+        return from;
+    }
+
+    // mirrors the upper triangle and adds self-loops into CSR rows ordered by column
+    private PageRank assemble() {
+        int[] rowStart = new int[n + 1];
+        for (int i = 0; i < n; i++) {
+            rowStart[i + 1] += upperCols[i].length + (norms[i] > 0 ? 1 : 0);
+            for (int j : upperCols[i]) rowStart[j + 1]++;
+        }
+        for (int i = 0; i < n; i++) rowStart[i + 1] += rowStart[i];
+        int[] cols = new int[rowStart[n]];
+        double[] weights = new double[cols.length];
+        int[] fill = Arrays.copyOf(rowStart, n);
+        // lower-triangle entries of row j arrive in ascending i, before its self-loop and upper part
+        for (int i = 0; i < n; i++) {
+            if (norms[i] > 0) {
+                cols[fill[i]] = i;
+                weights[fill[i]++] = selfWeights[i];
+            }
+            int[] uc = upperCols[i];
+            double[] uw = upperWeights[i];
+            for (int x = 0; x < uc.length; x++) {
+                cols[fill[i]] = uc[x];
+                weights[fill[i]++] = uw[x];
+                int j = uc[x];
+                cols[fill[j]] = i;
+                weights[fill[j]++] = uw[x];
+            }
+        }
+        return new PageRank(n, rowStart, cols, weights);
+    }
+}
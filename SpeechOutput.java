@@ -0,0 +1,446 @@
+package com.sam.voice;
+
+import com.sam.metrics.Metrics;
+import com.sam.metrics.Stage;
+import com.sam.metrics.Trace;
+import com.sun.speech.freetts.Voice;
+import com.sun.speech.freetts.audio.AudioPlayer;
+
+import javax.sound.sampled.*;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The assistant's speech output: a playback thread fed by a queue, with the PCM of known
+ * phrases rendered ahead of time.
+ *
+ * {@link #say} only queues. The playback thread plays each fragment of a request from the
+ * audio cache, or synthesizes it with FreeTTS straight into the sink, keeping the audio of
+ * short phrases for next time. Phrases rendered by {@link #prerender} stay cached; others are
+ * kept in an LRU bounded by bytes. Phrases queued with {@link #prerenderWhenIdle} are rendered
+ * on the playback thread while nothing is queued, since a FreeTTS voice is not thread-safe.
+ * {@link #interrupt} drops everything queued and cuts the current request short.
+ *
+ * Audio goes to a {@link Sink}: the speakers, or a WAV file for headless runs, optionally
+ * played at real-time speed. Time to first audio is measured from {@link #say} to the first
+ * bytes of the request reaching the sink.
+ */
+public final class SpeechOutput {
+    private static final int MAX_CACHED_CHARS = 80;  // longer phrases are not worth keeping
+    private static final int WRITE_CHUNK = 2048;     // 64 ms at 16 kHz, the interruption granularity
+
+    /** Where PCM goes; used by the playback thread, except {@link #flush} by any thread. */
+    public interface Sink {
+        void open(AudioFormat format) throws IOException;
+
+        void write(byte[] pcm, int off, int len);
+
+        /** Drops audio written but not yet played. */
+        void flush();
+
+        /** Waits until written audio has played. */
+        void drain();
+
+        void close() throws IOException;
+    }
+
+    /** The default speakers. */
+    public static Sink speakers() {
+        return new Sink() {
+            SourceDataLine line;
+
+            public void open(AudioFormat format) throws IOException {
+                try {
+                    line = AudioSystem.getSourceDataLine(format);
+                    line.open(format);
+                    line.start();
+                } catch (LineUnavailableException | IllegalArgumentException e) {
+                    throw new IOException("speakers unavailable: " + e.getMessage(), e);
+                }
+            }
+
+            public void write(byte[] pcm, int off, int len) {
+                line.write(pcm, off, len);
+            }
+
+            public void flush() {
+                if (line != null) line.flush();
+            }
+
+            public void drain() {
+                line.drain();
+            }
+
+            public void close() {
+                if (line != null) line.close();
+            }
+        };
+    }
+
+    /**
+     * A WAV file, written when the sink is closed. Paced, writes take as long as playing them
+     * would, as with the speakers.
+     */
+    public static Sink wav(File file, boolean paced) {
+        return new Sink() {
+            AudioFormat format;
+            Path raw;
+            OutputStream out;
+            double nanosPerByte;
+            long start, written;
+
+            public void open(AudioFormat f) throws IOException {
+                format = f;
+                nanosPerByte = 1e9 / (f.getFrameRate() * f.getFrameSize());
+                raw = Files.createTempFile(file.getName(), ".pcm");
+                out = new BufferedOutputStream(Files.newOutputStream(raw));
+            }
+
+            public void write(byte[] pcm, int off, int len) {
+                try {
+                    out.write(pcm, off, len);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (!paced) return;
+                long now = System.nanoTime();
+                // an idle device starts playing at once
+                if (start == 0 || start + (long) (written * nanosPerByte) < now) {
+                    start = now;
+                    written = 0;
+                }
+                written += len;
+                for (long wait; (wait = start + (long) (written * nanosPerByte) - System.nanoTime()) > 0; )
+                    LockSupport.parkNanos(wait);
+            }
+
+            public void flush() {
+            }
+
+            public void drain() {
+            }
+
+            public void close() throws IOException {
+                if (out == null) return;
+                out.close();
+                long frames = Files.size(raw) / format.getFrameSize();
+                try (AudioInputStream in = new AudioInputStream(Files.newInputStream(raw), format, frames)) {
+                    AudioSystem.write(in, AudioFileFormat.Type.WAVE, file);
+                }
+                Files.delete(raw);
+            }
+        };
+    }
+
+    // one say(): fragments played back to back
+    private static final class Request {
+        final String[] fragments;
+        final long generation;  // interrupts before it was queued
+        final long queuedAt = System.nanoTime();
+        final Trace trace = Trace.current();  // the command's, if sampled
+        volatile boolean cancelled;
+        boolean heard;
+
+        Request(String[] fragments, long generation) {
+            this.fragments = fragments;
+            this.generation = generation;
+        }
+    }
+
+    private static final Request CLOSE = new Request(new String[0], 0), WAKE = new Request(new String[0], 0);
+    private static final Stage FIRST_AUDIO = Metrics.stage("voice.first_audio", "say() to the first audio reaching the sink");
+    private static final Stage SPEAK = Metrics.stage("voice.speak", "say() to the last audio reaching the sink, uncut");
+    private static final Stage SYNTHESIZE = Metrics.stage("voice.synthesize",
+            "FreeTTS speaking a phrase not cached, into the sink");
+
+    private final Voice voice;
+    private final Sink sink;
+    private final long maxCacheBytes;
+    private final LinkedBlockingDeque<Request> queue = new LinkedBlockingDeque<>();
+    private final Map<String, byte[]> fixed = new HashMap<>();  // pre-rendered; playback thread after start
+    private final LinkedHashMap<String, byte[]> recent = new LinkedHashMap<>(16, 0.75f, true);
+    private final Queue<String> idleWork = new ConcurrentLinkedQueue<>();
+    private final Capture capture = new Capture();
+    private final SpeechPipeline.Latency firstAudio = new SpeechPipeline.Latency();
+    private final Thread player = new Thread(this::play, "speech");
+    private long recentBytes, hits, misses;
+    private volatile Request current;
+    // counts interrupt() calls, so a request taken off the queue but not yet current is cancelled too
+    private final AtomicLong interrupts = new AtomicLong();
+    private int pending;  // requests queued or playing, guarded by this
+
+    /** @param maxCacheBytes bound of the LRU of phrases synthesized on the way; pre-rendered ones are kept apart */
+    public SpeechOutput(Voice voice, Sink sink, long maxCacheBytes) {
+        this.voice = voice;
+        this.sink = sink;
+        this.maxCacheBytes = maxCacheBytes;
+        voice.setAudioPlayer(capture);
+    }
+
+    /**
+     * Renders phrases to the cache now, on the calling thread; before {@link #start} only.
+     * Opens the sink, so this is where a sink that cannot play fails.
+     */
+    public void prerender(Collection<String> phrases) throws IOException {
+        for (String p : phrases) {
+            render(p, fixed);
+            if (capture.error != null) throw capture.error;
+        }
+    }
+
+    /** Renders phrases to the cache when the playback thread has nothing to play. */
+    public void prerenderWhenIdle(Collection<String> phrases) {
+        idleWork.addAll(phrases);
+        queue.offer(WAKE);
+    }
+
+    public void start() {
+        player.setDaemon(true);
+        player.start();
+    }
+
+    /** Queues the fragments to be spoken one after the other, each cached on its own. */
+    public void say(String... fragments) {
+        synchronized (this) {
+            pending++;
+        }
+        queue.offer(new Request(fragments, interrupts.get()));
+    }
+
+    /** Drops queued speech and cuts the current request short; safe from any thread. */
+    public void interrupt() {
+        interrupts.incrementAndGet();
+        for (Request r; (r = queue.poll()) != null; ) {
+            if (r == CLOSE) {
+                queue.offerFirst(r);
+                break;
+            }
+            if (r != WAKE) done();
+        }
+        Request r = current;
+        if (r != null) r.cancelled = true;
+        sink.flush();
+    }
+
+    /** Waits until everything queued has been played. */
+    public void awaitIdle() throws InterruptedException {
+        synchronized (this) {
+            while (pending > 0) wait();
+        }
+    }
+
+    /** Plays what is queued, then stops the playback thread and closes the sink. */
+    public void close() throws InterruptedException, IOException {
+        queue.offer(CLOSE);
+        player.join();
+        sink.close();
+    }
+
+    private synchronized void done() {
+        if (--pending == 0) notifyAll();
+    }
+
+    private void play() {
+        while (true) {
+            Request r;
+            try {
+                // idle rendering goes one phrase at a time, so speech never waits long
+                r = idleWork.isEmpty() ? queue.take() : queue.poll();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (r == CLOSE) return;
+            if (r == WAKE) continue;
+            if (r == null) {
+                try {
+                    render(idleWork.poll(), fixed);
+                } catch (RuntimeException e) {
+                    System.err.println("[TTS] pre-rendering failed: " + e);
+                }
+                continue;
+            }
+            current = r;
+            // an interrupt since r was queued may have missed it, between the take above and now;
+            // one after this check finds it as current
+            if (r.generation != interrupts.get()) r.cancelled = true;
+            try {
+                for (String f : r.fragments) {
+                    if (r.cancelled) break;
+                    byte[] pcm = cached(f);
+                    if (pcm != null) {
+                        hits++;
+                        for (int off = 0; off < pcm.length && !r.cancelled; off += WRITE_CHUNK)
+                            out(r, pcm, off, Math.min(WRITE_CHUNK, pcm.length - off));
+                    } else {
+                        misses++;
+                        synthesize(r, f);
+                    }
+                    if (capture.error != null) throw new UncheckedIOException(capture.error);
+                }
+                sink.drain();
+            } catch (RuntimeException e) {
+                System.err.println("[TTS] playback failed: " + e);
+            } finally {
+                if (!r.cancelled) SPEAK.record(r.queuedAt, System.nanoTime(), r.trace);
+                current = null;
+                done();
+            }
+        }
+    }
+
+    private byte[] cached(String phrase) {
+        byte[] pcm = fixed.get(phrase);
+        return pcm != null ? pcm : recent.get(phrase);
+    }
+
+    private void out(Request r, byte[] pcm, int off, int len) {
+        if (!r.heard) {
+            r.heard = true;
+            long now = System.nanoTime();
+            firstAudio.record(now - r.queuedAt);
+            FIRST_AUDIO.record(r.queuedAt, now, r.trace);
+        }
+        sink.write(pcm, off, len);
+    }
+
+    // speaks into the sink while keeping the audio of a short phrase
+    private void synthesize(Request r, String phrase) {
+        capture.begin(r, phrase.length() <= MAX_CACHED_CHARS);
+        long t0 = SYNTHESIZE.start();
+        voice.speak(phrase);
+        SYNTHESIZE.stop(t0, r.trace);
+        byte[] pcm = capture.finish();
+        if (pcm == null) return;
+        recent.put(phrase, pcm);
+        recentBytes += pcm.length;
+        for (Iterator<byte[]> it = recent.values().iterator(); recentBytes > maxCacheBytes && it.hasNext(); ) {
+            recentBytes -= it.next().length;
+            it.remove();
+        }
+    }
+
+    private void render(String phrase, Map<String, byte[]> into) {
+        if (cached(phrase) != null) return;
+        capture.begin(null, true);
+        voice.speak(phrase);
+        byte[] pcm = capture.finish();
+        if (pcm != null) into.put(phrase, pcm);
+    }
+
+    /**
+     * FreeTTS output: passes audio on to the sink for the current request, if any, and keeps a
+     * copy when asked to. FreeTTS calls it on a thread of its own, waiting for it to finish, and
+     * waits forever if it throws; sink failures are kept in {@link #error} instead.
+     */
+    private final class Capture implements AudioPlayer {
+        private AudioFormat format;
+        private final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        private volatile Request request;
+        private volatile boolean keep, failed;
+        volatile IOException error;
+
+        void begin(Request r, boolean keep) {
+            request = r;
+            this.keep = keep;
+            failed = false;
+            copy.reset();
+        }
+
+        // the audio, or null if not kept or cut short
+        byte[] finish() {
+            Request r = request;
+            request = null;
+            if (!keep || failed || r != null && r.cancelled) return null;
+            return copy.toByteArray();
+        }
+
+        public void setAudioFormat(AudioFormat f) {
+            if (format == null) {
+                try {
+                    sink.open(f);
+                } catch (IOException e) {
+                    error = e;
+                }
+            } else if (!format.matches(f)) {
+                System.err.println("[TTS] format changed to " + f + ", keeping " + format);
+            }
+            format = f;
+        }
+
+        public AudioFormat getAudioFormat() {
+            return format;
+        }
+
+        public boolean write(byte[] audio) {
+            return write(audio, 0, audio.length);
+        }
+
+        public boolean write(byte[] audio, int off, int len) {
+            if (keep) copy.write(audio, off, len);
+            Request r = request;
+            if (r == null) return true;
+            if (error != null) return false;
+            try {
+                for (int end = off + len; off < end; off += WRITE_CHUNK) {
+                    if (r.cancelled) return false;
+                    out(r, audio, off, Math.min(WRITE_CHUNK, end - off));
+                }
+            } catch (UncheckedIOException e) {
+                error = e.getCause();
+                return false;
+            }
+            return !r.cancelled;
+        }
+
+        public void cancel() {
+            failed = true;
+        }
+
+        public void begin(int size) { }
+
+        public boolean end() {
+            return true;
+        }
+
+        public boolean drain() {
+            return true;
+        }
+
+        public void pause() { }
+
+        public void resume() { }
+
+        public void reset() { }
+
+        public void close() { }
+
+        public float getVolume() {
+            return 1f;
+        }
+
+        public void setVolume(float volume) { }
+
+        public long getTime() {
+            return 0;
+        }
+
+        public void resetTime() { }
+
+        public void startFirstSampleTimer() { }
+
+        public void showMetrics() { }
+    }
+
+    /** Cache and time-to-first-audio counts; after {@link #close}. */
+    public String report() {
+        return String.format("[TTS] %d pre-rendered, %d recent (%.1f MB); %d fragments from cache, %d synthesized; "
+                        + "time to first audio: %s", fixed.size(), recent.size(), recentBytes / 1e6, hits, misses,
+                firstAudio.summary());
+    }
+}
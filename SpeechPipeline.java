@@ -0,0 +1,463 @@
+package com.sam.voice;
+
+import com.sam.metrics.Counter;
+import com.sam.metrics.Histogram;
+import com.sam.metrics.Metrics;
+import com.sam.metrics.Stage;
+import com.sam.metrics.Trace;
+import org.vosk.Recognizer;
+
+import javax.sound.sampled.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The assistant's audio path in three stages: capture thread -> {@link AudioRing} -> recognizer
+ * thread -> command executor.
+ *
+ * The capture thread only moves audio into the ring. A real-time source never waits on the
+ * recognizer: if the ring is full the new chunk is dropped and counted. A file read as fast as
+ * possible waits for room instead and loses nothing. The recognizer thread feeds the decoder
+ * and hands each final utterance to the command executor, a virtual thread per command where
+ * the runtime has them. Partial results go to the {@link Commands} too, which may start a
+ * command before the utterance has ended; its final result then only completes the timing.
+ * Results are read with a reused {@link VoskJson}.
+ *
+ * At most one command is in flight. With barge-in on, speech heard while one runs (its first
+ * non-empty partial result) cancels it and stops the assistant talking, and the new utterance
+ * is dispatched when it ends. With barge-in off, utterances heard while busy are dropped.
+ *
+ * For real-time sources the end of each utterance is put on the wall clock from its last
+ * word's end time, and latency is measured from there to the command starting and to its first
+ * response ({@link #responded()}).
+ */
+public final class SpeechPipeline {
+    private static final int CHUNK = 1024;          // 32 ms at 16 kHz
+    private static final int RING = 1 << 17;        // about 4 s
+    private static final Stage DECODE = Metrics.stage("voice.decode", "decoder calls, per block of audio");
+    private static final Stage COMMAND = Metrics.stage("voice.command", "commands, from start to their answer spoken");
+    private static final Stage RESPONSE = Metrics.stage("voice.response",
+            "end of utterance to the command's first response, real-time sources only");
+    private static final Counter UTTERANCES = Metrics.counter("voice.utterances", "utterances recognized");
+    private static final Counter BARGE_INS = Metrics.counter("voice.barge_ins", "commands cancelled by barge-in");
+    private static final Counter DROPPED_AUDIO = Metrics.counter("voice.dropped_audio_bytes",
+            "captured audio dropped for a full ring");
+
+    /** Where audio comes from: 16-bit signed little-endian mono PCM, read by the capture thread only. */
+    public interface Source {
+        /** Reads whole frames into {@code buf}; -1 at end of stream. */
+        int read(byte[] buf) throws IOException;
+
+        /** Whether audio arrives at the speed it was spoken, starting with the first read. */
+        boolean realtime();
+
+        AudioFormat format();
+
+        void close() throws IOException;
+    }
+
+    /** The streaming recognizer, used by the recognizer thread only; Vosk's calls and JSON results. */
+    public interface Decoder {
+        boolean acceptWaveForm(byte[] data, int len);
+
+        String getResult();
+
+        String getPartialResult();
+
+        String getFinalResult();
+    }
+
+    /** Turns what was heard into commands; called on the recognizer thread. */
+    public interface Commands {
+        /** The command for a final utterance. */
+        Runnable onFinal(String text);
+
+        /** A command to start now, before the utterance ends, or null; the text is reused after the call. */
+        Runnable onPartial(CharSequence partial);
+    }
+
+    public static AudioFormat format(float sampleRate) {
+        return new AudioFormat(sampleRate, 16, 1, true, false);
+    }
+
+    /** The default microphone; capture starts with the first read. */
+    public static Source microphone(float sampleRate) throws LineUnavailableException {
+        AudioFormat format = format(sampleRate);
+        DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
+        if (!AudioSystem.isLineSupported(info))
+            throw new LineUnavailableException("microphone not supported with format " + format);
+        TargetDataLine line = (TargetDataLine) AudioSystem.getLine(info);
+        line.open(format);
+        return new Source() {
+            public int read(byte[] buf) {
+                if (!line.isActive()) line.start();
+                int n = line.read(buf, 0, buf.length);
+                return n == 0 && !line.isOpen() ? -1 : n;
+            }
+
+            public boolean realtime() {
+                return true;
+            }
+
+            public AudioFormat format() {
+                return format;
+            }
+
+            public void close() {
+                line.close();
+            }
+        };
+    }
+
+    /**
+     * A WAV file, converted to the recognizer's format where Java Sound can. Paced, each chunk is
+     * delivered once it would have been fully spoken, as from a microphone.
+     */
+    public static Source wav(File file, float sampleRate, boolean paced) throws IOException,
+            UnsupportedAudioFileException {
+        AudioInputStream in = AudioSystem.getAudioInputStream(file);
+        AudioFormat want = format(sampleRate);
+        if (!in.getFormat().matches(want)) {
+            if (!AudioSystem.isConversionSupported(want, in.getFormat())) {
+                in.close();
+                throw new UnsupportedAudioFileException(file + ": need " + want + ", got " + in.getFormat());
+            }
+            in = AudioSystem.getAudioInputStream(want, in);
+        }
+        AudioInputStream audio = in;
+        double nanosPerByte = 1e9 / (sampleRate * 2);
+        return new Source() {
+            long start, sent;
+
+            public int read(byte[] buf) throws IOException {
+                if (start == 0) start = System.nanoTime();
+                int n = audio.readNBytes(buf, 0, buf.length);
+                if (n <= 0) return -1;
+                if (paced) {
+                    sent += n;
+                    long due = start + (long) (sent * nanosPerByte);
+                    for (long wait; (wait = due - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted(); )
+                        LockSupport.parkNanos(wait);
+                }
+                return n;
+            }
+
+            public boolean realtime() {
+                return paced;
+            }
+
+            public AudioFormat format() {
+                return want;
+            }
+
+            public void close() throws IOException {
+                audio.close();
+            }
+        };
+    }
+
+    public static Decoder vosk(Recognizer r) {
+        return new Decoder() {
+            public boolean acceptWaveForm(byte[] data, int len) {
+                return r.acceptWaveForm(data, len);
+            }
+
+            public String getResult() {
+                return r.getResult();
+            }
+
+            public String getPartialResult() {
+                return r.getPartialResult();
+            }
+
+            public String getFinalResult() {
+                return r.getFinalResult();
+            }
+        };
+    }
+
+    /** Command executor: a virtual thread per task on Java 21+, else a cached pool of daemon threads. */
+    static ExecutorService commandExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger n = new AtomicInteger();
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "command-" + n.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    // the command running on the current thread, for responded()
+    private static final ThreadLocal<Dispatch> DISPATCH = new ThreadLocal<>();
+
+    // timing of one command; the end of its utterance may only be known after it started
+    private static final class Dispatch {
+        final SpeechPipeline pipeline;
+        final Trace trace = Trace.sample("voice.command");
+        private long utteranceEnd, started, responded;  // wall clock nanos, 0 until known
+
+        Dispatch(SpeechPipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        synchronized void started() {
+            started = System.nanoTime();
+            if (utteranceEnd != 0) pipeline.toDispatch.record(started - utteranceEnd);
+        }
+
+        synchronized void responded() {
+            if (responded != 0) return;
+            responded = System.nanoTime();
+            if (utteranceEnd != 0) response(responded - utteranceEnd);
+        }
+
+        synchronized void ended(long at) {
+            if (at == 0) return;
+            utteranceEnd = at;
+            if (started != 0) pipeline.toDispatch.record(started - at);
+            if (responded != 0) response(responded - at);
+            // end of speech to the final result: end-pointing and the last decode
+            if (trace != null) trace.span("voice.recognize", at, System.nanoTime());
+        }
+
+        private void response(long nanos) {
+            pipeline.toResponse.record(nanos);
+            // not before the utterance ended, for commands started early
+            if (nanos >= 0) RESPONSE.record(nanos);
+        }
+    }
+
+    private final Source source;
+    private final Decoder decoder;
+    private final Commands handler;
+    private final Runnable onBargeIn;
+    private final boolean bargeIn, realtime;
+    private final AudioRing ring = new AudioRing(RING);
+    private final ExecutorService commands = commandExecutor();
+    private final Latency toDispatch = new Latency(), toResponse = new Latency();
+    private Thread captureThread, recognizerThread;
+    private volatile boolean stopped;
+    private volatile long audioStart;
+    private volatile long capturedBytes, droppedBytes;
+    // recognizer thread only
+    private final VoskJson result = new VoskJson(), partial = new VoskJson();
+    private Future<?> running;
+    private Dispatch early;  // command started from a partial of the current utterance
+    private boolean bargedIn;
+    private long utterances, ignored, bargeIns, earlyStarts;
+
+    /**
+     * @param handler   makes commands of final and partial results, run on the command executor
+     * @param onBargeIn stops speech output when a command is cancelled by barge-in
+     */
+    public SpeechPipeline(Source source, Decoder decoder, Commands handler, Runnable onBargeIn, boolean bargeIn) {
+        this.source = source;
+        this.decoder = decoder;
+        this.handler = handler;
+        this.onBargeIn = onBargeIn;
+        this.bargeIn = bargeIn;
+        this.realtime = source.realtime();
+    }
+
+    /** Runs until the source ends or {@link #stop} is called, then waits for the last command. */
+    public void run() throws InterruptedException {
+        captureThread = new Thread(this::capture, "capture");
+        recognizerThread = new Thread(this::recognize, "recognizer");
+        captureThread.start();
+        recognizerThread.start();
+        recognizerThread.join();
+        captureThread.join();
+        commands.shutdown();
+        commands.awaitTermination(1, TimeUnit.MINUTES);
+        try {
+            source.close();
+        } catch (IOException e) {
+            System.err.println("[Pipeline] close failed: " + e.getMessage());
+        }
+    }
+
+    /** Stops capture and recognition; safe from any thread, a command included. */
+    public void stop() {
+        stopped = true;
+        ring.close();
+        if (captureThread != null) captureThread.interrupt();
+    }
+
+    /** Marks the current command's first response; call from command code before it speaks or acts. */
+    public static void responded() {
+        Dispatch d = DISPATCH.get();
+        if (d != null) d.responded();
+    }
+
+    private void capture() {
+        byte[] buf = new byte[CHUNK];
+        try {
+            audioStart = System.nanoTime();
+            for (int n; !stopped && (n = source.read(buf)) >= 0; ) {
+                capturedBytes += n;
+                if (realtime) {
+                    if (!ring.offer(buf, 0, n)) {
+                        droppedBytes += n;
+                        DROPPED_AUDIO.add(n);
+                    }
+                } else if (!ring.put(buf, 0, n)) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            if (!stopped) System.err.println("[Pipeline] capture failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            // stopped
+        } finally {
+            ring.close();
+        }
+    }
+
+    private void recognize() {
+        byte[] buf = new byte[4 * CHUNK];
+        try {
+            for (int n; (n = ring.read(buf, 0, buf.length)) >= 0 && !stopped; ) {
+                long t0 = DECODE.start();
+                boolean end = decoder.acceptWaveForm(buf, n);
+                DECODE.stop(t0);
+                result(end, end ? decoder.getResult() : decoder.getPartialResult());
+            }
+            if (!stopped) result(true, decoder.getFinalResult());
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (RuntimeException e) {
+            // the decoder failed; nothing more can be recognized
+            System.err.println("[Pipeline] recognizer failed: " + e);
+        } finally {
+            // a file source waiting for room in the ring would otherwise wait forever
+            ring.close();
+        }
+    }
+
+    // a result whose command cannot be made costs that result, not the pipeline
+    private void result(boolean end, String json) {
+        try {
+            if (end) utterance(json);
+            else partial(json);
+        } catch (RuntimeException e) {
+            System.err.println("[Pipeline] " + (end ? "utterance" : "partial result") + " failed: " + e);
+        }
+    }
+
+    private void partial(String json) {
+        if (!partial.read(json) || partial.text.length() == 0) return;
+        if (busy() && !bargedIn) {
+            if (!bargeIn) return;
+            bargedIn = true;
+            bargeIns++;
+            BARGE_INS.inc();
+            cancel();
+        }
+        if (early != null) return;
+        Runnable command = handler.onPartial(partial.text);
+        if (command != null) {
+            early = dispatch(command);
+            earlyStarts++;
+            // the rest of this utterance must not barge in on its own command
+            bargedIn = true;
+        }
+    }
+
+    private void utterance(String json) {
+        bargedIn = false;
+        Dispatch started = early;
+        early = null;
+        if (!result.read(json)) System.err.println("[Pipeline] bad recognizer result: " + json);
+        String text = result.text.toString().trim();
+        if (text.isEmpty()) return;
+        utterances++;
+        UTTERANCES.inc();
+        long end = realtime && !Double.isNaN(result.end) ? audioStart + (long) (result.end * 1e9) : 0;
+        if (started != null) {
+            System.out.println("[Heard] " + text + " (started early)");
+            started.ended(end);
+            return;
+        }
+        System.out.println("[Heard] " + text);
+        if (busy()) {
+            if (!bargeIn) {
+                ignored++;
+                System.out.println("[Pipeline] busy, ignored: " + text);
+                return;
+            }
+            cancel();
+        }
+        dispatch(handler.onFinal(text)).ended(end);
+    }
+
+    private Dispatch dispatch(Runnable command) {
+        Dispatch d = new Dispatch(this);
+        running = commands.submit(() -> {
+            d.started();
+            DISPATCH.set(d);
+            if (d.trace != null) d.trace.attach();
+            long t0 = COMMAND.start();
+            try {
+                command.run();
+            } finally {
+                COMMAND.stop(t0);
+                Trace.end(d.trace);
+                DISPATCH.remove();
+            }
+        });
+        return d;
+    }
+
+    private boolean busy() {
+        return running != null && !running.isDone();
+    }
+
+    private void cancel() {
+        running.cancel(true);
+        onBargeIn.run();
+    }
+
+    /** Audio, utterance and latency counts. */
+    public String report() {
+        AudioFormat f = source.format();
+        double bytesPerSecond = f.getFrameRate() * f.getFrameSize();
+        StringBuilder sb = new StringBuilder(String.format(
+                "[Pipeline] audio %.1f s, dropped %.0f ms; %d utterances, %d started early, %d ignored while busy, "
+                        + "%d barge-ins%n", capturedBytes / bytesPerSecond, droppedBytes * 1000 / bytesPerSecond,
+                utterances, earlyStarts, ignored, bargeIns));
+        if (realtime) {
+            // negative for commands started before the utterance ended
+            sb.append("[Pipeline] end of utterance -> command start: ").append(toDispatch.summary()).append('\n');
+            sb.append("[Pipeline] end of utterance -> first response: ").append(toResponse.summary()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Latencies of the run in a {@link Histogram}, so a long run takes constant space; percentiles
+     * are within 1.6% of a recorded value. Records whether metrics are on or not.
+     */
+    static final class Latency {
+        private final Histogram nanos = new Histogram();
+        private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+
+        void record(long t) {
+            nanos.record(t);
+            if (t < min.get()) min.accumulateAndGet(Math.max(t, 0), Math::min);
+        }
+
+        String summary() {
+            Histogram.Snapshot h = nanos.snapshot();
+            if (h.count == 0) return "none";
+            return String.format("%d, min %.1f ms, p50 %.1f ms, p99 %.1f ms, max %.1f ms", h.count, min.get() / 1e6,
+                    h.percentile(0.5) / 1e6, h.percentile(0.99) / 1e6, h.max / 1e6);
+        }
+    }
+}
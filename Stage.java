@@ -0,0 +1,64 @@
+package com.sam.metrics;
+
+/**
+ * Latency of one stage of an engine, such as "chatbot.respond", as a {@link Histogram} of
+ * nanoseconds; its count gives the throughput.
+ *
+ * <pre>
+ * private static final Stage RESPOND = Metrics.stage("chatbot.respond", "Chatbot.respond calls");
+ *
+ * long t0 = RESPOND.start();
+ * ...
+ * RESPOND.stop(t0);
+ * </pre>
+ *
+ * While metrics are off {@link #start} returns 0 without reading the clock and {@link #stop}
+ * returns at once. On a thread running a sampled {@link Trace}, stop also adds a span to it.
+ */
+public final class Stage {
+    final String name, help;
+    final Histogram histogram = new Histogram();
+
+    Stage(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** The start time to pass to {@link #stop}, or 0 while metrics are off. */
+    public long start() {
+        // a clock reading of exactly 0 loses one sample
+        return Metrics.enabled ? System.nanoTime() : 0;
+    }
+
+    public void stop(long start) {
+        if (start != 0) end(start, System.nanoTime(), Trace.current());
+    }
+
+    /** As {@link #stop(long)}, for work traced on behalf of another thread's trace. */
+    public void stop(long start, Trace trace) {
+        if (start != 0) end(start, System.nanoTime(), trace);
+    }
+
+    /** Records a stage the caller timed itself; nothing while metrics are off. */
+    public void record(long start, long end, Trace trace) {
+        if (Metrics.enabled) end(start, end, trace);
+    }
+
+    /** Records a duration the caller measured; nothing while metrics are off. */
+    public void record(long nanos) {
+        if (Metrics.enabled) histogram.record(nanos);
+    }
+
+    private void end(long start, long end, Trace trace) {
+        histogram.record(end - start);
+        if (trace != null) trace.span(name, start, end);
+    }
+
+    public Histogram.Snapshot snapshot() {
+        return histogram.snapshot();
+    }
+}
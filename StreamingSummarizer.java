@@ -0,0 +1,160 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * TextRank over inputs too long to hold in memory, read from a {@link Reader} or file.
+ *
+ * Sentences are split incrementally, with the same boundaries as {@link TextSummarizer}
+ * (whitespace after . ! or ?), and ranked a window at a time. Each full window contributes
+ * its best {@code carry} sentences to a candidate pool, and when the pool itself fills a
+ * window it is re-ranked and halved; the final summary is ranked over the pool. Memory is
+ * therefore bounded by about two windows of sentences however long the input is, plus the
+ * input as read while it has no more sentences than were asked for. An input that fits in one
+ * window is ranked in a single pass and yields the same sentences as
+ * {@link TextSummarizer#summarize(String, int)}, and one with no more sentences than asked
+ * for comes back unchanged, as from there.
+ *
+ * Instances hold only settings and may be shared between threads.
+ */
+public class StreamingSummarizer {
+    // longer runs without a sentence boundary are cut so one line cannot exhaust memory
+    static final int MAX_SENTENCE_CHARS = 1 << 16;
+
+    private final int windowSize;
+    private final int carry;
+    private final boolean leadBiased;
+
+    public StreamingSummarizer() {
+        this(2000, 64, false);
+    }
+
+    /**
+     * @param windowSize sentences ranked together
+     * @param carry      candidates each window passes on (at least the requested summary length)
+     * @param leadBiased prefer earlier sentences by their position in the whole input
+     */
+    public StreamingSummarizer(int windowSize, int carry, boolean leadBiased) {
+        if (windowSize < 2 || carry < 1 || carry >= windowSize)
+            throw new IllegalArgumentException("need windowSize >= 2 and 1 <= carry < windowSize");
+        this.windowSize = windowSize;
+        this.carry = carry;
+        this.leadBiased = leadBiased;
+    }
+
+    public String summarize(Path file, int numSentences) throws IOException {
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return summarize(in, numSentences);
+        }
+    }
+
+    /**
+     * The numSentences best sentences in input order, joined by single spaces; the input itself
+     * if it has no more than numSentences sentences.
+     */
+    public String summarize(Reader in, int numSentences) throws IOException {
+        if (numSentences >= windowSize) throw new IllegalArgumentException("numSentences must be below windowSize");
+        Stage window = new Stage(), pool = new Stage();
+        int keep = Math.max(carry, numSentences);
+        long[] position = {0};
+        // the input as read, until it has more than numSentences sentences
+        StringBuilder[] whole = {new StringBuilder()};
+        Reader recorded = new FilterReader(in) {
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                int n = super.read(cbuf, off, len);
+                if (n > 0 && whole[0] != null) whole[0].append(cbuf, off, n);
+                return n;
+            }
+        };
+        sentences(recorded, MAX_SENTENCE_CHARS, s -> {
+            // a full window is only passed on once another sentence follows, so an input that
+            // fits one window is still ranked in a single pass
+            if (window.size() == windowSize) {
+                pool.addAll(window.top(keep, leadBiased));
+                window.clear();
+                if (pool.size() >= windowSize) {
+                    Stage kept = pool.top(Math.max(keep, windowSize / 2), leadBiased);
+                    pool.clear();
+                    pool.addAll(kept);
+                }
+            }
+            window.add(s, position[0]++);
+            if (position[0] > numSentences) whole[0] = null;
+        });
+        if (whole[0] != null) return whole[0].toString();
+        // a short input never reaches the pool and is ranked in one pass
+        Stage last = pool.size() == 0 ? window : pool;
+        if (last != window) last.addAll(window.size() > keep ? window.top(keep, leadBiased) : window);
+        Stage best = last.top(numSentences, leadBiased);
+        return String.join(" ", best.text);
+    }
+
+    // sentences with their positions in the input, in input order
+    private static final class Stage {
+        final List<String> text = new ArrayList<>();
+        long[] pos = new long[16];
+
+        int size() {
+            return text.size();
+        }
+
+        void add(String s, long p) {
+            if (text.size() == pos.length) pos = Arrays.copyOf(pos, pos.length * 2);
+            pos[text.size()] = p;
+            text.add(s);
+        }
+
+        void addAll(Stage other) {
+            for (int i = 0; i < other.size(); i++) add(other.text.get(i), other.pos[i]);
+        }
+
+        void clear() {
+            text.clear();
+        }
+
+        Stage top(int k, boolean leadBiased) {
+            double[] p = null;
+            if (leadBiased) {
+                p = new double[size()];
+                for (int i = 0; i < p.length; i++) p[i] = 1.0 / (pos[i] + 1);
+            }
+            Stage out = new Stage();
+            for (int i : TextSummarizer.topSentences(text, k, p)) out.add(text.get(i), pos[i]);
+            return out;
+        }
+    }
+
+    /**
+     * Splits the input into trimmed, non-empty sentences as it is read, ending a sentence at the
+     * whitespace following . ! or ?, or after maxChars characters.
+     */
+    static void sentences(Reader in, int maxChars, Consumer<String> sink) throws IOException {
+        StringBuilder cur = new StringBuilder();
+        char[] buf = new char[8192];
+        char prev = 0;
+        for (int n; (n = in.read(buf)) != -1; ) {
+            for (int i = 0; i < n; i++) {
+                char c = buf[i];
+                if (isSpace(c) && (prev == '.' || prev == '!' || prev == '?')) emit(cur, sink);
+                else if (cur.length() == maxChars) emit(cur, sink);
+                cur.append(c);
+                prev = c;
+            }
+        }
+        emit(cur, sink);
+    }
+
+    private static void emit(StringBuilder cur, Consumer<String> sink) {
+        String s = cur.toString().trim();
+        cur.setLength(0);
+        if (!s.isEmpty()) sink.accept(s);
+    }
+
+    // the characters of the regex class \s
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
@@ -0,0 +1,92 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Summarizes every file under a directory with {@link StreamingSummarizer}, writing
+ * {@code <name>.summary.txt} for each into the output directory (mirroring subdirectories).
+ *
+ * Files are handed to a fixed pool of workers with at most 4 x threads jobs in flight; beyond
+ * that the directory walk blocks, so a huge input tree is never queued up in memory. Progress
+ * and the final documents/s are printed to stdout; failures are reported per file and do not
+ * stop the run.
+ *
+ * Usage: java SummarizerBatch <inputDir> <outputDir> [sentences] [threads] [windowSize]
+ */
+public class SummarizerBatch {
+    private static final String USAGE = "Usage: java SummarizerBatch <inputDir> <outputDir> [sentences] [threads] [windowSize]";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) usage(null);
+        Path inDir = Paths.get(args[0]), outDir = Paths.get(args[1]);
+        int sentences = 3, threads = Runtime.getRuntime().availableProcessors(), window = 2000;
+        try {
+            if (args.length > 2) sentences = Integer.parseInt(args[2]);
+            if (args.length > 3) threads = Integer.parseInt(args[3]);
+            if (args.length > 4) window = Integer.parseInt(args[4]);
+        } catch (NumberFormatException e) {
+            usage("not a number: " + e.getMessage());
+        }
+        // checked up front: otherwise every file fails on its own, or the constructor throws
+        if (window < 2) usage("windowSize must be at least 2");
+        if (sentences < 1 || sentences >= window) usage("sentences must be between 1 and windowSize - 1");
+        if (threads < 1) usage("threads must be at least 1");
+        StreamingSummarizer summarizer = new StreamingSummarizer(window, Math.min(64, window / 2), false);
+        run(summarizer, inDir, outDir, sentences, threads);
+    }
+
+    private static void usage(String problem) {
+        if (problem != null) System.err.println("[SummarizerBatch] " + problem);
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+
+    /** Returns the number of documents summarized. */
+    public static long run(StreamingSummarizer summarizer, Path inDir, Path outDir, int sentences, int threads)
+            throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        // permits bound queued plus running jobs; the directory walk blocks on them
+        Semaphore inFlight = new Semaphore(threads * 4);
+        AtomicLong done = new AtomicLong(), failed = new AtomicLong(), bytes = new AtomicLong();
+        long start = System.nanoTime();
+        try (Stream<Path> files = Files.walk(inDir)) {
+            Iterator<Path> it = files.filter(Files::isRegularFile).iterator();
+            while (it.hasNext()) {
+                Path file = it.next();
+                inFlight.acquire();
+                pool.execute(() -> {
+                    try {
+                        Path out = outDir.resolve(inDir.relativize(file).toString() + ".summary.txt");
+                        Files.createDirectories(out.getParent());
+                        Files.writeString(out, summarizer.summarize(file, sentences) + System.lineSeparator(),
+                                StandardCharsets.UTF_8);
+                        bytes.addAndGet(Files.size(file));
+                        long n = done.incrementAndGet();
+                        if (n % 1000 == 0) System.out.printf("%d documents, %.1f docs/s%n", n, rate(n, start));
+                    } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+                        failed.incrementAndGet();
+                        System.err.println("[SummarizerBatch] " + file + ": " + e);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        }
+        long n = done.get();
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Summarized %d documents (%d failed, %.1f MB) in %.1f s: %.1f docs/s, %.1f MB/s on %d threads%n",
+                n, failed.get(), bytes.get() / 1e6, secs, n / secs, bytes.get() / 1e6 / secs, threads);
+        return n;
+    }
+
+    private static double rate(long n, long start) {
+        return n / ((System.nanoTime() - start) / 1e9);
+    }
+}
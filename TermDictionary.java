@@ -0,0 +1,117 @@
+import java.util.Arrays;
+
+/**
+ * Open-addressing term -> id dictionary keyed on the term's characters.
+ *
+ * Terms are stored back to back in one char pool and looked up straight from a char range,
+ * so resolving a token allocates nothing. Ids are dense and assigned in insertion order. The
+ * hash is String.hashCode over the characters, spread by {@link #spread}, which the term
+ * table of the index file uses too.
+ *
+ * Lookups may run concurrently once no more terms are being added; {@link #intern} is
+ * single-writer.
+ */
+public final class TermDictionary implements Tokenizer.TermLookup {
+    private int[] slots;   // id + 1, 0 = empty
+    private int[] hashes;  // per id
+    private int[] offsets; // per id, start in pool; offsets[size] = end
+    private char[] pool;
+    private int size;
+
+    public TermDictionary() {
+        this(16);
+    }
+
+    public TermDictionary(int expected) {
+        int cap = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        slots = new int[cap];
+        hashes = new int[Math.max(4, expected)];
+        offsets = new int[hashes.length + 1];
+        pool = new char[hashes.length * 8];
+    }
+
+    static int hash(char[] buf, int off, int len) {
+        int h = 0;
+        for (int i = 0; i < len; i++) h = 31 * h + buf[off + i];
+        return spread(h);
+    }
+
+    // high bits folded into the low ones that pick a slot
+    static int spread(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String term(int id) {
+        return new String(pool, offsets[id], offsets[id + 1] - offsets[id]);
+    }
+
+    @Override
+    public int id(char[] buf, int off, int len) {
+        return lookup(buf, off, len);
+    }
+
+    /** Id of the term, or -1 if absent. */
+    public int lookup(char[] buf, int off, int len) {
+        return find(buf, off, len, hash(buf, off, len), false);
+    }
+
+    public int lookup(String term) {
+        char[] c = term.toCharArray();
+        return lookup(c, 0, c.length);
+    }
+
+    /** Id of the term, adding it with the next id if absent. */
+    public int intern(char[] buf, int off, int len) {
+        return find(buf, off, len, hash(buf, off, len), true);
+    }
+
+    public int intern(String term) {
+        char[] c = term.toCharArray();
+        return intern(c, 0, c.length);
+    }
+
+    private int find(char[] buf, int off, int len, int h, boolean add) {
+        int mask = slots.length - 1;
+        int slot = h & mask;
+        for (int e; (e = slots[slot]) != 0; slot = (slot + 1) & mask) {
+            int id = e - 1;
+            if (hashes[id] == h && equals(id, buf, off, len)) return id;
+        }
+        if (!add) return -1;
+        int id = size++;
+        if (id == hashes.length) {
+            hashes = Arrays.copyOf(hashes, id * 2);
+            offsets = Arrays.copyOf(offsets, id * 2 + 1);
+        }
+        int start = offsets[id];
+        if (start + len > pool.length) pool = Arrays.copyOf(pool, Math.max(pool.length * 2, start + len));
+        System.arraycopy(buf, off, pool, start, len);
+        offsets[id + 1] = start + len;
+        hashes[id] = h;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) rehash();
+        return id;
+    }
+
+    private boolean equals(int id, char[] buf, int off, int len) {
+        int start = offsets[id];
+        if (offsets[id + 1] - start != len) return false;
+        for (int i = 0; i < len; i++) if (pool[start + i] != buf[off + i]) return false;
+        return true;
+    }
+
+    private void rehash() {
+        int[] next = new int[slots.length * 2];
+        int mask = next.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (next[slot] != 0) slot = (slot + 1) & mask;
+            next[slot] = id + 1;
+        }
+        slots = next;
+    }
+}
@@ -1,81 +1,106 @@
+import com.sam.metrics.Metrics;
+import com.sam.metrics.Stage;
+import com.sam.metrics.Trace;
+
 import java.util.*;
 import java.util.stream.Collectors;
 
 public class TextSummarizer {
 
-    private static List<String> splitSentences(String text) {
+    static List<String> splitSentences(String text) {
         // naive split (replace with OpenNLP for production)
         return Arrays.stream(text.split("(?<=[.!?])\\s+"))
                 .map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toList());
     }
 
-    private static List<String> tokenize(String s) {
-        return Arrays.stream(s.toLowerCase().replaceAll("[^a-z0-9 ]", " ").split("\\s+"))
-                .filter(t -> t.length() > 0).collect(Collectors.toList());
+    // sorted term ids and counts of every sentence, tokenized once against one dictionary
+    static int[][][] termVectors(List<String> sentences) {
+        TermDictionary dict = new TermDictionary();
+        Tokenizer.TermLookup intern = dict::intern;
+        Tokenizer tk = Tokenizer.get();
+        int n = sentences.size();
+        int[][] terms = new int[n][], counts = new int[n][];
+        for (int i = 0; i < n; i++) {
+            int len = tk.tokenize(sentences.get(i), intern);
+            ChatIndex.countTerms(tk.ids(), len, terms, counts, i);
+        }
+        return new int[][][] { terms, counts };
+    }
+
+    static final double DAMPING = 0.85;
+    static final double TOLERANCE = 1e-9;
+    static final int MAX_ITER = 200;
+    // similarity graph sparsity: weaker edges are dropped, stronger ones capped per sentence
+    static final double MIN_SIMILARITY = 0.05;
+    static final int MAX_DEGREE = 64;
+
+    private static final Stage SUMMARIZE = Metrics.stage("summarizer.summarize", "TextSummarizer.summarize calls");
+    private static final Stage SPLIT = Metrics.stage("summarizer.split", "sentence splitting");
+    private static final Stage VECTORS = Metrics.stage("summarizer.vectors", "sentence tokenizing and term counts");
+    private static final Stage GRAPH = Metrics.stage("summarizer.graph", "similarity graph builds");
+    private static final Stage RANK = Metrics.stage("summarizer.rank", "PageRank over the sentence graph");
+
+    /** Teleport weights decaying as 1/(i+1), biasing the ranking toward leading sentences. */
+    public static double[] leadBias(int n) {
+        double[] p = new double[n];
+        for (int i = 0; i < n; i++) p[i] = 1.0 / (i + 1);
+        return p;
     }
 
-    private static double sentenceSimilarity(String s1, String s2) {
-        List<String> t1 = tokenize(s1), t2 = tokenize(s2);
-        if (t1.isEmpty() || t2.isEmpty()) return 0.0;
-        Set<String> words = new HashSet<>();
-        words.addAll(t1); words.addAll(t2);
-        double[] v1 = new double[words.size()], v2 = new double[words.size()];
-        int idx = 0;
-        Map<String, Integer> idxMap = new HashMap<>();
-        for (String w : words) idxMap.put(w, idx++);
-        for (String w : t1) v1[idxMap.get(w)]++;
-        for (String w : t2) v2[idxMap.get(w)]++;
-        // cosine
-        double dot=0, n1=0, n2=0;
-        for (int i=0;i<v1.length;i++) { dot += v1[i]*v2[i]; n1 += v1[i]*v1[i]; n2 += v2[i]*v2[i]; }
-        if (n1==0 || n2==0) return 0.0;
-        return dot / (Math.sqrt(n1)*Math.sqrt(n2));
+    public static String summarize(String text, int numSentences) {
+        return summarize(text, numSentences, false);
     }
 
-    private static double[] pagerank(double[][] M, double d, int iter) {
-        int N = M.length;
-        double[] pr = new double[N];
-        Arrays.fill(pr, 1.0 / N);
-        for (int it = 0; it < iter; it++) {
-            double[] newpr = new double[N];
-            for (int i = 0; i < N; i++) {
-                double sum = 0;
-                for (int j = 0; j < N; j++) {
-                    double out = 0;
-                    double rowSum = 0;
-                    for (int k = 0; k < N; k++) rowSum += M[j][k];
-                    if (rowSum != 0) out = M[j][i] / rowSum;
-                    sum += pr[j] * out;
-                }
-                newpr[i] = (1 - d) / N + d * sum;
-            }
-            pr = newpr;
+    /** @param leadBiased prefer earlier sentences, see {@link #leadBias} */
+    public static String summarize(String text, int numSentences, boolean leadBiased) {
+        Trace trace = Trace.begin("summarizer.summarize");
+        long t0 = SUMMARIZE.start();
+        try {
+            long t = SPLIT.start();
+            List<String> sentences = splitSentences(text);
+            SPLIT.stop(t);
+            int N = sentences.size();
+            if (N <= numSentences) return text;
+            int[] selected = topSentences(sentences, numSentences, leadBiased ? leadBias(N) : null);
+            StringBuilder sb = new StringBuilder();
+            for (int i : selected) sb.append(sentences.get(i)).append(" ");
+            return sb.toString().trim();
+        } finally {
+            SUMMARIZE.stop(t0);
+            Trace.end(trace);
         }
-        return pr;
     }
 
-    public static String summarize(String text, int numSentences) {
-        List<String> sentences = splitSentences(text);
+    /**
+     * Indices of the k best-ranked sentences in document order; ties go to the earlier one.
+     *
+     * @param personalization teleport weight per sentence, or null for uniform
+     */
+    static int[] topSentences(List<String> sentences, int k, double[] personalization) {
         int N = sentences.size();
-        if (N <= numSentences) return text;
-        double[][] sim = new double[N][N];
-        for (int i = 0; i < N; i++) for (int j = 0; j < N; j++)
-            sim[i][j] = sentenceSimilarity(sentences.get(i), sentences.get(j));
-        double[] scores = pagerank(sim, 0.85, 50);
+        if (k >= N) {
+            int[] all = new int[N];
+            for (int i = 0; i < N; i++) all[i] = i;
+            return all;
+        }
+        long t = VECTORS.start();
+        int[][][] vec = termVectors(sentences);
+        VECTORS.stop(t);
+        int[][] terms = vec[0], counts = vec[1];
+        t = GRAPH.start();
+        PageRank graph = SimilarityGraph.build(terms, counts, MIN_SIMILARITY, MAX_DEGREE);
+        GRAPH.stop(t);
+        t = RANK.start();
+        double[] scores = graph.rank(DAMPING, TOLERANCE, MAX_ITER, personalization);
+        RANK.stop(t);
         // pick top indices
         Integer[] idx = new Integer[N];
         for (int i = 0;i<N;i++) idx[i]=i;
         Arrays.sort(idx, (a,b) -> Double.compare(scores[b], scores[a]));
-        Arrays.sort(Arrays.copyOf(idx, numSentences)); // to preserve order - we'll sort selected later
-        Set<Integer> selected = new TreeSet<>();
-        for (int i=0;i<numSentences;i++) selected.add(idx[i]);
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < N; i++) {
-            if (selected.contains(i)) {
-                sb.append(sentences.get(i)).append(" ");
-            }
-        }
-        return sb.toString().trim();
+        int[] selected = new int[k];
+        for (int i = 0; i < k; i++) selected[i] = idx[i];
+        Arrays.sort(selected);
+        return selected;
     }
 
     // quick demo
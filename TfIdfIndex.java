@@ -0,0 +1,93 @@
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.*;
+
+/**
+ * Heap-resident {@link ChatIndex} built from the question/answer lists.
+ * IDF, postings and document norms are computed once in {@link #build}.
+ */
+public class TfIdfIndex extends ChatIndex {
+    private final TermDictionary vocab;
+    private final List<String> questions;
+    private final List<String> answers;
+
+    private TfIdfIndex(TermDictionary vocab, double[] idf, int[] postStart,
+                       int[] postDocs, int[] postTf, double[] norms, int[] docStart, int[] docTerms,
+                       int[] docTfs, List<String> questions, List<String> answers) {
+        super(answers.size(), DoubleBuffer.wrap(idf), IntBuffer.wrap(postStart), IntBuffer.wrap(postDocs),
+              IntBuffer.wrap(postTf), DoubleBuffer.wrap(norms), IntBuffer.wrap(docStart),
+              IntBuffer.wrap(docTerms), IntBuffer.wrap(docTfs));
+        this.vocab = vocab;
+        this.questions = questions;
+        this.answers = answers;
+    }
+
+    /** Builds the index from lowercased questions and their answers (same order). */
+    public static TfIdfIndex build(List<String> docs, List<String> answers) {
+        int n = docs.size();
+        if (answers.size() != n) throw new IllegalArgumentException("docs and answers differ in size");
+        TermDictionary vocab = new TermDictionary();
+        Tokenizer.TermLookup intern = vocab::intern;
+        Tokenizer tk = Tokenizer.get();
+        int[][] docTerms = new int[n][];
+        int[][] docTfs = new int[n][];
+        for (int d = 0; d < n; d++) {
+            int len = tk.tokenize(docs.get(d), intern);
+            countTerms(tk.ids(), len, docTerms, docTfs, d);
+        }
+        int vocabSize = vocab.size();
+
+        int[] df = new int[vocabSize];
+        for (int[] ts : docTerms) for (int t : ts) df[t]++;
+        double[] idf = new double[vocabSize];
+        for (int t = 0; t < vocabSize; t++) idf[t] = Math.log((n + 1.0) / (df[t] + 1.0)) + 1.0;
+
+        int[] postStart = new int[vocabSize + 1];
+        for (int t = 0; t < vocabSize; t++) postStart[t + 1] = postStart[t] + df[t];
+        int[] fill = Arrays.copyOf(postStart, vocabSize);
+        int[] postDocs = new int[postStart[vocabSize]];
+        int[] postTf = new int[postStart[vocabSize]];
+        double[] norms = new double[n];
+        int[] docStart = new int[n + 1];
+        int[] fwdTerms = new int[postDocs.length], fwdTfs = new int[postDocs.length];
+        for (int d = 0; d < n; d++) {
+            int[] ts = docTerms[d], tfs = docTfs[d];
+            double sq = 0;
+            for (int i = 0; i < ts.length; i++) {
+                int t = ts[i];
+                double w = tfs[i] * idf[t];
+                sq += w * w;
+                postDocs[fill[t]] = d;
+                postTf[fill[t]++] = tfs[i];
+            }
+            norms[d] = Math.sqrt(sq);
+            System.arraycopy(ts, 0, fwdTerms, docStart[d], ts.length);
+            System.arraycopy(tfs, 0, fwdTfs, docStart[d], ts.length);
+            docStart[d + 1] = docStart[d] + ts.length;
+        }
+        return new TfIdfIndex(vocab, idf, postStart, postDocs, postTf, norms,
+                docStart, fwdTerms, fwdTfs,
+                Collections.unmodifiableList(new ArrayList<>(docs)),
+                Collections.unmodifiableList(new ArrayList<>(answers)));
+    }
+
+    @Override
+    public int termId(char[] buf, int off, int len) {
+        return vocab.lookup(buf, off, len);
+    }
+
+    @Override
+    public String term(int id) {
+        return vocab.term(id);
+    }
+
+    @Override
+    public String question(int doc) {
+        return questions.get(doc);
+    }
+
+    @Override
+    public String answer(int doc) {
+        return answers.get(doc);
+    }
+}
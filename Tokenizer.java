@@ -0,0 +1,80 @@
+import java.util.*;
+
+/**
+ * Single-pass tokenizer shared by {@link Chatbot} and {@link TextSummarizer}.
+ *
+ * A token is a maximal run of [a-z0-9] after lowercasing, which is exactly what the former
+ * {@code s.toLowerCase().replaceAll("[^a-z0-9 ]", " ").split("\\s+")} produced once empty
+ * strings are dropped. Characters are lowercased one at a time as they are scanned and each
+ * token is resolved to a term id straight from the scan buffer through a {@link TermLookup}
+ * (usually a {@link TermDictionary}), so no regex, intermediate String or List is created.
+ * Ids land in a reusable int buffer.
+ *
+ * Instances are not thread-safe; {@link #get()} hands out one per thread.
+ */
+public final class Tokenizer {
+    /** Resolves the token in buf[off, off+len) to a term id, or a negative value to skip it. */
+    public interface TermLookup {
+        int id(char[] buf, int off, int len);
+    }
+
+    // String.toLowerCase lowercases I to a dotless i in these locales; match it via the slow path
+    private static final boolean LOCALE_SENSITIVE =
+            Set.of("tr", "az", "lt").contains(Locale.getDefault().getLanguage());
+    private static final ThreadLocal<Tokenizer> LOCAL = ThreadLocal.withInitial(Tokenizer::new);
+
+    private char[] token = new char[32];
+    private int[] ids = new int[64];
+
+    public static Tokenizer get() {
+        return LOCAL.get();
+    }
+
+    /** Ids emitted by the last {@link #tokenize} call; valid until the next call on this thread. */
+    public int[] ids() {
+        return ids;
+    }
+
+    /**
+     * Scans text and stores the id of every token the lookup resolves into {@link #ids()},
+     * in text order. Returns the number of ids stored.
+     */
+    public int tokenize(CharSequence text, TermLookup lookup) {
+        if (LOCALE_SENSITIVE) text = text.toString().toLowerCase();
+        int count = 0, len = 0;
+        for (int i = 0, n = text.length(); i <= n; i++) {
+            char c = i < n ? lower(text.charAt(i)) : ' ';
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                if (len == token.length) token = Arrays.copyOf(token, len * 2);
+                token[len++] = c;
+                // capital I with dot lowercases to i + combining dot, and the dot ends the token
+                if (text.charAt(i) != '\u0130') continue;
+            }
+            if (len > 0) {
+                int id = lookup.id(token, 0, len);
+                if (id >= 0) {
+                    if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+                    ids[count++] = id;
+                }
+                len = 0;
+            }
+        }
+        return count;
+    }
+
+    private static char lower(char c) {
+        if (c < 128) return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+        if (c == '\u0130') return 'i';
+        return Character.toLowerCase(c);
+    }
+
+    /** The tokens of text as strings, for callers that need the text form (cache keys, reports). */
+    public static List<String> tokens(CharSequence text) {
+        List<String> out = new ArrayList<>();
+        get().tokenize(text, (buf, off, len) -> {
+            out.add(new String(buf, off, len));
+            return -1;
+        });
+        return out;
+    }
+}
@@ -0,0 +1,137 @@
+package com.sam.metrics;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * One sampled operation, such as a voice command from the end of its utterance to its answer
+ * being spoken, as the spans of the stages it went through on whichever threads ran them.
+ *
+ * About one operation in {@link #setSampling N} is traced. For the rest, and while metrics are
+ * off, {@link #begin} and {@link #sample} return null after a volatile read. A trace begun on a
+ * thread collects the spans of {@link Stage#stop(long)} calls there until {@link #end}; work
+ * handed to another thread carries the trace along and {@link #attach attaches} it, or passes it
+ * to {@link Stage#stop(long, Trace)}. The last {@link #KEEP} traces are kept for the exports.
+ */
+public final class Trace {
+    static final int KEEP = 64;
+    private static final int MAX_SPANS = 256;
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+    private static final ArrayDeque<Trace> recent = new ArrayDeque<>();  // guarded by itself
+    private static volatile int every = Integer.getInteger("metrics.trace", 0);
+
+    static final class Span {
+        final String stage, thread;
+        final long start, end;
+
+        Span(String stage, String thread, long start, long end) {
+            this.stage = stage;
+            this.thread = thread;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    final String name;
+    final long startMillis = System.currentTimeMillis(), startNanos = System.nanoTime();
+    private volatile long endNanos;
+    private final List<Span> spans = new ArrayList<>();  // guarded by this
+    private int droppedSpans;
+
+    private Trace(String name) {
+        this.name = name;
+    }
+
+    /** Traces about one operation in n from now on; 0 stops tracing. */
+    public static void setSampling(int n) {
+        if (n < 0) throw new IllegalArgumentException("sampling " + n);
+        every = n;
+    }
+
+    public static int sampling() {
+        return every;
+    }
+
+    private static boolean tracing() {
+        return every > 0 && Metrics.enabled;
+    }
+
+    /** A new trace if this operation is sampled, else null; not attached to any thread. */
+    public static Trace sample(String name) {
+        int n = every;
+        if (n == 0 || !Metrics.enabled || n > 1 && ThreadLocalRandom.current().nextInt(n) != 0) return null;
+        Trace t = new Trace(name);
+        synchronized (recent) {
+            if (recent.size() == KEEP) recent.removeFirst();
+            recent.addLast(t);
+        }
+        return t;
+    }
+
+    /**
+     * As {@link #sample}, attached to the current thread. Null too when the thread already runs a
+     * trace, which then gets this operation's spans.
+     */
+    public static Trace begin(String name) {
+        if (!tracing() || CURRENT.get() != null) return null;
+        Trace t = sample(name);
+        if (t != null) CURRENT.set(t);
+        return t;
+    }
+
+    /** The trace attached to the current thread, if tracing. */
+    public static Trace current() {
+        return tracing() ? CURRENT.get() : null;
+    }
+
+    /** Attaches this trace to the current thread, for work handed over by the thread that began it. */
+    public void attach() {
+        CURRENT.set(this);
+    }
+
+    /** Finishes t, if not null, and detaches it from the current thread. Spans may still follow. */
+    public static void end(Trace t) {
+        if (t == null) return;
+        t.endNanos = System.nanoTime();
+        if (CURRENT.get() == t) CURRENT.remove();
+    }
+
+    /** Adds a span timed by the caller, in {@link System#nanoTime} readings, run by the current thread. */
+    public synchronized void span(String stage, long start, long end) {
+        if (spans.size() == MAX_SPANS) {
+            droppedSpans++;
+            return;
+        }
+        spans.add(new Span(stage, Thread.currentThread().getName(), start, end));
+    }
+
+    static List<Trace> recent() {
+        synchronized (recent) {
+            return new ArrayList<>(recent);
+        }
+    }
+
+    void json(StringBuilder sb) {
+        long end = endNanos;
+        sb.append("{\"name\":").append(Metrics.quote(name))
+                .append(",\"start\":").append(Metrics.quote(Instant.ofEpochMilli(startMillis).toString()))
+                .append(",\"micros\":").append(end == 0 ? "null" : Metrics.micros(end - startNanos))
+                .append(",\"spans\":[");
+        synchronized (this) {
+            for (int i = 0; i < spans.size(); i++) {
+                Span s = spans.get(i);
+                if (i > 0) sb.append(',');
+                sb.append("{\"stage\":").append(Metrics.quote(s.stage))
+                        .append(",\"thread\":").append(Metrics.quote(s.thread))
+                        .append(",\"offsetMicros\":").append(Metrics.micros(s.start - startNanos))
+                        .append(",\"micros\":").append(Metrics.micros(s.end - s.start)).append('}');
+            }
+            sb.append(']');
+            if (droppedSpans > 0) sb.append(",\"droppedSpans\":").append(droppedSpans);
+        }
+        sb.append('}');
+    }
+}
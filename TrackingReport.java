@@ -0,0 +1,159 @@
+import org.opencv.core.*;
+import org.opencv.face.FaceRecognizer;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.videoio.VideoCapture;
+
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * Accuracy and throughput of {@link FaceTracker} against detecting and recognizing on every
+ * frame, on a recorded clip.
+ *
+ * Both modes run single-threaded over every frame of the clip. The per-frame mode is the
+ * reference: a reference face counts as found when the tracking mode reports a face
+ * overlapping it by at least 0.5 IoU on the same frame, and identities agree when that face
+ * carries the same name.
+ *
+ * Usage: java TrackingReport <clip> [detectEvery] [predictEvery] [scale]
+ */
+public class TrackingReport {
+    static { System.loadLibrary(Core.NATIVE_LIBRARY_NAME); }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java TrackingReport <clip> [detectEvery] [predictEvery] [scale]");
+            System.exit(2);
+        }
+        int detectEvery = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int predictEvery = args.length > 2 ? Integer.parseInt(args[2]) : 15;
+        double scale = args.length > 3 ? Double.parseDouble(args[3]) : 0.5;
+        FaceModelCache.Model model = FaceModelCache.loadOrTrain(Paths.get("faces"), Paths.get("face_model"),
+                Runtime.getRuntime().availableProcessors());
+        CascadeClassifier detector = new CascadeClassifier("haarcascade_frontalface_default.xml");
+        System.out.println(compare(args[0], detector, model.recognizer, model::name, detectEvery, predictEvery, scale));
+    }
+
+    private static final class Face {
+        final Rect rect;
+        final String name;
+
+        Face(Rect rect, String name) {
+            this.rect = rect;
+            this.name = name;
+        }
+    }
+
+    private static final class Run {
+        final List<List<Face>> frames = new ArrayList<>();
+        long nanos, detections, predictions;
+
+        double fps() {
+            return frames.size() / (nanos / 1e9);
+        }
+    }
+
+    public static String compare(String clip, CascadeClassifier detector, FaceRecognizer recognizer, IntFunction<String> names,
+                                 int detectEvery, int predictEvery, double scale) {
+        Run full = perFrame(clip, detector, recognizer, names);
+        FaceTracker tracker = new FaceTracker(detector, detectEvery, scale, predictEvery);
+        Run tracked = tracking(clip, tracker, recognizer, names);
+        tracker.release();
+
+        long reference = 0, found = 0, sameName = 0, reported = 0;
+        int n = Math.min(full.frames.size(), tracked.frames.size());
+        for (int i = 0; i < n; i++) {
+            List<Face> got = tracked.frames.get(i);
+            reported += got.size();
+            for (Face want : full.frames.get(i)) {
+                reference++;
+                Face best = null;
+                double bestOverlap = 0.5;
+                for (Face g : got) {
+                    double o = FaceTracker.overlap(want.rect, g.rect);
+                    if (o >= bestOverlap) { best = g; bestOverlap = o; }
+                }
+                if (best == null) continue;
+                found++;
+                if (want.name.equals(best.name)) sameName++;
+            }
+        }
+        return String.format("%d frames%n"
+                        + "per-frame: %7.1f fps, %d detections, %d predictions%n"
+                        + "tracking:  %7.1f fps, %d detections, %d predictions, %d track steps (every %d frames, scale %.2f, predict every %d)%n"
+                        + "speedup %.2fx; recall %.3f (%d/%d faces), precision %.3f, identity agreement %.3f",
+                n, full.fps(), full.detections, full.predictions,
+                tracked.fps(), tracked.detections, tracked.predictions, tracker.trackSteps(), detectEvery, scale, predictEvery,
+                tracked.fps() / full.fps(), ratio(found, reference), found, reference, ratio(found, reported),
+                ratio(sameName, found));
+    }
+
+    private static double ratio(long a, long b) {
+        return b == 0 ? 1.0 : (double) a / b;
+    }
+
+    private static Run perFrame(String clip, CascadeClassifier detector, FaceRecognizer recognizer, IntFunction<String> names) {
+        Run run = new Run();
+        VideoCapture cap = new VideoCapture(clip);
+        Mat frame = new Mat(), gray = new Mat(), face = new Mat();
+        MatOfRect rects = new MatOfRect();
+        int[] label = new int[1];
+        double[] conf = new double[1];
+        long t0 = System.nanoTime();
+        while (cap.read(frame) && !frame.empty()) {
+            Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+            detector.detectMultiScale(gray, rects);
+            run.detections++;
+            List<Face> faces = new ArrayList<>();
+            for (Rect r : rects.toArray()) {
+                Mat roi = gray.submat(r);
+                Imgproc.resize(roi, face, FaceGallery.FACE_SIZE);
+                roi.release();
+                recognizer.predict(face, label, conf);
+                run.predictions++;
+                faces.add(new Face(r, names.apply(label[0])));
+            }
+            run.frames.add(faces);
+        }
+        run.nanos = System.nanoTime() - t0;
+        cap.release();
+        frame.release(); gray.release(); face.release(); rects.release();
+        return run;
+    }
+
+    private static Run tracking(String clip, FaceTracker tracker, FaceRecognizer recognizer, IntFunction<String> names) {
+        Run run = new Run();
+        VideoCapture cap = new VideoCapture(clip);
+        Mat frame = new Mat(), gray = new Mat(), face = new Mat();
+        int[] label = new int[1];
+        double[] conf = new double[1];
+        long seq = 0;
+        long t0 = System.nanoTime();
+        while (cap.read(frame) && !frame.empty()) {
+            Imgproc.cvtColor(frame, gray, Imgproc.COLOR_BGR2GRAY);
+            List<Face> faces = new ArrayList<>();
+            for (FaceTracker.Track t : tracker.update(gray)) {
+                Rect r = tracker.rect(t);
+                Rect roiRect = FramePipeline.clip(r, gray);
+                if (roiRect.width > 0 && roiRect.height > 0 && tracker.claimPrediction(t, seq)) {
+                    Mat roi = gray.submat(roiRect);
+                    Imgproc.resize(roi, face, FaceGallery.FACE_SIZE);
+                    roi.release();
+                    recognizer.predict(face, label, conf);
+                    t.setIdentity(names.apply(label[0]), conf[0]);
+                }
+                faces.add(new Face(r, t.name()));
+            }
+            run.frames.add(faces);
+            seq++;
+        }
+        run.nanos = System.nanoTime() - t0;
+        run.detections = tracker.detections();
+        run.predictions = tracker.predictions();
+        cap.release();
+        frame.release(); gray.release(); face.release();
+        return run;
+    }
+}
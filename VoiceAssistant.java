@@ -9,23 +9,38 @@ import javax.sound.sampled.*;
 import com.sun.speech.freetts.Voice;
 import com.sun.speech.freetts.VoiceManager;
 
+import java.awt.Desktop;
 import java.io.*;
 import java.net.URI;
-import java.net.http.*;
+import java.nio.file.Paths;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Locale;
-import java.util.Map;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * VoiceAssistant.java
  * Simple assistant using Vosk (offline STT) + FreeTTS (TTS).
+ * Audio is captured, recognized and acted on in separate stages, see {@link SpeechPipeline};
+ * commands are matched by an {@link IntentMatcher}.
+ *
+ * Run with (after mvn install): mvn -pl voice exec:java -Dexec.mainClass="com.sam.voice.VoiceAssistant"
+ *   -Dexec.args="[--model=dir] [--wav=file [--fast]] [--no-tts] [--barge-in | --no-barge-in]
+ *                [--wiki=url] [--wiki-cache=dir] [--tts-wav=file]"
  *
- * Run with: mvn exec:java -Dexec.mainClass="com.sam.voice.VoiceAssistant"
+ * --wav reads utterances from a 16 kHz mono WAV file instead of the microphone, paced in real
+ * time so the end-of-utterance latencies printed at the end are what a microphone would see;
+ * --fast reads it as fast as the recognizer goes. --barge-in cancels a running command when
+ * speech is heard; --no-barge-in ignores that speech instead. Barge-in is off by default when
+ * the microphone listens while the speakers talk, since it would hear the assistant's own
+ * answer and cancel it; use --barge-in with a headset. --wiki replaces the Wikipedia summary endpoint
+ * (a local stub, say) and --wiki-cache keeps looked-up summaries on disk between runs.
+ * --tts-wav writes the assistant's speech to a WAV file, at real-time speed, instead of the
+ * speakers. Speech is played by {@link SpeechOutput} with the fixed prompts rendered at start.
  *
- * Ensure MODEL_PATH points to an unzipped Vosk model directory.
+ * Ensure MODEL_PATH (or --model) points to an unzipped Vosk model directory.
  */
 public class VoiceAssistant {
     // === Configure this ===
@@ -34,23 +49,67 @@ public class VoiceAssistant {
 
     // FreeTTS voice name
     private static final String TTS_VOICE = "kevin16";
+    private static final long TTS_CACHE_BYTES = 16 << 20;  // about 8 minutes of 16 kHz speech
 
-    // HTTP client and JSON mapper
-    private final HttpClient httpClient = HttpClient.newHttpClient();
-    private final ObjectMapper mapper = new ObjectMapper();
+    // spoken as they are, so rendered before the assistant starts listening
+    private static final String GREETING = "Hello Sam. Voice assistant started and ready.";
+    private static final String LISTENING =
+            "Listening now. Say a command like, 'what time is it', 'search', 'play', or 'open notepad'.";
+    private static final String UNKNOWN =
+            "I don't know that command yet. Try 'what time', 'search', 'play', or 'open notepad'.";
+    private static final String ASK_QUERY = "What would you like me to search?";
+    private static final String ASK_SONG = "Which song should I play?";
+    private static final String NOTEPAD = "Opening Notepad.";
+    private static final String GOODBYE = "Goodbye, Sam.";
+    private static final String ERROR = "An error occurred handling the command.";
+    private static final String TIME_IS = "The time is";
 
     private Voice ttsVoice;
+    private SpeechOutput speech;
+    private SpeechPipeline pipeline;
+    private WikiLookup wiki;
 
     public static void main(String[] args) throws Exception {
+        String modelPath = MODEL_PATH;
+        String wav = null, wikiEndpoint = WikiLookup.WIKIPEDIA, wikiCache = null, ttsWav = null;
+        boolean tts = true, paced = true;
+        Boolean bargeIn = null;
+        for (String a : args) {
+            if (a.startsWith("--model=")) modelPath = a.substring("--model=".length());
+            else if (a.startsWith("--wav=")) wav = a.substring("--wav=".length());
+            else if (a.equals("--fast")) paced = false;
+            else if (a.equals("--no-tts")) tts = false;
+            else if (a.equals("--barge-in")) bargeIn = true;
+            else if (a.equals("--no-barge-in")) bargeIn = false;
+            else if (a.startsWith("--wiki=")) wikiEndpoint = a.substring("--wiki=".length());
+            else if (a.startsWith("--wiki-cache=")) wikiCache = a.substring("--wiki-cache=".length());
+            else if (a.startsWith("--tts-wav=")) ttsWav = a.substring("--tts-wav=".length());
+        }
         // Initialize bindings for Vosk native lib
         LibVosk.setLogLevel(LogLevel.INFO);
         VoiceAssistant assistant = new VoiceAssistant();
-        assistant.initTTS();
-        assistant.speak("Hello Sam. Voice assistant started and ready.");
-        assistant.runRecognizerLoop();
+        assistant.wiki = WikiLookup.defaults(wikiEndpoint, wikiCache == null ? null : Paths.get(wikiCache));
+        if (tts) assistant.initTTS(ttsWav != null ? SpeechOutput.wav(new File(ttsWav), true) : SpeechOutput.speakers());
+        assistant.speak(GREETING);
+
+        SpeechPipeline.Source source;
+        try {
+            source = wav != null ? SpeechPipeline.wav(new File(wav), SAMPLE_RATE, paced)
+                    : SpeechPipeline.microphone(SAMPLE_RATE);
+        } catch (LineUnavailableException e) {
+            System.err.println("[ERROR] Microphone line unavailable: " + e.getMessage());
+            return;
+        } catch (UnsupportedAudioFileException | IOException e) {
+            System.err.println("[ERROR] Cannot read " + wav + ": " + e.getMessage());
+            return;
+        }
+        // the microphone would hear the speakers
+        if (bargeIn == null) bargeIn = wav != null || !tts || ttsWav != null;
+        assistant.run(modelPath, source, bargeIn);
+        System.exit(0);
     }
 
-    private void initTTS() {
+    private void initTTS(SpeechOutput.Sink sink) {
         System.setProperty("freetts.voices",
             "com.sun.speech.freetts.en.us.cmu_us_kal.KevinVoiceDirectory");
         VoiceManager vm = VoiceManager.getInstance();
@@ -60,153 +119,152 @@ public class VoiceAssistant {
             return;
         }
         ttsVoice.allocate();
+        speech = new SpeechOutput(ttsVoice, sink, TTS_CACHE_BYTES);
+        try {
+            speech.prerender(List.of(GREETING, LISTENING, UNKNOWN, ASK_QUERY, ASK_SONG, NOTEPAD, GOODBYE, ERROR,
+                    TIME_IS));
+        } catch (IOException e) {
+            System.err.println("[TTS] " + e.getMessage());
+            speech = null;
+            return;
+        }
+        // every time of day, a handful of fragments each
+        List<String> time = new ArrayList<>(List.of("AM", "PM"));
+        for (int h = 1; h <= 12; h++) time.add(String.valueOf(h));
+        for (int m = 0; m < 60; m++) time.add(minutes(m));
+        speech.prerenderWhenIdle(time);
+        speech.start();
     }
 
-    private void speak(String text) {
+    /** Queues {@code text}, or the fragments it is made of, to be spoken; returns at once. */
+    private void speak(String text, String... fragments) {
+        // a command cancelled by barge-in says nothing more
+        if (Thread.currentThread().isInterrupted()) return;
+        SpeechPipeline.responded();
         System.out.println("[Assistant] " + text);
-        if (ttsVoice != null) {
-            ttsVoice.speak(text);
+        if (speech != null) {
+            speech.say(fragments.length > 0 ? fragments : new String[] {text});
         }
     }
 
-    private void runRecognizerLoop() {
-        // Open microphone line
-        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
-        DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
+    private void awaitSpeech() throws InterruptedException {
+        if (speech != null) speech.awaitIdle();
+    }
 
-        if (!AudioSystem.isLineSupported(info)) {
-            System.err.println("[ERROR] Microphone not supported with format " + format);
-            return;
+    private void stopSpeaking() {
+        if (speech != null) {
+            speech.interrupt();
         }
+    }
 
-        try (Model model = new Model(MODEL_PATH)) {
-            try (TargetDataLine line = (TargetDataLine) AudioSystem.getLine(info)) {
-                line.open(format);
-                line.start();
-
-                try (InputStream ais = new AudioInputStream(line)) {
-                    Recognizer recognizer = new Recognizer(model, SAMPLE_RATE);
-                    byte[] buffer = new byte[4096];
-
-                    speak("Listening now. Say a command like, 'what time is it', 'search', 'play', or 'open notepad'.");
-
-                    while (true) {
-                        int n = ais.read(buffer);
-                        if (n < 0) break;
-
-                        if (recognizer.acceptWaveForm(buffer, n)) {
-                            String resultJson = recognizer.getResult();
-                            String text = extractTextFromResult(resultJson);
-                            if (text != null && !text.isBlank()) {
-                                System.out.println("[Heard] " + text);
-                                handleCommand(text);
-                            }
-                        } else {
-                            // partial = recognizer.getPartialResult(); // optional
-                        }
-                    }
-                    recognizer.close();
+    private void run(String modelPath, SpeechPipeline.Source source, boolean bargeIn) {
+        try (Model model = new Model(modelPath);
+             Recognizer recognizer = new Recognizer(model, SAMPLE_RATE)) {
+            // word times place the end of each utterance for the latency figures
+            recognizer.setWords(true);
+            pipeline = new SpeechPipeline(source, SpeechPipeline.vosk(recognizer), intents(),
+                    this::stopSpeaking, bargeIn);
+            speak(LISTENING);
+            // as before, the assistant does not listen to its own prompts
+            awaitSpeech();
+            pipeline.run();
+            if (speech != null) {
+                try {
+                    speech.close();
+                } catch (IOException e) {
+                    System.err.println("[TTS] " + e.getMessage());
                 }
+                System.out.println(speech.report());
             }
-        } catch (LineUnavailableException e) {
-            System.err.println("[ERROR] Microphone line unavailable: " + e.getMessage());
+            System.out.print(pipeline.report());
+            System.out.println("[WIKI] " + wiki.stats());
         } catch (IOException e) {
             System.err.println("[ERROR] Model load failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    private String extractTextFromResult(String json) {
-        // Vosk result JSON shape: {"text":"..."}
-        try {
-            Map<?,?> m = mapper.readValue(json, Map.class);
-            Object t = m.get("text");
-            return t == null ? "" : t.toString().trim().toLowerCase(Locale.ROOT);
-        } catch (Exception e) {
-            return "";
-        }
+    // in priority order, as the old if/else chain; the time needs no more words once "time" is heard
+    private IntentMatcher intents() {
+        return new IntentMatcher.Builder()
+                .intent("time", true, command(arg -> tellTime()), "* time")
+                .intent("search", false, command(this::search), wiki::summary,
+                        "search {query}", "search for {query}", "wiki {query}")
+                .intent("play", false, command(this::play), "play {song}")
+                .intent("notepad", false, command(arg -> openNotepad()), "* open notepad")
+                .intent("exit", false, command(arg -> exit()), "* exit", "* quit", "* goodbye")
+                .fallback(command(text -> speak(UNKNOWN)))
+                .build();
     }
 
-    private void handleCommand(String text) {
-        try {
-            if (text.contains("time") || text.matches(".*what.*time.*")) {
-                String time = LocalTime.now().format(DateTimeFormatter.ofPattern("hh:mm a"));
-                speak("The time is " + time);
-            }
-            else if (text.startsWith("search") || text.startsWith("search for") || text.startsWith("wiki")) {
-                // e.g., "search tata motors" or "wiki albert einstein"
-                String query = text.replaceFirst("search( for)?", "")
-                                   .replaceFirst("wiki", "")
-                                   .trim();
-                if (query.isBlank()) {
-                    speak("What would you like me to search?");
-                    return;
-                }
-                speak("Searching Wikipedia for " + query);
-                String summary = wikiSummary(query);
-                if (summary != null && !summary.isBlank()) {
-                    speak(summary);
-                } else {
-                    speak("I couldn't find a short summary for " + query);
-                }
-            }
-            else if (text.startsWith("play")) {
-                String song = text.replaceFirst("play", "").trim();
-                if (song.isBlank()) {
-                    speak("Which song should I play?");
-                    return;
-                }
-                speak("Playing " + song + " on YouTube.");
-                // Open default browser with YouTube search
-                String url = "https://www.youtube.com/results?search_query=" + urlEncode(song);
-                openBrowser(url);
-            }
-            else if (text.contains("open notepad") || text.contains("open notepad.exe") || text.contains("open notepad app")) {
-                speak("Opening Notepad.");
-                Runtime.getRuntime().exec("notepad.exe");
-            }
-            else if (text.contains("exit") || text.contains("quit") || text.contains("goodbye")) {
-                speak("Goodbye, Sam.");
-                System.exit(0);
-            }
-            else {
-                speak("I don't know that command yet. Try 'what time', 'search', 'play', or 'open notepad'.");
+    private interface Command {
+        void run(String arg) throws Exception;
+    }
+
+    private Consumer<String> command(Command c) {
+        return arg -> {
+            try {
+                c.run(arg);
+                // a command lasts until its answer has been spoken, so barge-in can cut it short
+                awaitSpeech();
+            } catch (InterruptedException e) {
+                // cancelled by barge-in
+            } catch (Exception e) {
+                speak(ERROR);
+                e.printStackTrace();
             }
-        } catch (Exception e) {
-            speak("An error occurred handling the command.");
-            e.printStackTrace();
+        };
+    }
+
+    private void tellTime() {
+        LocalTime now = LocalTime.now();
+        String time = now.format(DateTimeFormatter.ofPattern("hh:mm a"));
+        int h = now.getHour() % 12;
+        speak(TIME_IS + " " + time, TIME_IS, String.valueOf(h == 0 ? 12 : h), minutes(now.getMinute()),
+                now.getHour() < 12 ? "AM" : "PM");
+    }
+
+    private static String minutes(int m) {
+        return m == 0 ? "o'clock" : m < 10 ? "oh " + m : String.valueOf(m);
+    }
+
+    // e.g., "search tata motors" or "wiki albert einstein"
+    private void search(String query) throws Exception {
+        if (query.isBlank()) {
+            speak(ASK_QUERY);
+            return;
+        }
+        // the lookup runs while the assistant is still talking
+        CompletableFuture<String> lookup = wiki.summary(query);
+        speak("Searching Wikipedia for " + query);
+        String summary = lookup.get();
+        if (summary != null && !summary.isBlank()) {
+            speak(summary);
+        } else {
+            speak("I couldn't find a short summary for " + query);
         }
     }
 
-    private String wikiSummary(String query) {
-        try {
-            // Wikipedia REST API summary endpoint
-            String safe = urlEncode(query.replace(" ", "_"));
-            String endpoint = "https://en.wikipedia.org/api/rest_v1/page/summary/" + safe;
-            HttpRequest req = HttpRequest.newBuilder()
-                    .uri(URI.create(endpoint))
-                    .header("User-Agent", "SamVoiceAssistant/1.0 (contact: none)")
-                    .GET()
-                    .build();
-
-            HttpResponse<String> resp = httpClient.send(req, HttpResponse.BodyHandlers.ofString());
-            if (resp.statusCode() == 200) {
-                Map<?,?> m = mapper.readValue(resp.body(), Map.class);
-                Object extract = m.get("extract");
-                if (extract != null) {
-                    String text = extract.toString();
-                    // trim to first 2 sentences
-                    int periodIdx = nthIndexOf(text, '.', 2);
-                    if (periodIdx > 0 && periodIdx < text.length()-1) {
-                        return text.substring(0, periodIdx+1);
-                    } else {
-                        return text;
-                    }
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("[WIKI] error: " + e.getMessage());
+    private void play(String song) {
+        if (song.isBlank()) {
+            speak(ASK_SONG);
+            return;
         }
-        return null;
+        speak("Playing " + song + " on YouTube.");
+        // Open default browser with YouTube search
+        String url = "https://www.youtube.com/results?search_query=" + urlEncode(song);
+        openBrowser(url);
+    }
+
+    private void openNotepad() throws IOException {
+        speak(NOTEPAD);
+        Runtime.getRuntime().exec("notepad.exe");
+    }
+
+    private void exit() {
+        speak(GOODBYE);
+        pipeline.stop();
     }
 
     // helpers
@@ -227,13 +285,4 @@ public class VoiceAssistant {
             System.err.println("[BROWSER] could not open: " + e.getMessage());
         }
     }
-
-    private static int nthIndexOf(String s, char c, int n) {
-        int pos = -1;
-        for (int i = 0; i < n; i++) {
-            pos = s.indexOf(c, pos+1);
-            if (pos == -1) return -1;
-        }
-        return pos;
-    }
 }
@@ -0,0 +1,169 @@
+package com.sam.voice;
+
+/**
+ * Reusable reader for Vosk's result JSON, {@code {"text": ..., "result": [{"end": ..}, ..]}}
+ * and {@code {"partial": ...}}, into fields that are overwritten by each {@link #read}.
+ *
+ * Scans the string once without building a tree: the text or partial goes into a reused
+ * builder, the end time of the last word is kept, and any other member is skipped. Not
+ * thread-safe; the recognizer thread owns one per kind of result.
+ */
+final class VoskJson {
+    /** "text" of a result or "partial" of a partial result, lower case as Vosk gives it. */
+    final StringBuilder text = new StringBuilder();
+    /** End of the last word in seconds of audio, NaN without word times. */
+    double end;
+
+    private final StringBuilder key = new StringBuilder();
+    private String s;
+    private int i;
+
+    /** Parses {@code json}; false (with empty text) if it is not an object. */
+    boolean read(String json) {
+        text.setLength(0);
+        end = Double.NaN;
+        s = json;
+        i = 0;
+        try {
+            if (next() != '{') return false;
+            i++;
+            if (next() == '}') return true;
+            while (true) {
+                string(key);
+                expect(':');
+                if (is("text") || is("partial")) {
+                    if (next() == '"') string(text);
+                    else skip();
+                } else if (is("result") && next() == '[') {
+                    words();
+                } else {
+                    skip();
+                }
+                if (next() == ',') {
+                    i++;
+                    next();
+                } else {
+                    expect('}');
+                    return true;
+                }
+            }
+        } catch (IllegalArgumentException | StringIndexOutOfBoundsException e) {
+            text.setLength(0);
+            return false;
+        } finally {
+            s = null;
+        }
+    }
+
+    // [{"conf": .., "end": .., "start": .., "word": ..}, ...]: keeps the last "end"
+    private void words() {
+        i++;
+        if (next() == ']') {
+            i++;
+            return;
+        }
+        while (true) {
+            expect('{');
+            if (next() != '}') {
+                while (true) {
+                    string(key);
+                    expect(':');
+                    if (is("end")) end = number();
+                    else skip();
+                    if (next() != ',') break;
+                    i++;
+                    next();
+                }
+            }
+            expect('}');
+            if (next() != ',') break;
+            i++;
+            next();
+        }
+        expect(']');
+    }
+
+    private boolean is(String k) {
+        return key.length() == k.length() && key.indexOf(k) == 0;
+    }
+
+    private char next() {
+        while (Character.isWhitespace(s.charAt(i))) i++;
+        return s.charAt(i);
+    }
+
+    private void expect(char c) {
+        if (next() != c) throw new IllegalArgumentException("expected " + c + " at " + i);
+        i++;
+    }
+
+    private void string(StringBuilder out) {
+        out.setLength(0);
+        expect('"');
+        for (char c; (c = s.charAt(i++)) != '"'; ) {
+            if (c != '\\') {
+                out.append(c);
+                continue;
+            }
+            c = s.charAt(i++);
+            switch (c) {
+                case 'b': out.append('\b'); break;
+                case 'f': out.append('\f'); break;
+                case 'n': out.append('\n'); break;
+                case 'r': out.append('\r'); break;
+                case 't': out.append('\t'); break;
+                case 'u': out.append((char) Integer.parseInt(s, i, i + 4, 16)); i += 4; break;
+                default: out.append(c);
+            }
+        }
+    }
+
+    // plain decimal, as Vosk prints them; an exponent is honoured too
+    private double number() {
+        next();
+        boolean negative = s.charAt(i) == '-';
+        if (negative) i++;
+        double v = 0, scale = 1;
+        boolean fraction = false;
+        for (char c; i < s.length(); i++) {
+            c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                v = v * 10 + (c - '0');
+                if (fraction) scale *= 10;
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        v /= scale;
+        if (i < s.length() && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+            int from = ++i;
+            while (i < s.length() && "+-0123456789".indexOf(s.charAt(i)) >= 0) i++;
+            v *= Math.pow(10, Integer.parseInt(s, from, i, 10));
+        }
+        return negative ? -v : v;
+    }
+
+    // any value
+    private void skip() {
+        char c = next();
+        if (c == '"') {
+            for (i++; (c = s.charAt(i++)) != '"'; ) if (c == '\\') i++;
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = s.charAt(i++);
+                if (c == '"') {
+                    for (char d; (d = s.charAt(i++)) != '"'; ) if (d == '\\') i++;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+            } while (depth > 0);
+        } else {
+            while (i < s.length() && ",}] \t\r\n".indexOf(s.charAt(i)) < 0) i++;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.sam.voice;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Wikipedia page summaries for the assistant, fetched asynchronously and cached.
+ *
+ * Requests go out through {@link HttpClient#sendAsync} with connect and request timeouts, and
+ * lookups of a query already in flight share its request. Answers are kept trimmed to the two
+ * sentences the assistant speaks, in a bounded LRU in memory and optionally as one small file
+ * per query in a cache directory, both expiring after a TTL. The directory is only listed when
+ * the files written exceed a maximum number: expired files go, then the oldest down to 7/8 of
+ * the maximum, so a full directory is listed once per maximum / 8 writes rather than on every
+ * write. "No such page" is cached like a summary, failures and timeouts are not.
+ */
+public final class WikiLookup {
+    public static final String WIKIPEDIA = "https://en.wikipedia.org/api/rest_v1/page/summary/";
+    private static final String NONE = "";  // cached "no summary"
+
+    public static final class Stats {
+        public final long lookups, memoryHits, diskHits, fetches, coalesced, failures;
+        public final String latency;
+
+        Stats(long lookups, long memoryHits, long diskHits, long fetches, long coalesced, long failures,
+              String latency) {
+            this.lookups = lookups; this.memoryHits = memoryHits; this.diskHits = diskHits;
+            this.fetches = fetches; this.coalesced = coalesced; this.failures = failures; this.latency = latency;
+        }
+
+        public double hitRate() {
+            return lookups == 0 ? 0.0 : (double) (memoryHits + diskHits) / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("lookups=%d hitRate=%.3f memoryHits=%d diskHits=%d fetches=%d coalesced=%d "
+                    + "failures=%d latency: %s", lookups, hitRate(), memoryHits, diskHits, fetches, coalesced,
+                    failures, latency);
+        }
+    }
+
+    private static final class Entry {
+        final String summary;
+        final long expiresAt;
+
+        Entry(String summary, long expiresAt) {
+            this.summary = summary; this.expiresAt = expiresAt;
+        }
+    }
+
+    private final String endpoint;
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    private final long ttlMillis;
+    private final Path dir;
+    private final int maxFiles;
+    private int diskFiles;  // in dir as of the last trim, plus those written since; guarded by this
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, Entry> memory;  // guarded by itself
+    private final LongAdder lookups = new LongAdder(), memoryHits = new LongAdder(), diskHits = new LongAdder(),
+            fetches = new LongAdder(), coalesced = new LongAdder(), failures = new LongAdder();
+    private final SpeechPipeline.Latency latency = new SpeechPipeline.Latency();
+
+    /**
+     * @param endpoint  summary URL prefix the encoded title is appended to, e.g. {@link #WIKIPEDIA}
+     * @param ttlMillis how long an answer is reused, in memory and on disk
+     * @param dir       on-disk cache directory, or null for memory only
+     */
+    public WikiLookup(String endpoint, Duration connectTimeout, Duration requestTimeout, int maxEntries,
+                      long ttlMillis, Path dir, int maxFiles) throws IOException {
+        if (maxEntries < 1) throw new IllegalArgumentException("maxEntries must be positive");
+        this.endpoint = endpoint;
+        this.client = HttpClient.newBuilder().connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL).build();
+        this.requestTimeout = requestTimeout;
+        this.ttlMillis = ttlMillis;
+        this.dir = dir;
+        this.maxFiles = maxFiles;
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        if (dir != null) {
+            Files.createDirectories(dir);
+            trimDisk();
+        }
+    }
+
+    /** 3 s to connect and 5 s per request; 256 answers in memory, 4096 on disk, kept for a day. */
+    public static WikiLookup defaults(String endpoint, Path dir) throws IOException {
+        return new WikiLookup(endpoint, Duration.ofSeconds(3), Duration.ofSeconds(5), 256,
+                24 * 3600_000L, dir, 4096);
+    }
+
+    static String key(String query) {
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The first two sentences of the page summary for {@code query}. The future completes with
+     * null when there is no summary or the lookup failed; cancelling it leaves the shared
+     * request running so its answer is still cached.
+     */
+    public CompletableFuture<String> summary(String query) {
+        long t0 = System.nanoTime();
+        lookups.increment();
+        String key = key(query);
+        String cached = fromMemory(key);
+        if (cached == null && dir != null && (cached = fromDisk(key)) != null) {
+            diskHits.increment();
+            remember(key, cached);
+        } else if (cached != null) {
+            memoryHits.increment();
+        }
+        if (cached != null) {
+            latency.record(System.nanoTime() - t0);
+            return CompletableFuture.completedFuture(cached.isEmpty() ? null : cached);
+        }
+
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> shared = inFlight.putIfAbsent(key, mine);
+        if (shared != null) {
+            coalesced.increment();
+        } else {
+            shared = mine;
+            fetches.increment();
+            fetch(key).whenComplete((summary, error) -> {
+                if (error != null) {
+                    failures.increment();
+                    System.err.println("[WIKI] error: " + error);
+                } else {
+                    remember(key, summary);
+                    if (dir != null) toDisk(key, summary);
+                }
+                inFlight.remove(key, mine);
+                mine.complete(error != null || summary.isEmpty() ? null : summary);
+            });
+        }
+        return shared.copy().whenComplete((s, e) -> latency.record(System.nanoTime() - t0));
+    }
+
+    // completes with the trimmed summary, NONE for no such page, exceptionally on failure
+    private CompletableFuture<String> fetch(String key) {
+        String title = URLEncoder.encode(key.replace(' ', '_'), StandardCharsets.UTF_8);
+        HttpRequest req = HttpRequest.newBuilder()
+                .uri(URI.create(endpoint + title))
+                .timeout(requestTimeout)
+                .header("User-Agent", "SamVoiceAssistant/1.0 (contact: none)")
+                .GET()
+                .build();
+        return client.sendAsync(req, HttpResponse.BodyHandlers.ofByteArray()).thenApply(resp -> {
+            if (resp.statusCode() == 404) return NONE;
+            if (resp.statusCode() != 200) throw new IllegalStateException("HTTP " + resp.statusCode() + " for " + key);
+            String extract = extract(resp.body());
+            return extract == null ? NONE : trim(extract);
+        });
+    }
+
+    // the top-level "extract" field, skipping everything else without building a tree
+    private String extract(byte[] body) {
+        try (JsonParser p = mapper.getFactory().createParser(body)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                JsonToken value = p.nextToken();
+                if (name.equals("extract") && value == JsonToken.VALUE_STRING) return p.getText();
+                p.skipChildren();
+            }
+            return null;
+        } catch (IOException e) {
+            throw new IllegalStateException("bad summary JSON: " + e.getMessage(), e);
+        }
+    }
+
+    // first two sentences
+    static String trim(String text) {
+        int periodIdx = text.indexOf('.');
+        if (periodIdx >= 0) periodIdx = text.indexOf('.', periodIdx + 1);
+        return periodIdx > 0 && periodIdx < text.length() - 1 ? text.substring(0, periodIdx + 1) : text;
+    }
+
+    private String fromMemory(String key) {
+        synchronized (memory) {
+            Entry e = memory.get(key);
+            if (e == null) return null;
+            if (System.currentTimeMillis() < e.expiresAt) return e.summary;
+            memory.remove(key);
+            return null;
+        }
+    }
+
+    private void remember(String key, String summary) {
+        synchronized (memory) {
+            memory.put(key, new Entry(summary, System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    // one file per query, named by a hash of the key: the key on the first line, then the summary
+    private Path file(String key) {
+        try {
+            byte[] h = MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 8; i++) sb.append(String.format("%02x", h[i]));
+            return dir.resolve(sb.append(".txt").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String fromDisk(String key) {
+        Path f = file(key);
+        try {
+            if (!Files.exists(f)) return null;
+            if (System.currentTimeMillis() - Files.getLastModifiedTime(f).toMillis() >= ttlMillis) {
+                if (Files.deleteIfExists(f)) counted(-1);
+                return null;
+            }
+            String content = Files.readString(f, StandardCharsets.UTF_8);
+            int nl = content.indexOf('\n');
+            return nl >= 0 && content.substring(0, nl).equals(key) ? content.substring(nl + 1) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void toDisk(String key, String summary) {
+        Path f = file(key);
+        Path tmp = f.resolveSibling(f.getFileName() + ".tmp");
+        try {
+            boolean added = !Files.exists(f);
+            Files.writeString(tmp, key + "\n" + summary, StandardCharsets.UTF_8);
+            Files.move(tmp, f, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (added && counted(1) > maxFiles) trimDisk();
+        } catch (IOException e) {
+            System.err.println("[WIKI] cache write failed: " + e.getMessage());
+        }
+    }
+
+    private synchronized int counted(int delta) {
+        return diskFiles += delta;
+    }
+
+    // drops expired files, then the oldest beyond 7/8 of maxFiles if there are more than maxFiles
+    private synchronized void trimDisk() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> s = Files.list(dir)) {
+            s.filter(p -> p.getFileName().toString().endsWith(".txt")).forEach(files::add);
+        }
+        long now = System.currentTimeMillis();
+        Map<Path, Long> modified = new HashMap<>();
+        for (Iterator<Path> it = files.iterator(); it.hasNext(); ) {
+            Path p = it.next();
+            long m;
+            try {
+                m = Files.getLastModifiedTime(p).toMillis();
+            } catch (NoSuchFileException e) {
+                it.remove();
+                continue;
+            }
+            if (now - m >= ttlMillis) {
+                Files.deleteIfExists(p);
+                it.remove();
+            } else {
+                modified.put(p, m);
+            }
+        }
+        diskFiles = files.size();
+        if (diskFiles <= maxFiles) return;
+        int keep = maxFiles - maxFiles / 8;
+        files.sort(Comparator.comparing(modified::get));
+        for (Path p : files.subList(0, diskFiles - keep)) Files.deleteIfExists(p);
+        diskFiles = keep;
+    }
+
+    public Stats stats() {
+        return new Stats(lookups.sum(), memoryHits.sum(), diskHits.sum(), fetches.sum(), coalesced.sum(),
+                failures.sum(), latency.summary());
+    }
+}
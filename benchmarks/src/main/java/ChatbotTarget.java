@@ -0,0 +1,24 @@
+import com.sam.bench.Targets;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/** {@link Chatbot} for the benchmarks, with its response cache off so every query is retrieved. */
+public final class ChatbotTarget implements Targets.Chat {
+    private final Chatbot bot = new Chatbot();
+
+    @Override
+    public void load(Path corpus) throws Exception {
+        bot.loadCorpus(corpus.toString());
+    }
+
+    @Override
+    public String respond(String query) {
+        return bot.respond(query);
+    }
+
+    @Override
+    public List<String> respondBatch(List<String> queries) {
+        return bot.respondBatch(queries);
+    }
+}
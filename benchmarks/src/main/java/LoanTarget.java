@@ -0,0 +1,44 @@
+import com.sam.bench.Targets;
+import weka.classifiers.trees.RandomForest;
+import weka.core.Instances;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** {@link LoanScorer} for the benchmarks, over a forest trained from the columnar table. */
+public final class LoanTarget implements Targets.Loan {
+    private LoanScorer scorer;
+
+    @Override
+    public List<String[]> train(Path csv, int trees, boolean compiled) throws Exception {
+        ColumnTable table = ColumnTable.read(csv);
+        Instances train = table.split(0.8, 1)[0].toInstances();
+        RandomForest rf = new RandomForest();
+        rf.setNumTrees(trees);
+        rf.setSeed(1);
+        rf.buildClassifier(train);
+        scorer = compiled ? new LoanScorer(null, CompiledForest.compile(rf, train), table.header(), table.fill())
+                : new LoanScorer(rf, null, table.header(), table.fill());
+        List<String[]> records = new ArrayList<>();
+        List<String> lines = Files.readAllLines(csv, StandardCharsets.UTF_8);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = LoanScorer.fields(line);
+            records.add(Arrays.copyOf(fields, scorer.columns()));
+        }
+        return records;
+    }
+
+    @Override
+    public double score(String[] record) throws Exception {
+        return scorer.score(record);
+    }
+
+    @Override
+    public double[] score(List<String[]> records) {
+        return scorer.score(records);
+    }
+}
@@ -0,0 +1,22 @@
+import com.sam.bench.Targets;
+
+/** {@link TextSummarizer} for the benchmarks; {@link #rank} is its PageRank step on its own. */
+public final class SummarizerTarget implements Targets.Summary {
+    private PageRank graph;
+
+    @Override
+    public String summarize(String text, int sentences) {
+        return TextSummarizer.summarize(text, sentences);
+    }
+
+    @Override
+    public void prepare(String text) {
+        int[][][] vec = TextSummarizer.termVectors(TextSummarizer.splitSentences(text));
+        graph = SimilarityGraph.build(vec[0], vec[1], TextSummarizer.MIN_SIMILARITY, TextSummarizer.MAX_DEGREE);
+    }
+
+    @Override
+    public double[] rank() {
+        return graph.rank(TextSummarizer.DAMPING, TextSummarizer.TOLERANCE, TextSummarizer.MAX_ITER, null);
+    }
+}
@@ -0,0 +1,136 @@
+package com.sam.bench;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares JMH results (-rf json) with a baseline run and flags regressions.
+ *
+ * Results are matched by benchmark, parameters and mode. A score regresses when it is worse than
+ * the baseline's (lower throughput, more time per operation) by more than the threshold and by
+ * more than the two error margins together, so differences within the noise are not flagged.
+ * Allocation per operation, recorded by the GC profiler, regresses when it grows by more than the
+ * threshold and by more than {@link #ALLOC_SLACK} bytes.
+ *
+ * Usage: java -cp benchmarks.jar com.sam.bench.BaselineReport baseline.json current.json [threshold]
+ * Exits with status 1 if anything regressed.
+ */
+public final class BaselineReport {
+    static final double DEFAULT_THRESHOLD = 0.10;
+    private static final double ALLOC_SLACK = 16;  // B/op; the normalized rate is not exact
+
+    /** One benchmark, parameter set and mode of a run. */
+    static final class Result {
+        final String benchmark, params, mode, unit;
+        final double score, error, alloc;  // alloc in B/op, NaN without the GC profiler
+
+        Result(String benchmark, String params, String mode, String unit, double score, double error, double alloc) {
+            this.benchmark = benchmark; this.params = params; this.mode = mode; this.unit = unit;
+            this.score = score; this.error = error; this.alloc = alloc;
+        }
+
+        boolean higherIsBetter() {
+            return mode.equals("thrpt");
+        }
+    }
+
+    private BaselineReport() {}
+
+    static Map<String, Result> read(Path file) throws IOException {
+        Map<String, Result> out = new LinkedHashMap<>();
+        for (JsonNode r : new ObjectMapper().readTree(file.toFile())) {
+            // com.sam.bench.ChatbotBench.respond -> ChatbotBench.respond
+            String name = r.path("benchmark").asText();
+            name = name.substring(name.lastIndexOf('.', name.lastIndexOf('.') - 1) + 1);
+            StringBuilder params = new StringBuilder();
+            for (Iterator<Map.Entry<String, JsonNode>> it = r.path("params").fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> p = it.next();
+                if (params.length() > 0) params.append(',');
+                params.append(p.getKey()).append('=').append(p.getValue().asText());
+            }
+            double alloc = Double.NaN;
+            for (Iterator<Map.Entry<String, JsonNode>> it = r.path("secondaryMetrics").fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> m = it.next();
+                // "gc.alloc.rate.norm", prefixed with a middle dot before JMH 1.33
+                if (m.getKey().endsWith("gc.alloc.rate.norm")) alloc = m.getValue().path("score").asDouble();
+            }
+            JsonNode primary = r.path("primaryMetric");
+            double error = primary.path("scoreError").asDouble();  // "NaN" with a single iteration
+            Result res = new Result(name, params.toString(), r.path("mode").asText(), primary.path("scoreUnit").asText(),
+                    primary.path("score").asDouble(), Double.isNaN(error) ? 0 : error, alloc);
+            out.put(name + ' ' + res.params + ' ' + res.mode, res);
+        }
+        return out;
+    }
+
+    /** Prints the comparison; returns the number of regressions. */
+    static int compare(Map<String, Result> baseline, Map<String, Result> current, double threshold, PrintStream out) {
+        int regressions = 0, improvements = 0;
+        out.printf("%-32s %-28s %-6s %16s %16s %9s%n", "benchmark", "params", "mode", "baseline", "current", "change");
+        for (Map.Entry<String, Result> e : current.entrySet()) {
+            Result c = e.getValue(), b = baseline.get(e.getKey());
+            if (b == null) {
+                out.printf("%-32s %-28s %-6s %16s %16s %9s  new%n", c.benchmark, c.params, c.mode, "-",
+                        format(c.score, c.unit), "");
+                continue;
+            }
+            double change = (c.score - b.score) / b.score;
+            double worse = c.higherIsBetter() ? b.score - c.score : c.score - b.score;
+            String verdict = "";
+            if (worse > Math.abs(b.score) * threshold && worse > b.error + c.error) {
+                verdict = "REGRESSION";
+                regressions++;
+            } else if (-worse > Math.abs(b.score) * threshold && -worse > b.error + c.error) {
+                verdict = "improved";
+                improvements++;
+            }
+            out.printf("%-32s %-28s %-6s %16s %16s %9s  %s%n", c.benchmark, c.params, c.mode,
+                    format(b.score, b.unit), format(c.score, c.unit), percent(change), verdict);
+            if (Double.isNaN(b.alloc) || Double.isNaN(c.alloc)) continue;
+            double grown = c.alloc - b.alloc;
+            verdict = "";
+            if (grown > b.alloc * threshold && grown > ALLOC_SLACK) {
+                verdict = "REGRESSION";
+                regressions++;
+            }
+            out.printf("%-32s %-28s %-6s %16s %16s %9s  %s%n", "  allocation", "", "", format(b.alloc, "B/op"),
+                    format(c.alloc, "B/op"), b.alloc == 0 ? "" : percent(grown / b.alloc), verdict);
+        }
+        for (Map.Entry<String, Result> e : baseline.entrySet()) {
+            if (current.containsKey(e.getKey())) continue;
+            Result b = e.getValue();
+            out.printf("%-32s %-28s %-6s %16s %16s %9s  not run%n", b.benchmark, b.params, b.mode,
+                    format(b.score, b.unit), "-", "");
+        }
+        out.printf("%d regressions, %d improvements beyond %.0f%% and the error margins%n", regressions, improvements,
+                threshold * 100);
+        return regressions;
+    }
+
+    private static String format(double v, String unit) {
+        return String.format(Math.abs(v) >= 100 || v == 0 ? "%.0f %s" : "%.4g %s", v, unit);
+    }
+
+    private static String percent(double change) {
+        return Math.abs(change) < 10 ? String.format("%+.1f%%", change * 100) : change > 0 ? ">+999%" : "<-999%";
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java -cp benchmarks.jar com.sam.bench.BaselineReport baseline.json current.json"
+                    + " [threshold]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD;
+        int regressions = compare(read(Paths.get(args[0])), read(Paths.get(args[1])), threshold, System.out);
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+}
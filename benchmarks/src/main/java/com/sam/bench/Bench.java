@@ -0,0 +1,57 @@
+package com.sam.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the benchmarks with the GC profiler, for allocation per operation, and writes the results
+ * as JSON; given a baseline, prints a {@link BaselineReport} and exits with status 1 on a
+ * regression. Any other argument is a JMH option: a benchmark regex, -p scale=SMALL, -f 2, -l ...
+ * To make a baseline, keep the results of a run.
+ *
+ * Usage: java -jar benchmarks/target/benchmarks.jar [JMH options] [--baseline=file.json]
+ *            [--threshold=0.10]
+ */
+public final class Bench {
+    private Bench() {}
+
+    public static void main(String[] args) throws Exception {
+        Path baseline = null;
+        double threshold = BaselineReport.DEFAULT_THRESHOLD;
+        List<String> jmh = new ArrayList<>();
+        for (String a : args) {
+            if (a.startsWith("--baseline=")) baseline = Paths.get(a.substring("--baseline=".length()));
+            else if (a.startsWith("--threshold=")) threshold = Double.parseDouble(a.substring("--threshold=".length()));
+            else jmh.add(a);
+        }
+        CommandLineOptions cli = new CommandLineOptions(jmh.toArray(new String[0]));
+        if (cli.shouldHelp() || cli.shouldList() || cli.shouldListWithParams() || cli.shouldListProfilers()
+                || cli.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(jmh.toArray(new String[0]));
+            return;
+        }
+        Path results = Paths.get(cli.getResult().orElse("jmh-result.json"));
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cli)
+                .resultFormat(ResultFormatType.JSON).result(results.toString());
+        if (cli.getProfilers().stream().noneMatch(p -> p.getKlass().equals("gc")
+                || p.getKlass().equals(GCProfiler.class.getName()))) {
+            options.addProfiler(GCProfiler.class);
+        }
+        new Runner(options.build()).run();
+        System.out.println("Results in " + results);
+        if (baseline == null) return;
+        System.out.println();
+        int regressions = BaselineReport.compare(BaselineReport.read(baseline), BaselineReport.read(results), threshold,
+                System.out);
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+}
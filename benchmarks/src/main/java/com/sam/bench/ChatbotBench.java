@@ -0,0 +1,57 @@
+package com.sam.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chatbot.respond, one query per call, and respondBatch, whose score is per query, over
+ * generated corpora at each scale.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChatbotBench {
+    private static final int BATCH = 256;
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public DataGen.Scale scale;
+
+    private Targets.Chat bot;
+    private List<String> queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path corpus = Files.createTempFile("qa_corpus", ".tsv");
+        try {
+            DataGen.corpus(corpus, scale.corpusEntries, 1);
+            bot = Targets.load(Targets.Chat.class, "ChatbotTarget");
+            bot.load(corpus);
+        } finally {
+            Files.delete(corpus);
+        }
+        queries = DataGen.queries(4096, 2);
+    }
+
+    @Benchmark
+    public String respond() {
+        String q = queries.get(next);
+        next = (next + 1) & 4095;
+        return bot.respond(q);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<String> respondBatch() {
+        int from = next;
+        next = (next + BATCH) & 4095;
+        return bot.respondBatch(queries.subList(from, from + BATCH));
+    }
+}
@@ -0,0 +1,203 @@
+package com.sam.bench;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic inputs for the benchmarks, the same for a given scale and seed.
+ *
+ * Text draws words from a zipf-like vocabulary, so a few terms are common and most are rare as
+ * in real questions and articles; documents drift between topics so sentences are not all
+ * alike. The loan CSV has the columns LoanPrediction is trained on, with missing values, and a
+ * label that depends on them plus noise. Faces are drawn, not photographed: the Haar cascade
+ * finds some of them, and detection cost depends on the frame size either way.
+ *
+ * Usage: java -cp benchmarks.jar com.sam.bench.DataGen dir [SMALL|MEDIUM|LARGE]
+ */
+public final class DataGen {
+    private static final int VOCABULARY = 50000;
+    private static final String[] PURPOSE = {"car", "home", "edu", "biz", "medical"};
+    private static final String[] EMPLOYMENT = {"salaried", "self", "none"};
+
+    /** Sizes of each kind of input. */
+    public enum Scale {
+        SMALL(1_000, 20, 1_000, 320, 240),
+        MEDIUM(20_000, 200, 10_000, 640, 480),
+        LARGE(200_000, 2_000, 100_000, 1280, 720);
+
+        public final int corpusEntries, documentSentences, csvRows, frameWidth, frameHeight;
+
+        Scale(int corpusEntries, int documentSentences, int csvRows, int frameWidth, int frameHeight) {
+            this.corpusEntries = corpusEntries;
+            this.documentSentences = documentSentences;
+            this.csvRows = csvRows;
+            this.frameWidth = frameWidth;
+            this.frameHeight = frameHeight;
+        }
+    }
+
+    private DataGen() {}
+
+    private static String word(Random rnd, int topic) {
+        int rank = (int) Math.min(VOCABULARY, Math.exp(rnd.nextDouble() * Math.log(VOCABULARY)));
+        // the commonest words are shared, the rest shift with the topic
+        return "w" + (rank < 100 ? rank : (rank + topic * 7919) % VOCABULARY);
+    }
+
+    private static StringBuilder words(StringBuilder sb, Random rnd, int count, int topic) {
+        for (int j = 0; j < count; j++) sb.append(j == 0 ? "" : " ").append(word(rnd, topic));
+        return sb;
+    }
+
+    /** Question-answer TSV as Chatbot loads it. */
+    public static void corpus(Path file, int entries, long seed) throws IOException {
+        Random rnd = new Random(seed);
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            for (int i = 0; i < entries; i++) {
+                pw.println(words(new StringBuilder(), rnd, 4 + rnd.nextInt(8), 0) + "?\tanswer " + i);
+            }
+        }
+    }
+
+    /** Short questions over the corpus vocabulary. */
+    public static List<String> queries(int count, long seed) {
+        Random rnd = new Random(seed);
+        List<String> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) out.add(words(new StringBuilder(), rnd, 2 + rnd.nextInt(6), 0).toString());
+        return out;
+    }
+
+    /** An article of {@code sentences} sentences, moving to a new topic every 20 or so. */
+    public static String document(int sentences, long seed) {
+        Random rnd = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        int topic = 0;
+        for (int i = 0; i < sentences; i++) {
+            if (rnd.nextInt(20) == 0) topic++;
+            if (i > 0) sb.append(' ');
+            words(sb, rnd, 8 + rnd.nextInt(18), topic).append(rnd.nextInt(10) == 0 ? '?' : '.');
+        }
+        return sb.toString();
+    }
+
+    /** Loan applications with LoanPrediction's columns, the class last as Y or N. */
+    public static void loanCsv(Path file, int rows, long seed) throws IOException {
+        Random rnd = new Random(seed);
+        try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write("income,loan_amount,term,credit_score,age,purpose,employment,dependents,label\n");
+            for (int i = 0; i < rows; i++) {
+                double income = 60000 + rnd.nextGaussian() * 15000;
+                double amount = 5000 + rnd.nextDouble() * 50000;
+                int term = rnd.nextBoolean() ? 36 : 60;
+                int credit = (int) (650 + rnd.nextGaussian() * 60);
+                int age = 21 + rnd.nextInt(50);
+                String purpose = PURPOSE[rnd.nextInt(PURPOSE.length)];
+                String employment = EMPLOYMENT[rnd.nextInt(EMPLOYMENT.length)];
+                int dependents = rnd.nextInt(4);
+                double z = income / amount * 0.3 + (credit - 650) / 40.0 - (employment.equals("none") ? 1.5 : 0)
+                        - (purpose.equals("biz") ? 0.5 : 0) + rnd.nextGaussian();
+                // missing values in the forms the loaders accept: an empty field or "?"
+                w.write((rnd.nextInt(20) == 0 ? "" : String.format("%.0f", income)) + "," + String.format("%.0f", amount)
+                        + "," + term + "," + (rnd.nextInt(25) == 0 ? "?" : credit) + "," + age + ","
+                        + (rnd.nextInt(30) == 0 ? "" : purpose) + "," + employment + "," + dependents + ","
+                        + (z > 1.2 ? "Y" : "N") + "\n");
+            }
+        }
+    }
+
+    // a frontal face filling the box: oval, brows, eyes, nose and mouth
+    private static void face(Graphics2D g, int x, int y, int w, int h, Random rnd) {
+        int skin = 150 + rnd.nextInt(80);
+        g.setColor(new Color(skin, skin * 4 / 5, skin * 3 / 5));
+        g.fillOval(x, y, w, h);
+        g.setColor(new Color(40, 30, 25));
+        int eyeY = y + h * 2 / 5, eyeW = w / 5, eyeH = h / 10;
+        g.fillRect(x + w / 5, eyeY - eyeH * 2, eyeW, eyeH / 2 + 1);
+        g.fillRect(x + w * 3 / 5, eyeY - eyeH * 2, eyeW, eyeH / 2 + 1);
+        g.fillOval(x + w / 5, eyeY - eyeH / 2, eyeW, eyeH);
+        g.fillOval(x + w * 3 / 5, eyeY - eyeH / 2, eyeW, eyeH);
+        g.setColor(new Color(skin * 4 / 5, skin * 3 / 5, skin / 2));
+        g.fillRect(x + w * 9 / 20, eyeY + eyeH, w / 10, h / 5);
+        g.setColor(new Color(110, 40, 40));
+        g.fillOval(x + w * 7 / 20, y + h * 7 / 10, w * 3 / 10, h / 12 + 1);
+    }
+
+    /** A frame with {@code faces} faces on a noisy background. */
+    public static BufferedImage frame(int width, int height, int faces, Random rnd) {
+        BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(new Color(90 + rnd.nextInt(60), 100 + rnd.nextInt(60), 110 + rnd.nextInt(60)));
+        g.fillRect(0, 0, width, height);
+        for (int i = 0; i < 40; i++) {
+            int c = rnd.nextInt(256);
+            g.setColor(new Color(c, c, c, 60));
+            g.fillRect(rnd.nextInt(width), rnd.nextInt(height), 10 + rnd.nextInt(width / 4), 10 + rnd.nextInt(height / 4));
+        }
+        for (int i = 0; i < faces; i++) {
+            int w = Math.max(48, height / 4 + rnd.nextInt(height / 6));
+            face(g, rnd.nextInt(Math.max(1, width - w)), rnd.nextInt(Math.max(1, height - w * 5 / 4)), w, w * 5 / 4, rnd);
+        }
+        g.dispose();
+        return img;
+    }
+
+    /** {@code count} PNG frames of one to three faces, named frame-0000.png on. */
+    public static List<Path> frames(Path dir, int count, int width, int height, long seed) throws IOException {
+        Files.createDirectories(dir);
+        Random rnd = new Random(seed);
+        List<Path> out = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path f = dir.resolve(String.format("frame-%04d.png", i));
+            ImageIO.write(frame(width, height, 1 + rnd.nextInt(3), rnd), "png", f.toFile());
+            out.add(f);
+        }
+        return out;
+    }
+
+    /** A training gallery: one folder per person, each person's face drawn from one seed with jitter. */
+    public static void gallery(Path dir, int people, int perPerson, long seed) throws IOException {
+        for (int p = 0; p < people; p++) {
+            Path person = Files.createDirectories(dir.resolve(String.format("person%02d", p)));
+            for (int i = 0; i < perPerson; i++) {
+                BufferedImage img = new BufferedImage(200, 200, BufferedImage.TYPE_3BYTE_BGR);
+                Graphics2D g = img.createGraphics();
+                g.setColor(Color.GRAY);
+                g.fillRect(0, 0, 200, 200);
+                Random jitter = new Random(seed * 1000 + p * 100 + i);
+                face(g, 20 + jitter.nextInt(10), 10 + jitter.nextInt(10), 150 + p % 5 * 5, 180, new Random(seed + p));
+                g.dispose();
+                ImageIO.write(img, "png", person.resolve(String.format("%03d.png", i)).toFile());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java -cp benchmarks.jar com.sam.bench.DataGen dir [SMALL|MEDIUM|LARGE]");
+            System.exit(2);
+        }
+        Path dir = Files.createDirectories(Paths.get(args[0]));
+        Scale scale = args.length > 1 ? Scale.valueOf(args[1].toUpperCase()) : Scale.SMALL;
+        corpus(dir.resolve("qa_corpus.tsv"), scale.corpusEntries, 1);
+        Files.write(dir.resolve("queries.txt"), queries(4096, 2), StandardCharsets.UTF_8);
+        Files.writeString(dir.resolve("document.txt"), document(scale.documentSentences, 3), StandardCharsets.UTF_8);
+        loanCsv(dir.resolve("loan_data.csv"), scale.csvRows, 4);
+        gallery(dir.resolve("faces"), 5, 10, 5);
+        frames(dir.resolve("frames"), 30, scale.frameWidth, scale.frameHeight, 6);
+        System.out.println("Wrote " + scale + " data sets to " + dir);
+    }
+}
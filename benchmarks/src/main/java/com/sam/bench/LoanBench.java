@@ -0,0 +1,56 @@
+package com.sam.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random forest scoring of loan applications through LoanScorer, one record per call and in
+ * batches of every record in the file, with the Weka model and with the compiled forest. The
+ * forest has LoanPrediction's 100 trees, trained on 80% of a generated CSV at each scale.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoanBench {
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public DataGen.Scale scale;
+
+    @Param({"weka", "compiled"})
+    public String model;
+
+    private Targets.Loan scorer;
+    private List<String[]> records;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Path csv = Files.createTempFile("loan_data", ".csv");
+        try {
+            DataGen.loanCsv(csv, scale.csvRows, 4);
+            scorer = Targets.load(Targets.Loan.class, "LoanTarget");
+            records = scorer.train(csv, 100, model.equals("compiled"));
+        } finally {
+            Files.delete(csv);
+        }
+    }
+
+    @Benchmark
+    public double score() throws Exception {
+        String[] r = records.get(next);
+        if (++next == records.size()) next = 0;
+        return scorer.score(r);
+    }
+
+    /** Per call, not per record: the batch grows with the scale. */
+    @Benchmark
+    public double[] scoreAll() {
+        return scorer.score(records);
+    }
+}
@@ -0,0 +1,40 @@
+package com.sam.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TextSummarizer.summarize on generated documents at each scale, and its PageRank step alone
+ * on the sentence graph of the same document.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SummarizerBench {
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public DataGen.Scale scale;
+
+    private Targets.Summary summarizer;
+    private String document;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        summarizer = Targets.load(Targets.Summary.class, "SummarizerTarget");
+        document = DataGen.document(scale.documentSentences, 3);
+        summarizer.prepare(document);
+    }
+
+    @Benchmark
+    public String summarize() {
+        return summarizer.summarize(document, 3);
+    }
+
+    @Benchmark
+    public double[] pagerank() {
+        return summarizer.rank();
+    }
+}
@@ -0,0 +1,71 @@
+package com.sam.bench;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The code under test, as the benchmarks see it.
+ *
+ * Chatbot, TextSummarizer and the rest live in the default package, which a named package
+ * cannot import from, and JMH will not generate benchmarks in the default package. So each
+ * target is an interface here, implemented by a small class in the default package next to the
+ * code it calls (ChatbotTarget and so on) and loaded by name. A benchmark JVM loads one
+ * implementation of each, so the interface calls are inlined like direct ones.
+ */
+public final class Targets {
+    private Targets() {}
+
+    public interface Chat {
+        /** Loads a question-answer TSV. */
+        void load(Path corpus) throws Exception;
+
+        String respond(String query);
+
+        List<String> respondBatch(List<String> queries);
+    }
+
+    public interface Summary {
+        String summarize(String text, int sentences);
+
+        /** Splits and tokenizes a document and builds its sentence graph, for {@link #rank}. */
+        void prepare(String text);
+
+        /** PageRank over the prepared graph; the returned scores are reused by the next call. */
+        double[] rank();
+    }
+
+    public interface Loan {
+        /**
+         * Trains a forest on 80% of the CSV, as LoanPrediction does, and scores through the Weka
+         * model or the compiled forest. Returns every record of the file without its class.
+         */
+        List<String[]> train(Path csv, int trees, boolean compiled) throws Exception;
+
+        double score(String[] record) throws Exception;
+
+        double[] score(List<String[]> records);
+    }
+
+    public interface Face {
+        /**
+         * Loads the Haar cascade, trains the recognizer on a gallery and decodes the frames.
+         *
+         * @param trackEvery run the cascade every this many frames and track faces in between,
+         *                   or 0 to detect on every frame
+         */
+        void setUp(Path cascade, Path gallery, List<Path> frames, int trackEvery) throws Exception;
+
+        /** The per-frame path on the next frame: grayscale, detect or track, predict; faces seen. */
+        int frame();
+
+        void tearDown();
+    }
+
+    static <T> T load(Class<T> type, String implementation) {
+        try {
+            return Class.forName(implementation).asSubclass(type).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("cannot load " + implementation + " for " + type.getSimpleName(), e);
+        }
+    }
+}
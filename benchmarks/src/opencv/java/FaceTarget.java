@@ -0,0 +1,87 @@
+import com.sam.bench.Targets;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.face.LBPHFaceRecognizer;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FramePipeline's detect and recognize stages for the benchmarks, run back to back on one
+ * thread over decoded frames, with or without a {@link FaceTracker}.
+ */
+public final class FaceTarget implements Targets.Face {
+    static { System.loadLibrary(Core.NATIVE_LIBRARY_NAME); }
+
+    private final List<Mat> frames = new ArrayList<>();
+    private final Mat gray = new Mat(), face = new Mat();
+    private final MatOfRect faces = new MatOfRect();
+    private final int[] label = new int[1];
+    private final double[] conf = new double[1];
+    private CascadeClassifier detector;
+    private LBPHFaceRecognizer recognizer;
+    private FaceTracker tracker;
+    private Path cacheDir;
+    private long seq;
+
+    @Override
+    public void setUp(Path cascade, Path gallery, List<Path> frameFiles, int trackEvery) throws Exception {
+        detector = new CascadeClassifier(cascade.toString());
+        if (detector.empty()) throw new IllegalArgumentException("cannot load cascade " + cascade);
+        cacheDir = Files.createTempDirectory("face_model");
+        recognizer = FaceModelCache.loadOrTrain(gallery, cacheDir, 1).recognizer;
+        for (Path f : frameFiles) frames.add(Imgcodecs.imread(f.toString()));
+        // as FaceRecognition sets it up: half-size detection, faces re-predicted every 15 frames
+        if (trackEvery > 0) tracker = new FaceTracker(detector, trackEvery, 0.5, 15);
+    }
+
+    @Override
+    public int frame() {
+        Mat bgr = frames.get((int) (seq % frames.size()));
+        Imgproc.cvtColor(bgr, gray, Imgproc.COLOR_BGR2GRAY);
+        int seen = 0;
+        if (tracker != null) {
+            for (FaceTracker.Track t : tracker.update(gray)) {
+                if (tracker.claimPrediction(t, seq)) predict(tracker.rect(t));
+                seen++;
+            }
+        } else {
+            detector.detectMultiScale(gray, faces);
+            for (Rect r : faces.toArray()) {
+                predict(r);
+                seen++;
+            }
+        }
+        seq++;
+        return seen;
+    }
+
+    private void predict(Rect r) {
+        Mat roi = gray.submat(FramePipeline.clip(r, gray));
+        Imgproc.resize(roi, face, FaceGallery.FACE_SIZE);
+        roi.release();
+        recognizer.predict(face, label, conf);
+    }
+
+    @Override
+    public void tearDown() {
+        for (Mat m : frames) m.release();
+        gray.release();
+        face.release();
+        faces.release();
+        if (tracker != null) tracker.release();
+        try (var files = Files.list(cacheDir)) {
+            for (Path f : (Iterable<Path>) files::iterator) Files.delete(f);
+            Files.delete(cacheDir);
+        } catch (Exception e) {
+            System.err.println("[FaceTarget] could not remove " + cacheDir + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.sam.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * FaceRecognition's per-frame work on generated frames at each scale: Haar detection and an
+ * LBPH prediction per face on every frame, or detection every 5 frames with tracking between.
+ * Frames are decoded up front; capture and drawing are not measured.
+ *
+ * Needs the OpenCV native library on -Djava.library.path, and the cascade file from
+ * -Dface.cascade (default haarcascade_frontalface_default.xml in the working directory).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FaceBench {
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public DataGen.Scale scale;
+
+    @Param({"0", "5"})
+    public int trackEvery;
+
+    private Targets.Face faces;
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("face_bench");
+        DataGen.gallery(dir.resolve("gallery"), 5, 10, 5);
+        List<Path> frames = DataGen.frames(dir.resolve("frames"), 30, scale.frameWidth, scale.frameHeight, 6);
+        faces = Targets.load(Targets.Face.class, "FaceTarget");
+        faces.setUp(Paths.get(System.getProperty("face.cascade", "haarcascade_frontalface_default.xml")),
+                dir.resolve("gallery"), frames, trackEvery);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        faces.tearDown();
+        try (Stream<Path> s = Files.walk(dir)) {
+            for (Path p : (Iterable<Path>) s.sorted(Comparator.reverseOrder())::iterator) Files.delete(p);
+        }
+    }
+
+    @Benchmark
+    public int frame() {
+        return faces.frame();
+    }
+}